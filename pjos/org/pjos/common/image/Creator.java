@@ -21,13 +21,16 @@ Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
 package org.pjos.common.image;
 
 import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
 import java.io.FileOutputStream;
+import java.io.FileReader;
 import java.io.IOException;
 import java.io.PrintStream;
 
 import java.nio.ByteOrder;
 
 import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.Map;
 import java.util.Set;
 
@@ -37,6 +40,8 @@ import javax.xml.parsers.DocumentBuilderFactory;
 import org.w3c.dom.Document;
 import org.w3c.dom.NodeList;
 
+import org.pjos.common.runtime.Field;
+import org.pjos.common.runtime.Method;
 import org.pjos.common.runtime.Type;
 
 /**
@@ -44,6 +49,9 @@ import org.pjos.common.runtime.Type;
  */
 public class Creator {
 
+    /** The configuration file name */
+    private String config;
+    
     /** The configuration document */
     private Document doc;
     
@@ -78,11 +86,13 @@ public class Creator {
      * Create an image object with the given document
      */
     private Creator(
+            String config,
             Document doc,
             String classpath,
             String imageFile,
             String logFile)
     {
+        this.config = config;
         this.doc = doc;
         this.classpath = classpath;
         this.imageFile = imageFile;
@@ -92,16 +102,32 @@ public class Creator {
     }
     
     /**
-     * Generate the image file
+     * Generate the image file, unless it is already up to date
      */
     private void generate() throws IOException {
         // check there's only one image node
         getUnique("image");
         
+        // skip the build if no input has changed since the last one
+        TypeLoader loader = new TypeLoader(classpath);
+        String profile = getOptionalValue("profile", null);
+        Stamp stamp = new Stamp(
+                config, doc, classpath, loader, imageFile, logFile, profile);
+        if (stamp.isCurrent()) {
+            System.out.println("Memory image up to date: " + imageFile);
+            return;
+        }
+        stamp.clear();
+        
         // read settings
         int offset = getIntValue("offset");
         String root = getValue("root");
         ByteOrder byteOrder = getByteOrder(getValue("byteorder"));
+        boolean preinitialise
+                = getOptionalValue("preinitialise", "false").equals("true");
+        boolean devirtualize
+                = getOptionalValue("devirtualize", "false").equals("true");
+        boolean shake = getOptionalValue("shake", "false").equals("true");
         
         // create web
         PrintStream log = new PrintStream(
@@ -109,13 +135,16 @@ public class Creator {
         web = new Web(byteOrder, offset, createInitialisers(), log);
         
         // load types, frames and instances
-        types.loadTypes(doc, classpath);
+        types.loadTypes(doc, loader, preinitialise, devirtualize, shake);
         loadFrames();
         instances.loadInstances(doc);
         
         // Create the executable image and allocate objects
         Instance rootInstance = getInstance(root);
-        web.allocate(rootInstance);
+        Object[] hot = (profile != null)
+                ? readProfile(profile)
+                : new Object[0];
+        web.allocate(rootInstance, hot);
         byte[] data = web.generate();
         
         // save to file
@@ -124,6 +153,7 @@ public class Creator {
         out.write(data);
         out.close();
         log.close();
+        stamp.write();
         System.out.println("Memory image generated: " + imageFile);
     }
     
@@ -183,6 +213,45 @@ public class Creator {
         }
     }
     
+    /**
+     * Read the methods listed in a profile written by the emulator, as
+     * comma separated values, in the order they appear
+     * @param file the profile file name
+     * @return the methods in the image named by the profile
+     */
+    private Method[] readProfile(String file) throws IOException {
+        Map methods = new HashMap();
+        Type[] all = types.getAll();
+        for (int i = 0; i < all.length; i++) {
+            String classname = all[i].getName().replace('/', '.');
+            Method[] declared = getMethods(all[i]);
+            for (int j = 0; j < declared.length; j++) {
+                Method m = declared[j];
+                methods.put(classname + "." + m.getName() + m.getDescriptor(),
+                        m);
+            }
+        }
+        LinkedList result = new LinkedList();
+        int count = 0;
+        BufferedReader in = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (!line.startsWith("method,\"")) { continue; }
+                count++;
+                int start = line.indexOf('"') + 1;
+                String name = line.substring(start, line.indexOf('"', start));
+                Method m = (Method) methods.get(name);
+                if (m != null) { result.add(m); }
+            }
+        } finally {
+            in.close();
+        }
+        System.out.println("Profiled methods placed first: " + result.size()
+                + " of " + count);
+        return (Method[]) result.toArray(new Method[result.size()]);
+    }
+    
     /**
      * Load the given object into the web as a key
      * @param key the key
@@ -264,6 +333,31 @@ public class Creator {
         return strings;
     }
     
+    /**
+     * @param type the type
+     * @return the methods of the given type to be put in the image
+     */
+    Method[] getMethods(Type type) {
+        return types.getMethods(type);
+    }
+    
+    /**
+     * @param method the method
+     * @return the code of the given method to be put in the image
+     */
+    byte[] getCode(Method method) {
+        return types.getCode(method);
+    }
+    
+    /**
+     * @param field the static field
+     * @return the value of the given field to be put in the image, or
+     * null if it is the default value
+     */
+    Object getStaticValue(Field field) {
+        return types.getStaticValue(field);
+    }
+    
     /**
      * @return an array containing all loaded types
      */
@@ -287,6 +381,17 @@ public class Creator {
         return getAttribute("value", node);
     }
     
+    /**
+     * Retrieve the value attribute from the node with the given name, or
+     * the default value if there is no such node
+     */
+    private String getOptionalValue(String name, String defaultValue) {
+        NodeList nodes = doc.getElementsByTagName(name);
+        return (nodes.getLength() == 0)
+                ? defaultValue
+                : getValue(name);
+    }
+    
     /**
      * @return the named attribute from the given node
      * @param name the name
@@ -319,6 +424,8 @@ public class Creator {
     /**
      * Create an image using the specified configuration file. The supplied
      * classpath must be a list of directories separated by the ';' character.
+     * The image is not generated again if the configuration, the arguments
+     * and the class files are unchanged since it was last generated.
      * @param args the command line args
      * @throws Exception if an error occurs
      */
@@ -334,7 +441,8 @@ public class Creator {
         Document document = builder.parse(args[0]);
         
         // generate image file
-        Creator creator = new Creator(document, args[1], args[2], args[3]);
+        Creator creator
+                = new Creator(args[0], document, args[1], args[2], args[3]);
         creator.generate();
     }
 
@@ -0,0 +1,200 @@
+/*
+Copyright 2002 Simon Daniel
+email: simon@pjos.org
+
+This file is part of PJOS.
+
+This program is free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+package org.pjos.common.image;
+
+import java.lang.reflect.Modifier;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+
+import org.pjos.common.runtime.Entry;
+import org.pjos.common.runtime.Method;
+import org.pjos.common.runtime.Opcode;
+import org.pjos.common.runtime.Type;
+
+/**
+ * Rewrites virtual and interface calls that have only one possible target
+ * into direct calls. This is only valid for a closed world, where no
+ * class loaded after the image is built overrides an image method.
+ *
+ * The possible targets of a call are found by class hierarchy analysis:
+ * for each class that is not abstract and extends or implements the
+ * owner of the resolved method, the method that the class would select.
+ * When there is only one, and it is not native, the instruction becomes
+ * invokespecial, which every engine executes as a direct call to the
+ * method in the constant pool after checking the object is not null.
+ * The two extra bytes of invokeinterface become nops. The constant pool
+ * entry is replaced by the target, unless an invokespecial already uses
+ * it to call a different method.
+ */
+class Devirtualizer implements Opcode {
+
+    /** Stands for a call with more than one possible target */
+    private static final Object POLYMORPHIC = new Object();
+    
+    /** The type manager */
+    private TypeManager types;
+    
+    /** The target (Method or POLYMORPHIC) of each method entry */
+    private Map targets = new HashMap();
+    
+    /** The entries used by invokespecial (boolean[]), indexed by type */
+    private Map special = new HashMap();
+    
+    /**
+     * Create a devirtualizer over the given types
+     * @param types the type manager, which has linked and resolved the types
+     */
+    Devirtualizer(TypeManager types) {
+        this.types = types;
+    }
+    
+    /**
+     * Rewrite the monomorphic call sites of every loaded method
+     * @return a description of the call sites rewritten
+     */
+    String devirtualize() {
+        Type[] all = types.getAll();
+        
+        // find the entries used by invokespecial, and the candidate sites
+        LinkedList sites = new LinkedList();
+        int siteCount = 0;
+        for (int i = 0; i < all.length; i++) {
+            Method[] methods = all[i].getMethods();
+            for (int j = 0; j < methods.length; j++) {
+                siteCount += scan(methods[j], sites);
+            }
+        }
+        
+        // rewrite the sites, then replace the constant pool entries
+        LinkedList replacements = new LinkedList();
+        int rewritten = 0;
+        for (Iterator it = sites.iterator(); it.hasNext();) {
+            Method method = (Method) it.next();
+            int pc = ((Integer) it.next()).intValue();
+            byte[] code = method.getCode();
+            int index = Instructions.index(code, pc);
+            Method entry = (Method) method.getPool()[index];
+            Method target = (Method) targets.get(entry);
+            boolean[] flags = (boolean[]) special.get(method.getOwner());
+            if (target != entry && flags != null && flags[index]) {
+                continue;
+            }
+            if ((code[pc] & 0xff) == INVOKEINTERFACE) {
+                code[pc + 3] = (byte) NOP;
+                code[pc + 4] = (byte) NOP;
+            }
+            code[pc] = (byte) INVOKESPECIAL;
+            replacements.add(method.getPool());
+            replacements.add(new Integer(index));
+            replacements.add(target);
+            rewritten++;
+        }
+        for (Iterator it = replacements.iterator(); it.hasNext();) {
+            Entry[] pool = (Entry[]) it.next();
+            int index = ((Integer) it.next()).intValue();
+            pool[index] = (Method) it.next();
+        }
+        
+        // count the methods no loaded class overrides
+        int methodCount = 0;
+        int finalCount = 0;
+        for (int i = 0; i < all.length; i++) {
+            Method[] methods = all[i].getMethods();
+            for (int j = 0; j < methods.length; j++) {
+                Method m = methods[j];
+                if (m.isStatic() || m.getName().startsWith("<")) { continue; }
+                methodCount++;
+                if (target(m) == m) { finalCount++; }
+            }
+        }
+        return "Devirtualized call sites: " + rewritten + " of " + siteCount
+                + ", final or effectively final methods: " + finalCount
+                + " of " + methodCount;
+    }
+    
+    /**
+     * Record the constant pool entries the given method uses with
+     * invokespecial, and add its monomorphic virtual and interface call
+     * sites to the list, as method and pc pairs
+     * @return the number of virtual and interface call sites
+     */
+    private int scan(Method method, LinkedList sites) {
+        byte[] code = method.getCode();
+        if (code == null) { return 0; }
+        Entry[] pool = method.getPool();
+        int count = 0;
+        int pc = 0;
+        while (pc < code.length) {
+            int op = code[pc] & 0xff;
+            if (op == INVOKESPECIAL) {
+                boolean[] flags = (boolean[]) special.get(method.getOwner());
+                if (flags == null) {
+                    flags = new boolean[pool.length];
+                    special.put(method.getOwner(), flags);
+                }
+                flags[Instructions.index(code, pc)] = true;
+            } else if (op == INVOKEVIRTUAL || op == INVOKEINTERFACE) {
+                count++;
+                Entry entry = pool[Instructions.index(code, pc)];
+                if (entry instanceof Method
+                        && target((Method) entry) instanceof Method) {
+                    sites.add(method);
+                    sites.add(new Integer(pc));
+                }
+            }
+            pc += Instructions.length(code, pc);
+        }
+        return count;
+    }
+    
+    /**
+     * @return the only method a call to the given method can select, or
+     * POLYMORPHIC if there is more than one, or it is native
+     */
+    private Object target(Method method) {
+        Object result = targets.get(method);
+        if (result != null) { return result; }
+        Type owner = method.getOwner();
+        String name = method.getName();
+        String descriptor = method.getDescriptor();
+        Type[] all = types.getAll();
+        for (int i = 0; i < all.length && result != POLYMORPHIC; i++) {
+            Type type = all[i];
+            int flags = type.getFlags();
+            if (Modifier.isAbstract(flags) || Modifier.isInterface(flags)
+                    || !TypeManager.isSubtype(type, owner)) {
+                continue;
+            }
+            Method selected = TypeManager.select(type, name, descriptor);
+            if (selected == null || selected == result) { continue; }
+            result = (result == null && !selected.isNative())
+                    ? (Object) selected
+                    : POLYMORPHIC;
+        }
+        if (result == null) { result = POLYMORPHIC; }
+        targets.put(method, result);
+        return result;
+    }
+
+}
@@ -0,0 +1,143 @@
+/*
+Copyright 2002 Simon Daniel
+email: simon@pjos.org
+
+This file is part of PJOS.
+
+This program is free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+package org.pjos.common.image;
+
+import org.pjos.common.runtime.Opcode;
+
+/**
+ * Reads the operands of byte code instructions
+ */
+final class Instructions implements Opcode {
+
+    /**
+     * Don't allow instantiation!
+     */
+    private Instructions() {
+        // should never be called
+        throw new IllegalStateException();
+    }
+    
+    /**
+     * @param code the byte code
+     * @param pc the position of the instruction
+     * @return the unsigned 16 bit index following the opcode at pc
+     */
+    static int index(byte[] code, int pc) {
+        return ((code[pc + 1] & 0xff) << 8) | (code[pc + 2] & 0xff);
+    }
+    
+    /**
+     * @return the 32 bit value at the given position
+     */
+    private static int word(byte[] code, int pos) {
+        return ((code[pos] & 0xff) << 24) | ((code[pos + 1] & 0xff) << 16)
+                | ((code[pos + 2] & 0xff) << 8) | (code[pos + 3] & 0xff);
+    }
+    
+    /**
+     * @param code the byte code
+     * @param pc the position of the instruction
+     * @return the length in bytes of the instruction at pc
+     */
+    static int length(byte[] code, int pc) {
+        int op = code[pc] & 0xff;
+        switch (op) {
+            case BIPUSH:
+            case LDC:
+            case ILOAD:
+            case LLOAD:
+            case FLOAD:
+            case DLOAD:
+            case ALOAD:
+            case ISTORE:
+            case LSTORE:
+            case FSTORE:
+            case DSTORE:
+            case ASTORE:
+            case RET:
+            case NEWARRAY:
+                return 2;
+            
+            case SIPUSH:
+            case LDC_W:
+            case LDC2_W:
+            case IINC:
+            case IFEQ:
+            case IFNE:
+            case IFLT:
+            case IFGE:
+            case IFGT:
+            case IFLE:
+            case IF_ICMPEQ:
+            case IF_ICMPNE:
+            case IF_ICMPLT:
+            case IF_ICMPGE:
+            case IF_ICMPGT:
+            case IF_ICMPLE:
+            case IF_ACMPEQ:
+            case IF_ACMPNE:
+            case GOTO:
+            case JSR:
+            case GETSTATIC:
+            case PUTSTATIC:
+            case GETFIELD:
+            case PUTFIELD:
+            case INVOKEVIRTUAL:
+            case INVOKESPECIAL:
+            case INVOKESTATIC:
+            case NEW:
+            case ANEWARRAY:
+            case CHECKCAST:
+            case INSTANCEOF:
+            case IFNULL:
+            case IFNONNULL:
+                return 3;
+            
+            case MULTIANEWARRAY:
+                return 4;
+            
+            case INVOKEINTERFACE:
+            case GOTO_W:
+            case JSR_W:
+                return 5;
+            
+            case WIDE:
+                return ((code[pc + 1] & 0xff) == IINC) ? 6 : 4;
+            
+            case TABLESWITCH: {
+                int pos = (pc + 4) & ~3;
+                int low = word(code, pos + 4);
+                int high = word(code, pos + 8);
+                return pos + 12 + 4 * (high - low + 1) - pc;
+            }
+            
+            case LOOKUPSWITCH: {
+                int pos = (pc + 4) & ~3;
+                int pairs = word(code, pos + 4);
+                return pos + 8 + 8 * pairs - pc;
+            }
+            
+            default:
+                return 1;
+        }
+    }
+
+}
@@ -56,9 +56,17 @@ class MethodInitialiser extends AbstractInitialiser {
         node.addData(m.getMaxStack());
         node.addData(m.getMaxLocals());
         node.addData(m.getArgCount());
-        node.addPointer(m.getCode());
-        node.addPointer(m.getExceptions());
-        node.addPointer(m.getLineNumbers());
+        byte[] code = getCreator().getCode(m);
+        if (code == m.getCode()) {
+            node.addPointer(code);
+            node.addPointer(m.getExceptions());
+            node.addPointer(m.getLineNumbers());
+        } else {
+            // replaced code has no handlers or line numbers
+            node.addPointer(code);
+            node.addPointer(new short[0]);
+            node.addPointer(null);
+        }
         node.addData(m.getMagic());
         return true;
     }
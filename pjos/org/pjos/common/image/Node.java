@@ -20,6 +20,7 @@ Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
 */
 package org.pjos.common.image;
 
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -41,6 +42,9 @@ class Node implements Constants {
     /** The slots */
     private List slots = new LinkedList();
     
+    /** The nodes pointed to, other than the class, once allocating */
+    private Node[] children = null;
+    
     /** The allocation generated for this node */
     private Allocation allocation = null;
     
@@ -85,7 +89,7 @@ class Node implements Constants {
      * @param slot the slot
      */
     synchronized void add(Slot slot) {
-        if (allocation != null) {
+        if (allocation != null || children != null) {
             throw new IllegalStateException(
                     "Object already allocated: " + this);
         }
@@ -103,6 +107,35 @@ class Node implements Constants {
         allocation = image.allocate(slotArray);
     }
     
+    /**
+     * @return true if this node has been allocated an object
+     */
+    synchronized boolean isAllocated() {
+        return allocation != null;
+    }
+    
+    /**
+     * Return the nodes this node points to, in slot order, leaving out
+     * the node of its class. Slots can no longer be added once this has
+     * been called.
+     * @return the nodes pointed to
+     */
+    synchronized Node[] getChildren() {
+        if (children == null) {
+            LinkedList result = new LinkedList();
+            int index = 0;
+            for (Iterator it = slots.iterator(); it.hasNext(); index++) {
+                Slot slot = (Slot) it.next();
+                if (index < OBJECT_FIELDS
+                        || !(slot instanceof PointerSlot)) { continue; }
+                Node node = ((PointerSlot) slot).getNode();
+                if (node != null) { result.add(node); }
+            }
+            children = (Node[]) result.toArray(new Node[result.size()]);
+        }
+        return children;
+    }
+    
     /**
      * @return the address of this node's allocation
      */
@@ -37,6 +37,13 @@ class PointerSlot extends Slot {
         node = (key != null) ? web.get(key) : null;
     }
     
+    /**
+     * @return the node pointed to, or null
+     */
+    Node getNode() {
+        return node;
+    }
+    
     /**
      * @return true
      */
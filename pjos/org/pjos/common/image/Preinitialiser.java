@@ -0,0 +1,313 @@
+/*
+Copyright 2002 Simon Daniel
+email: simon@pjos.org
+
+This file is part of PJOS.
+
+This program is free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+package org.pjos.common.image;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.pjos.common.runtime.Constants;
+import org.pjos.common.runtime.Entry;
+import org.pjos.common.runtime.Field;
+import org.pjos.common.runtime.IntegerConstant;
+import org.pjos.common.runtime.LongConstant;
+import org.pjos.common.runtime.Method;
+import org.pjos.common.runtime.Opcode;
+import org.pjos.common.runtime.StringConstant;
+import org.pjos.common.runtime.Type;
+
+/**
+ * Runs simple class initialisers while the image is built, so the static
+ * fields they set are already in the image and the initialiser does not
+ * need to run when the system starts.
+ *
+ * A class initialiser is run here only if it does nothing but push
+ * constants, create byte, boolean, char and short arrays, fill them in,
+ * and read and write the static fields of its own class. This cannot
+ * depend on any other class, or on the order the initialisers run in,
+ * so the result is the same as running it at startup. Any other
+ * instruction, such as a call or a branch, leaves the initialiser to
+ * run at startup as before. The code of each initialiser run here is
+ * replaced by a single return in the image. The method itself is kept,
+ * otherwise the initialiser of the super class would be found instead.
+ */
+class Preinitialiser implements Opcode, Constants {
+
+    /** The largest array a class initialiser may create here */
+    private static final int MAX_ARRAY_LENGTH = 4096;
+    
+    /** Stands for null on the stack */
+    private static final Object NULL = new Object();
+    
+    /** The type manager */
+    private TypeManager types;
+    
+    /** The value (Integer, Long, String or array) of each static field */
+    private Map values = new HashMap();
+    
+    /** The replacement code of each initialiser run here */
+    private Map codes = new HashMap();
+    
+    /**
+     * Create a preinitialiser over the given types
+     * @param types the type manager, which has linked and resolved the types
+     */
+    Preinitialiser(TypeManager types) {
+        this.types = types;
+    }
+    
+    /**
+     * Run the class initialisers that are simple enough
+     * @return a description of the initialisers run
+     */
+    String preinitialise() {
+        Type[] all = types.getAll();
+        int count = 0;
+        int run = 0;
+        for (int i = 0; i < all.length; i++) {
+            Type type = all[i];
+            Method clinit
+                    = TypeManager.getDeclaredMethod(type, "<clinit>", "()V");
+            if (clinit == null || clinit.getCode() == null) { continue; }
+            count++;
+            Map result = run(type, clinit);
+            if (result != null) {
+                values.putAll(result);
+                codes.put(clinit, new byte[] { (byte) RETURN });
+                run++;
+            }
+        }
+        return "Classes initialised at build time: " + run + " of " + count;
+    }
+    
+    /**
+     * @param method the method
+     * @return the code of the given method to be put in the image
+     */
+    byte[] getCode(Method method) {
+        byte[] code = (byte[]) codes.get(method);
+        return (code != null) ? code : method.getCode();
+    }
+    
+    /**
+     * @param field the static field
+     * @return the value of the given field to be put in the image, or
+     * null if it is the default value
+     */
+    Object getValue(Field field) {
+        return values.get(field);
+    }
+    
+    /**
+     * Run the given class initialiser
+     * @return the values of the fields set, or null if it is not simple
+     */
+    private Map run(Type type, Method clinit) {
+        byte[] code = clinit.getCode();
+        Entry[] pool = clinit.getPool();
+        Object[] stack = new Object[clinit.getMaxStack()];
+        Map fields = new HashMap();
+        int sp = 0;
+        int pc = 0;
+        while (pc < code.length) {
+            int op = code[pc] & 0xff;
+            Object value;
+            switch (op) {
+                case ACONST_NULL:
+                    value = NULL;
+                    break;
+                
+                case ICONST_M1:
+                case ICONST_0:
+                case ICONST_1:
+                case ICONST_2:
+                case ICONST_3:
+                case ICONST_4:
+                case ICONST_5:
+                    value = new Integer(op - ICONST_0);
+                    break;
+                
+                case LCONST_0:
+                case LCONST_1:
+                    value = new Long(op - LCONST_0);
+                    break;
+                
+                case FCONST_0:
+                case FCONST_1:
+                case FCONST_2:
+                    value = new Integer(Float.floatToIntBits(op - FCONST_0));
+                    break;
+                
+                case DCONST_2:
+                case DCONST_1:
+                    value = new Long(Double.doubleToLongBits(op - DCONST_2));
+                    break;
+                
+                case BIPUSH:
+                    value = new Integer(code[pc + 1]);
+                    break;
+                
+                case SIPUSH:
+                    value = new Integer((short) Instructions.index(code, pc));
+                    break;
+                
+                case LDC:
+                case LDC_W:
+                case LDC2_W:
+                    value = constant(pool[(op == LDC)
+                            ? code[pc + 1] & 0xff
+                            : Instructions.index(code, pc)]);
+                    if (value == null) { return null; }
+                    break;
+                
+                case NEWARRAY:
+                    value = newArray(code[pc + 1], stack[--sp]);
+                    if (value == null) { return null; }
+                    break;
+                
+                case DUP:
+                    value = stack[sp - 1];
+                    if (value instanceof Long) { return null; }
+                    break;
+                
+                case BASTORE:
+                case CASTORE:
+                case SASTORE:
+                    sp -= 3;
+                    if (!store(stack[sp], stack[sp + 1], stack[sp + 2])) {
+                        return null;
+                    }
+                    value = null;
+                    break;
+                
+                case GETSTATIC:
+                case PUTSTATIC: {
+                    Entry entry = pool[Instructions.index(code, pc)];
+                    if (!(entry instanceof Field)) { return null; }
+                    Field field = (Field) entry;
+                    if (!field.isStatic() || field.getOwner() != type) {
+                        return null;
+                    }
+                    if (op == PUTSTATIC) {
+                        value = stack[--sp];
+                        if (!matches(field, value)) { return null; }
+                        fields.put(field, (value != NULL) ? value : null);
+                        value = null;
+                    } else {
+                        value = fields.get(field);
+                        if (value == null) { value = defaultValue(field); }
+                    }
+                    break;
+                }
+                
+                case RETURN:
+                    return fields;
+                
+                default:
+                    return null;
+            }
+            if (value != null) { stack[sp++] = value; }
+            pc += Instructions.length(code, pc);
+        }
+        return null;
+    }
+    
+    /**
+     * @return the value of an ldc constant, or null if it is not known
+     * at build time
+     */
+    private Object constant(Entry entry) {
+        if (entry instanceof IntegerConstant) {
+            return new Integer(((IntegerConstant) entry).getValue());
+        } else if (entry instanceof LongConstant) {
+            return new Long(((LongConstant) entry).getValue());
+        } else if (entry instanceof StringConstant) {
+            return ((StringConstant) entry).getValue();
+        }
+        return null;
+    }
+    
+    /**
+     * @return a new array of the given element type and length, or null
+     * if it cannot be put in the image
+     */
+    private Object newArray(int elementType, Object length) {
+        if (!(length instanceof Integer)) { return null; }
+        int n = ((Integer) length).intValue();
+        if (n < 0 || n > MAX_ARRAY_LENGTH) { return null; }
+        switch (elementType) {
+            case T_BOOLEAN: return new boolean[n];
+            case T_CHAR:    return new char[n];
+            case T_BYTE:    return new byte[n];
+            case T_SHORT:   return new short[n];
+            default:        return null;
+        }
+    }
+    
+    /**
+     * Store a value in an array, as bastore, castore or sastore would
+     * @return false if the store would throw an exception
+     */
+    private boolean store(Object array, Object index, Object value) {
+        if (!(index instanceof Integer) || !(value instanceof Integer)) {
+            return false;
+        }
+        int i = ((Integer) index).intValue();
+        int v = ((Integer) value).intValue();
+        if (array instanceof byte[] && i >= 0 && i < ((byte[]) array).length) {
+            ((byte[]) array)[i] = (byte) v;
+        } else if (array instanceof boolean[]
+                && i >= 0 && i < ((boolean[]) array).length) {
+            ((boolean[]) array)[i] = (v & 1) != 0;
+        } else if (array instanceof char[]
+                && i >= 0 && i < ((char[]) array).length) {
+            ((char[]) array)[i] = (char) v;
+        } else if (array instanceof short[]
+                && i >= 0 && i < ((short[]) array).length) {
+            ((short[]) array)[i] = (short) v;
+        } else {
+            return false;
+        }
+        return true;
+    }
+    
+    /**
+     * @return true if the given value can be stored in the given field
+     */
+    private boolean matches(Field field, Object value) {
+        if (field.isReference()) {
+            return !(value instanceof Integer) && !(value instanceof Long);
+        }
+        return (field.getSize() == 2)
+                ? value instanceof Long
+                : value instanceof Integer;
+    }
+    
+    /**
+     * @return the value a static field has before it is set
+     */
+    private Object defaultValue(Field field) {
+        if (field.isReference()) { return NULL; }
+        return (field.getSize() == 2)
+                ? (Object) new Long(0)
+                : (Object) new Integer(0);
+    }
+    
+}
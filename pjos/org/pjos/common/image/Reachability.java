@@ -0,0 +1,300 @@
+/*
+Copyright 2002 Simon Daniel
+email: simon@pjos.org
+
+This file is part of PJOS.
+
+This program is free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+package org.pjos.common.image;
+
+import java.lang.reflect.Modifier;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import org.pjos.common.runtime.Abstract;
+import org.pjos.common.runtime.Entry;
+import org.pjos.common.runtime.Method;
+import org.pjos.common.runtime.Opcode;
+import org.pjos.common.runtime.Type;
+
+/**
+ * Finds the methods that can be reached from the entry points of an image,
+ * so that the rest can be left out of it. This is only valid for a closed
+ * world, where no code loaded after the image is built calls a method
+ * that the image code does not call itself.
+ *
+ * The entry points are the frame methods, the methods named by instance
+ * fields, the methods named by <keep> nodes, and every class initialiser.
+ * From each reached method, the invoke instructions are followed. Calls
+ * other than static and special calls also reach the method that each
+ * class extending or implementing the named type would select, which may
+ * be inherited from a super class outside the named type. Constant pool
+ * entries that are used by no reached method are cleared, so the strings,
+ * members and constants they hold are left out as well.
+ */
+class Reachability implements Opcode {
+
+    /** The type manager */
+    private TypeManager types;
+    
+    /** The reached methods */
+    private Set reached = new HashSet();
+    
+    /** The reached methods whose code has not been scanned yet */
+    private LinkedList pending = new LinkedList();
+    
+    /** The virtual calls already followed, as class.name descriptor */
+    private Set calls = new HashSet();
+    
+    /** The used constant pool entries (boolean[]), indexed by type */
+    private Map used = new HashMap();
+    
+    /** The reached methods of each type (Method[]), indexed by type */
+    private Map methods = new HashMap();
+    
+    /**
+     * Create a reachability analysis over the given types
+     * @param types the type manager, which has linked and resolved the types
+     */
+    Reachability(TypeManager types) {
+        this.types = types;
+    }
+    
+    /**
+     * Add the entry points named in the configuration document
+     * @param doc the document
+     */
+    void addRoots(Document doc) {
+        NodeList frameNodes = doc.getElementsByTagName("frame");
+        for (int i = 0, n = frameNodes.getLength(); i < n; i++) {
+            Node node = frameNodes.item(i);
+            addRoot(Creator.getAttribute("class", node),
+                    Creator.getAttribute("method", node), "()V");
+        }
+        NodeList fieldNodes = doc.getElementsByTagName("field");
+        for (int i = 0, n = fieldNodes.getLength(); i < n; i++) {
+            Node node = fieldNodes.item(i);
+            if (Creator.getAttribute("type", node).equals("method")) {
+                String value = Creator.getAttribute("value", node);
+                int first = value.indexOf(':');
+                int second = value.indexOf(':', first + 1);
+                addRoot(value.substring(0, first),
+                        value.substring(first + 1, second),
+                        value.substring(second + 1));
+            }
+        }
+        NodeList keepNodes = doc.getElementsByTagName("keep");
+        for (int i = 0, n = keepNodes.getLength(); i < n; i++) {
+            String value = Creator.getAttribute("name",
+                    keepNodes.item(i));
+            int dot = value.indexOf('.');
+            int bracket = value.indexOf('(');
+            addRoot(value.substring(0, dot),
+                    value.substring(dot + 1, bracket),
+                    value.substring(bracket));
+        }
+        Type[] all = types.getAll();
+        for (int i = 0; i < all.length; i++) {
+            reach(TypeManager.getDeclaredMethod(all[i], "<clinit>", "()V"));
+        }
+    }
+    
+    /**
+     * Add an entry point. Overriding methods are reached too, since the
+     * runtime may call the method on an instance of a subclass.
+     * @param classname the class name
+     * @param name the method name
+     * @param descriptor the method descriptor
+     */
+    void addRoot(String classname, String name, String descriptor) {
+        Type type = types.get(classname);
+        if (type == null) {
+            throw new IllegalStateException("Type not found: " + classname);
+        }
+        Method method = type.getMethod(name, descriptor);
+        if (method == null) {
+            throw new IllegalStateException("Method not found: " + classname
+                    + "." + name + descriptor);
+        }
+        reach(method);
+        reachOverrides(type, name, descriptor);
+    }
+    
+    /**
+     * Follow the code of every reached method, then clear the unused
+     * constant pool entries and record the reached methods of each type
+     * @return a description of the methods and entries left out
+     */
+    String shake() {
+        while (!pending.isEmpty()) {
+            scan((Method) pending.removeFirst());
+        }
+        Type[] all = types.getAll();
+        int methodCount = 0;
+        int keptMethods = 0;
+        int entryCount = 0;
+        int keptEntries = 0;
+        for (int i = 0; i < all.length; i++) {
+            Type type = all[i];
+            Method[] declared = type.getMethods();
+            LinkedList kept = new LinkedList();
+            for (int j = 0; j < declared.length; j++) {
+                if (reached.contains(declared[j])) { kept.add(declared[j]); }
+            }
+            methods.put(type, kept.toArray(new Method[kept.size()]));
+            methodCount += declared.length;
+            keptMethods += kept.size();
+            
+            Entry[] pool = type.getPool();
+            boolean[] flags = (boolean[]) used.get(type);
+            for (int j = 0; pool != null && j < pool.length; j++) {
+                if (pool[j] == null) { continue; }
+                entryCount++;
+                if (flags != null && flags[j]) {
+                    keptEntries++;
+                } else {
+                    pool[j] = null;
+                }
+            }
+        }
+        return "Reachable methods: " + keptMethods + " of " + methodCount
+                + ", constant pool entries: " + keptEntries
+                + " of " + entryCount;
+    }
+    
+    /**
+     * @param type the type
+     * @return the reached methods declared by the given type
+     */
+    Method[] getMethods(Type type) {
+        Method[] result = (Method[]) methods.get(type);
+        return (result != null) ? result : type.getMethods();
+    }
+    
+    /**
+     * Mark a method as reached, if it has not been already
+     */
+    private void reach(Method method) {
+        if (method != null && reached.add(method)) {
+            pending.addLast(method);
+        }
+    }
+    
+    /**
+     * Reach the method of the given name and descriptor that a call would
+     * select on an instance of each class that extends or implements the
+     * given type. The selected method may be inherited from a super class
+     * that is not itself a subtype of the given type.
+     */
+    private void reachOverrides(Type type, String name, String descriptor) {
+        String call = type.getName() + "." + name + descriptor;
+        if (!calls.add(call)) { return; }
+        Type[] all = types.getAll();
+        for (int i = 0; i < all.length; i++) {
+            Type t = all[i];
+            int flags = t.getFlags();
+            if (Modifier.isAbstract(flags) || Modifier.isInterface(flags)
+                    || !TypeManager.isSubtype(t, type)) {
+                continue;
+            }
+            reach(TypeManager.select(t, name, descriptor));
+        }
+    }
+    
+    /**
+     * Mark the constant pool entries used by the given method, and reach
+     * the methods it calls
+     */
+    private void scan(Method method) {
+        byte[] code = types.getCode(method);
+        if (code == null) { return; }
+        Type owner = method.getOwner();
+        Entry[] pool = method.getPool();
+        boolean[] flags = (boolean[]) used.get(owner);
+        if (flags == null) {
+            flags = new boolean[pool.length];
+            used.put(owner, flags);
+        }
+        
+        // catch types
+        short[] exceptions = method.getExceptions();
+        for (int i = 3; exceptions != null && i < exceptions.length; i += 4) {
+            flags[exceptions[i] & 0xffff] = true;
+        }
+        
+        // instructions
+        int pc = 0;
+        while (pc < code.length) {
+            int op = code[pc] & 0xff;
+            switch (op) {
+                case LDC:
+                    flags[code[pc + 1] & 0xff] = true;
+                    break;
+                
+                case LDC_W:
+                case LDC2_W:
+                case GETSTATIC:
+                case PUTSTATIC:
+                case GETFIELD:
+                case PUTFIELD:
+                case NEW:
+                case ANEWARRAY:
+                case CHECKCAST:
+                case INSTANCEOF:
+                case MULTIANEWARRAY:
+                    flags[Instructions.index(code, pc)] = true;
+                    break;
+                
+                case INVOKEVIRTUAL:
+                case INVOKESPECIAL:
+                case INVOKESTATIC:
+                case INVOKEINTERFACE:
+                    int index = Instructions.index(code, pc);
+                    flags[index] = true;
+                    call(pool[index], op == INVOKEVIRTUAL
+                            || op == INVOKEINTERFACE);
+                    break;
+            }
+            pc += Instructions.length(code, pc);
+        }
+    }
+    
+    /**
+     * Reach the method named by a constant pool entry
+     * @param entry the method or unresolved method entry
+     * @param virtual true if subtypes may override the method
+     */
+    private void call(Entry entry, boolean virtual) {
+        if (entry instanceof Method) { reach((Method) entry); }
+        if (!(entry instanceof Abstract)) { return; }
+        Abstract a = (Abstract) entry;
+        Type type = types.get(a.getClassname());
+        if (type == null) { return; }
+        reach(type.getMethod(a.getName(), a.getDescriptor()));
+        if (virtual) {
+            reachOverrides(type, a.getName(), a.getDescriptor());
+        }
+    }
+
+}
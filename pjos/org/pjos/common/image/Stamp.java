@@ -0,0 +1,159 @@
+/*
+Copyright 2002 Simon Daniel
+email: simon@pjos.org
+
+This file is part of PJOS.
+
+This program is free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+package org.pjos.common.image;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import java.util.zip.CRC32;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.NodeList;
+
+/**
+ * Describes the inputs of an image build, so that the build can be
+ * skipped when none of them have changed. The description holds the
+ * command line arguments, checksums of the configuration and profile
+ * files, and the path, length and modification time of the class file
+ * for each type.
+ * It is kept in a file next to the image, and is only written once the
+ * image has been generated.
+ */
+class Stamp {
+
+    /** The stamp file */
+    private File file;
+    
+    /** The image file */
+    private File image;
+    
+    /** The description of the inputs */
+    private String text;
+    
+    /**
+     * Create a stamp describing the current inputs of a build
+     * @param config the configuration file name
+     * @param doc the configuration document
+     * @param classpath the classpath
+     * @param loader the type loader, which has indexed the classpath
+     * @param imageFile the image file name
+     * @param logFile the log file name
+     * @param profile the profile file name, or null if there is none
+     * @throws IOException if an error occurs
+     */
+    Stamp(
+            String config,
+            Document doc,
+            String classpath,
+            TypeLoader loader,
+            String imageFile,
+            String logFile,
+            String profile) throws IOException
+    {
+        image = new File(imageFile);
+        file = new File(imageFile + ".stamp");
+        StringBuffer sb = new StringBuffer();
+        sb.append(classpath).append('\n');
+        sb.append(logFile).append('\n');
+        sb.append(config).append(' ').append(checksum(new File(config)));
+        sb.append('\n');
+        if (profile != null) {
+            sb.append(profile).append(' ').append(checksum(new File(profile)));
+            sb.append('\n');
+        }
+        NodeList classNodes = doc.getElementsByTagName("class");
+        for (int i = 0, n = classNodes.getLength(); i < n; i++) {
+            String name = Creator.getAttribute("name", classNodes.item(i));
+            File classFile = loader.getFile(name);
+            if (classFile != null) {
+                sb.append(classFile.getPath()).append(' ');
+                sb.append(classFile.length()).append(' ');
+                sb.append(classFile.lastModified()).append('\n');
+            }
+        }
+        text = sb.toString();
+    }
+    
+    /**
+     * @return true if the image exists and was generated from the same
+     * inputs as described by this stamp
+     * @throws IOException if an error occurs
+     */
+    boolean isCurrent() throws IOException {
+        if (!image.exists() || !file.exists()) { return false; }
+        return new String(read(file), "UTF-8").equals(text);
+    }
+    
+    /**
+     * Remove the stamp file, before the image is generated
+     */
+    void clear() {
+        file.delete();
+    }
+    
+    /**
+     * Write the stamp file, after the image has been generated
+     * @throws IOException if an error occurs
+     */
+    void write() throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(text.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+    
+    /**
+     * @param f the file
+     * @return the CRC-32 checksum of the contents of the given file
+     * @throws IOException if an error occurs
+     */
+    private static long checksum(File f) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(read(f));
+        return crc.getValue();
+    }
+    
+    /**
+     * @param f the file
+     * @return the contents of the given file
+     * @throws IOException if an error occurs
+     */
+    private static byte[] read(File f) throws IOException {
+        byte[] result = new byte[(int) f.length()];
+        FileInputStream in = new FileInputStream(f);
+        try {
+            int offset = 0;
+            while (offset < result.length) {
+                int k = in.read(result, offset, result.length - offset);
+                if (k < 0) { throw new IOException(f.getAbsolutePath()); }
+                offset += k;
+            }
+        } finally {
+            in.close();
+        }
+        return result;
+    }
+
+}
@@ -55,13 +55,18 @@ class StaticsInitialiser extends AbstractInitialiser {
         for (int i = 0, n = fields.length; i < n; i++) {
             Field field = fields[i];
             if (field.isStatic()) {
+                Object value = getCreator().getStaticValue(field);
                 if (field.isReference()) {
-                    node.addPointer(null);
+                    node.addPointer(value);
+                } else if (field.getSize() == 2) {
+                    // high word first, as on the stack
+                    long l = (value != null) ? ((Long) value).longValue() : 0;
+                    node.addData((int) (l >>> 32));
+                    node.addData((int) l);
                 } else {
-                    node.addData(0);
-                    if (field.getSize() == 2) {
-                        node.addData(0);
-                    }
+                    node.addData((value != null)
+                            ? ((Integer) value).intValue()
+                            : 0);
                 }
             }
         }
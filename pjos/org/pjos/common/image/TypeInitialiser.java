@@ -61,7 +61,7 @@ class TypeInitialiser extends AbstractInitialiser {
         node.addPointer(t.getSuperType());
         node.addPointer(t.getInterfaceNames());
         node.addPointer(t.getInterfaces());
-        node.addPointer(t.getMethods());
+        node.addPointer(getCreator().getMethods(t));
         node.addPointer(t.getFields());
         node.addData(t.getInstanceFieldCount());
         node.addData(t.getStaticFieldCount());
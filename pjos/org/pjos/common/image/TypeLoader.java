@@ -20,11 +20,12 @@ Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
 */
 package org.pjos.common.image;
 
-import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 
+import java.util.HashMap;
+import java.util.Map;
 import java.util.StringTokenizer;
 
 import org.pjos.common.runtime.Type;
@@ -32,26 +33,114 @@ import org.pjos.common.runtime.TypeFactory;
 
 /**
  * Used to load type objects from classfiles stored in the file system.
+ * The classpath is indexed once when the loader is created, and a set of
+ * types is read and parsed by a pool of worker threads.
  */
 class TypeLoader {
     
-    /** The directories to search when looking for class files */
-    private String[] dirs;
+    /** The class files, indexed by class name */
+    private Map files = new HashMap();
+    
+    /** The names of the types being loaded by the workers */
+    private String[] names;
+    
+    /** The types loaded by the workers */
+    private Type[] types;
+    
+    /** The index of the next type to be loaded by a worker */
+    private int next;
+    
+    /** The first error thrown by a worker */
+    private Throwable error;
     
     /**
      * Create a type loader
      * @param classpath the classpath
      */
     TypeLoader(String classpath) {
-        // split classpath into directory entries
+        // index the class files in each directory, earlier entries first
         StringTokenizer st = new StringTokenizer(classpath, ";");
-        int length = st.countTokens();
-        dirs = new String[length];
-        for (int i = 0; i < length; i++) {
-            dirs[i] = st.nextToken();
+        while (st.hasMoreTokens()) {
+            index(new File(st.nextToken()), "");
+        }
+    }
+    
+    /**
+     * Add the class files in the given directory and its subdirectories
+     * to the index, unless an earlier directory holds the same class
+     * @param dir the directory
+     * @param prefix the package prefix of the directory
+     */
+    private void index(File dir, String prefix) {
+        String[] list = dir.list();
+        if (list == null) { return; }
+        for (int i = 0; i < list.length; i++) {
+            String name = list[i];
+            File file = new File(dir, name);
+            if (name.endsWith(".class")) {
+                String classname = prefix
+                        + name.substring(0, name.length() - ".class".length());
+                if (!files.containsKey(classname)) {
+                    files.put(classname, file);
+                }
+            } else if (file.isDirectory()) {
+                index(file, prefix + name + "/");
+            }
         }
     }
 
+    /**
+     * Load the types of the given names, using one worker thread for
+     * each available processor
+     * @param names the names
+     * @return the types, in the same order as the names
+     * @throws IOException if an error occurs
+     */
+    Type[] load(String[] names) throws IOException {
+        this.names = names;
+        types = new Type[names.length];
+        next = 0;
+        error = null;
+        int count = java.lang.Math.min(names.length,
+                Runtime.getRuntime().availableProcessors());
+        Thread[] workers = new Thread[count];
+        for (int i = 0; i < count; i++) {
+            workers[i] = new Worker();
+            workers[i].start();
+        }
+        for (int i = 0; i < count; i++) {
+            try {
+                workers[i].join();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e.toString());
+            }
+        }
+        if (error instanceof IOException) {
+            throw (IOException) error;
+        } else if (error instanceof RuntimeException) {
+            throw (RuntimeException) error;
+        } else if (error instanceof Error) {
+            throw (Error) error;
+        }
+        return types;
+    }
+    
+    /**
+     * @return the index of the next type to be loaded by a worker, or -1
+     * if there are none left or a worker has failed
+     */
+    private synchronized int nextIndex() {
+        return (next < names.length && error == null) ? next++ : -1;
+    }
+    
+    /**
+     * Record an error thrown by a worker, if it is the first
+     * @param t the error
+     */
+    private synchronized void fail(Throwable t) {
+        if (error == null) { error = t; }
+    }
+
     /**
      * Load the type of the given name
      * @param name the name
@@ -66,20 +155,26 @@ class TypeLoader {
         }
     }
     
+    /**
+     * @param name the class name
+     * @return the class file for the given name, or null if there is none
+     */
+    File getFile(String name) {
+        return (File) files.get(name);
+    }
+    
     /**
      * Load the type of the given name
      * @param name the name
      * @throws IOException if an error occurs
      */
     Type loadFromFile(String name) throws IOException {
-        for (int i = 0, n = dirs.length; i < n; i++) {
-            File file = new File(dirs[i], name + ".class");
-            if (file.exists()) {
-                byte[] data = getData(file);
-                return TypeFactory.read(data, 0, data.length);
-            }
+        File file = getFile(name);
+        if (file == null) {
+            throw new IllegalStateException("No file found for type: " + name);
         }
-        throw new IllegalStateException("No file found for type: " + name);
+        byte[] data = getData(file);
+        return TypeFactory.read(data, 0, data.length);
     }
     
     /**
@@ -88,12 +183,45 @@ class TypeLoader {
     private static byte[] getData(File file) throws IOException {
         int size = (int) file.length();
         byte[] result = new byte[size];
-        BufferedInputStream in = new BufferedInputStream(
-                new FileInputStream(file));
-        int k = in.read(result);
-        if (k != size) { throw new IOException(file.getAbsolutePath()); }
-        in.close();
+        FileInputStream in = new FileInputStream(file);
+        try {
+            int offset = 0;
+            while (offset < size) {
+                int k = in.read(result, offset, size - offset);
+                if (k < 0) { throw new IOException(file.getAbsolutePath()); }
+                offset += k;
+            }
+        } finally {
+            in.close();
+        }
         return result;
     }
+    
+    /**
+     * Loads types until there are none left
+     */
+    private class Worker extends Thread {
+        
+        /**
+         * Create a worker
+         */
+        Worker() {
+            super("TypeLoader");
+        }
+        
+        /**
+         * Load types until there are none left, or one fails
+         */
+        public void run() {
+            try {
+                for (int i = nextIndex(); i >= 0; i = nextIndex()) {
+                    types[i] = load(names[i]);
+                }
+            } catch (Throwable t) {
+                fail(t);
+            }
+        }
+        
+    }
 
 }
@@ -21,8 +21,10 @@ Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
 package org.pjos.common.image;
 
 import java.io.IOException;
+import java.lang.reflect.Modifier;
 
 import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.Map;
 
 import org.w3c.dom.Document;
@@ -30,13 +32,17 @@ import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
 import org.pjos.common.runtime.Entry;
+import org.pjos.common.runtime.Field;
 import org.pjos.common.runtime.Method;
+import org.pjos.common.runtime.Opcode;
 import org.pjos.common.runtime.Type;
+import org.pjos.common.runtime.TypeFactory;
+import org.pjos.common.runtime.UnresolvedType;
 
 /**
  * Loads and manages type instances for a binary image
  */
-class TypeManager {
+class TypeManager implements Opcode {
 
     /** The creator */
     private Creator creator;
@@ -47,6 +53,18 @@ class TypeManager {
     /** Contains the types, indexed by name */
     private Map typeMap = new HashMap();
     
+    /** The preinitialiser, if simple class initialisers are run here */
+    private Preinitialiser preinitialiser;
+    
+    /** The reachability analysis, if unreachable methods are left out */
+    private Reachability reachability;
+    
+    /** The number of constant pool entries naming a class */
+    private int entryCount;
+    
+    /** The number of constant pool entries resolved */
+    private int resolvedCount;
+    
     /**
      * Create a type manager for the given image
      * @param creator the creator
@@ -58,29 +76,133 @@ class TypeManager {
     /**
      * Load and resolve types and related objects
      * @param doc the document
-     * @param classpath the classpath
+     * @param loader the type loader
+     * @param preinitialise true if simple class initialisers should be run
+     * @param devirtualize true if monomorphic calls should be made direct
+     * @param shake true if unreachable methods should be left out
      */
-    void loadTypes(Document doc, String classpath) throws IOException {
-        // load unlinked types into map
-        TypeLoader loader = new TypeLoader(classpath);
+    void loadTypes(
+            Document doc,
+            TypeLoader loader,
+            boolean preinitialise,
+            boolean devirtualize,
+            boolean shake) throws IOException
+    {
+        // load unlinked types in parallel, then put them into map
         NodeList classNodes = doc.getElementsByTagName("class");
         int length = classNodes.getLength();
-        types = new Type[length];
+        String[] names = new String[length];
         for (int i = 0; i < length; i++) {
-            Node node = classNodes.item(i);
-            String name = Creator.getAttribute("name", node);
-            Type type = loader.load(name);
-            types[i] = type;
-            typeMap.put(name, type);
+            names[i] = Creator.getAttribute("name", classNodes.item(i));
         }
+        types = loader.load(names);
+        for (int i = 0; i < length; i++) {
+            typeMap.put(names[i], types[i]);
+        }
+        int added = addArrayTypes(loader);
+        length = types.length;
         
         // Each of the following steps must be done separately
         for (int i = 0; i < length; i++) { link(types[i]); }
         readMagicMethods(doc);
         for (int i = 0; i < length; i++) { resolve(types[i]); }
+        System.out.println("Constant pool entries resolved: " + resolvedCount
+                + " of " + entryCount + ", array types added: " + added);
+        if (preinitialise) {
+            preinitialiser = new Preinitialiser(this);
+            System.out.println(preinitialiser.preinitialise());
+        }
+        if (devirtualize) {
+            System.out.println(new Devirtualizer(this).devirtualize());
+        }
+        if (shake) {
+            reachability = new Reachability(this);
+            reachability.addRoots(doc);
+            System.out.println(reachability.shake());
+        }
         for (int i = 0; i < length; i++) { creator.load(types[i]); }
     }
     
+    /**
+     * Add the array types created by anewarray or named by constant pool
+     * entries, when their element types and the array super types are in
+     * the image, so these entries are resolved too. Otherwise the runtime
+     * would load each array class the first time it is used.
+     * @param loader the type loader
+     * @return the number of types added
+     */
+    private int addArrayTypes(TypeLoader loader) throws IOException {
+        if (get("java/lang/Object") == null
+                || get("java/lang/Cloneable") == null
+                || get("java/io/Serializable") == null) {
+            return 0;
+        }
+        LinkedList added = new LinkedList();
+        for (int i = 0, n = types.length; i < n; i++) {
+            Entry[] pool = types[i].getPool();
+            for (int j = 0; j < pool.length; j++) {
+                if (pool[j] instanceof UnresolvedType) {
+                    String name = ((UnresolvedType) pool[j]).getName();
+                    if (name.startsWith("[")) {
+                        addArrayType(name, loader, added);
+                    }
+                }
+            }
+            Method[] methods = types[i].getMethods();
+            for (int j = 0; j < methods.length; j++) {
+                byte[] code = methods[j].getCode();
+                for (int pc = 0; code != null && pc < code.length;
+                        pc += Instructions.length(code, pc)) {
+                    if ((code[pc] & 0xff) != ANEWARRAY) { continue; }
+                    Entry entry = pool[Instructions.index(code, pc)];
+                    if (!(entry instanceof UnresolvedType)) { continue; }
+                    String name = ((UnresolvedType) entry).getName();
+                    addArrayType(name.startsWith("[")
+                            ? "[" + name
+                            : "[L" + name + ";", loader, added);
+                }
+            }
+        }
+        int count = added.size();
+        if (count > 0) {
+            Type[] all = new Type[types.length + count];
+            System.arraycopy(types, 0, all, 0, types.length);
+            for (int i = types.length; i < all.length; i++) {
+                all[i] = (Type) added.removeFirst();
+            }
+            types = all;
+        }
+        return count;
+    }
+    
+    /**
+     * Add the array type of the given name, and any array component types
+     * it needs, unless it is already loaded or its element type is not
+     * @param name the array type name
+     * @param loader the type loader
+     * @param added the types added so far
+     * @return true if the type is loaded
+     */
+    private boolean addArrayType(
+            String name,
+            TypeLoader loader,
+            LinkedList added) throws IOException
+    {
+        if (get(name) != null) { return true; }
+        String componentName = TypeFactory.extractComponentName(name);
+        if (componentName == null) { return false; }
+        if (get(componentName) == null) {
+            if (!componentName.startsWith("[")
+                    || !addArrayType(componentName, loader, added)) {
+                return false;
+            }
+        }
+        Type type = loader.load(name);
+        typeMap.put(name, type);
+        added.add(type);
+        return true;
+    }
+    
     /**
      * Read the magic method configuration and mark the method objects
      */
@@ -142,10 +264,19 @@ class TypeManager {
         Entry[] pool = type.getPool();
         for (int i = 0, n = pool.length; i < n; i++) {
             Entry entry = pool[i];
-            Type t = (entry != null)
-                    ? get(entry.getClassnameToResolve())
+            String classname = (entry != null)
+                    ? entry.getClassnameToResolve()
                     : null;
-            if (t != null) { pool[i] = entry.resolve(t); }
+            if (classname == null) { continue; }
+            entryCount++;
+            Type t = get(classname);
+            Entry resolved = (t != null) ? entry.resolve(t) : null;
+            
+            // leave missing members for the runtime to report
+            if (resolved != null) {
+                pool[i] = resolved;
+                resolvedCount++;
+            }
         }
     }
     
@@ -185,6 +316,93 @@ class TypeManager {
         return (Type) typeMap.get(name);
     }
     
+    /**
+     * @param type the type
+     * @return the methods of the given type to be put in the image
+     */
+    Method[] getMethods(Type type) {
+        return (reachability != null)
+                ? reachability.getMethods(type)
+                : type.getMethods();
+    }
+    
+    /**
+     * @param method the method
+     * @return the code of the given method to be put in the image
+     */
+    byte[] getCode(Method method) {
+        return (preinitialiser != null)
+                ? preinitialiser.getCode(method)
+                : method.getCode();
+    }
+    
+    /**
+     * @param field the static field
+     * @return the value of the given field to be put in the image, or
+     * null if it is the default value
+     */
+    Object getStaticValue(Field field) {
+        return (preinitialiser != null)
+                ? preinitialiser.getValue(field)
+                : null;
+    }
+    
+    /**
+     * @param type the type
+     * @param other the other type
+     * @return true if the first type is the second, or extends or
+     * implements it
+     */
+    static boolean isSubtype(Type type, Type other) {
+        if (type == null) { return false; }
+        if (type == other) { return true; }
+        if (isSubtype(type.getSuperType(), other)) { return true; }
+        Type[] interfaces = type.getInterfaces();
+        for (int i = 0; interfaces != null && i < interfaces.length; i++) {
+            if (isSubtype(interfaces[i], other)) { return true; }
+        }
+        return false;
+    }
+    
+    /**
+     * @param type the type
+     * @param name the method name
+     * @param descriptor the method descriptor
+     * @return the method of the given name and descriptor declared by
+     * the given type itself, or null if there is none
+     */
+    static Method getDeclaredMethod(
+            Type type,
+            String name,
+            String descriptor)
+    {
+        Method[] declared = type.getMethods();
+        for (int i = 0; declared != null && i < declared.length; i++) {
+            Method m = declared[i];
+            if (m.getName().equals(name)
+                    && m.getDescriptor().equals(descriptor)) {
+                return m;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * @param type the class
+     * @param name the method name
+     * @param descriptor the method descriptor
+     * @return the method that a virtual call on an instance of the given
+     * class would select, declared by the class or inherited from a super
+     * class, or null if there is none
+     */
+    static Method select(Type type, String name, String descriptor) {
+        for (Type t = type; t != null; t = t.getSuperType()) {
+            Method m = getDeclaredMethod(t, name, descriptor);
+            if (m != null && !Modifier.isAbstract(m.getFlags())) { return m; }
+        }
+        return null;
+    }
+    
     /**
      * @return an array containing all loaded types
      */
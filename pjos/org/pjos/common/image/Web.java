@@ -28,6 +28,7 @@ import java.nio.ByteOrder;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.Map;
 import java.util.Set;
 
@@ -114,10 +115,16 @@ class Web {
     
     /**
      * Creates the image and allocates objects for each node, allocating
-     * the node with the given key at the beginning.
+     * the node with the given key at the beginning, followed by the nodes
+     * of the hot keys in order. The rest are laid out depth first from
+     * the root, so that objects are near the objects that point to them.
+     * The children of a node that point to nothing but their class, such
+     * as the code of a method or the characters of a string, are placed
+     * straight after it.
      * @param key the key
+     * @param hot the keys to be placed first, if they have nodes
      */
-    synchronized void allocate(Object key) {
+    synchronized void allocate(Object key, Object[] hot) {
         if (image != null) {
             throw new IllegalStateException("Already allocated");
         }
@@ -127,15 +134,58 @@ class Web {
         if (first == null) {
             throw new IllegalStateException("Invalid root key: " + key);
         }
-        first.allocate(image);
-        log.println(Integer.toHexString(first.address()) + ": " + first);
+        place(first);
+        for (int i = 0; i < hot.length; i++) {
+            Node node = (Node) nodes.get(hot[i]);
+            if (node != null) { place(node); }
+        }
+        
+        // depth first, with an explicit stack as the web can be deep
+        Set expanded = new HashSet();
+        LinkedList stack = new LinkedList();
+        stack.addFirst(first);
+        while (!stack.isEmpty()) {
+            Node node = (Node) stack.removeFirst();
+            if (!expanded.add(node)) { continue; }
+            place(node);
+            Node[] children = node.getChildren();
+            for (int i = children.length - 1; i >= 0; i--) {
+                if (!expanded.contains(children[i])) {
+                    stack.addFirst(children[i]);
+                }
+            }
+        }
+        
+        // nodes the root does not lead to
         for (Iterator it = nodes.values().iterator(); it.hasNext(); ) {
-            Node next = (Node) it.next();
-            next.allocate(image);
-            log.println(Integer.toHexString(next.address()) + ": " + next);
+            place((Node) it.next());
         }
     }
     
+    /**
+     * Allocate an object for the given node, unless it already has one,
+     * then for each of its children that points to nothing else
+     */
+    private void place(Node node) {
+        allocate(node);
+        Node[] children = node.getChildren();
+        for (int i = 0; i < children.length; i++) {
+            if (children[i].getChildren().length == 0) {
+                allocate(children[i]);
+            }
+        }
+    }
+    
+    /**
+     * Allocate an object for the given node and log its address, unless
+     * it already has one
+     */
+    private void allocate(Node node) {
+        if (node.isAllocated()) { return; }
+        node.allocate(image);
+        log.println(Integer.toHexString(node.address()) + ": " + node);
+    }
+    
     /**
      * @return the address immediately following the last allocation
      */
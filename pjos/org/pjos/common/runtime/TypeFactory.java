@@ -32,8 +32,8 @@ import java.lang.reflect.Modifier;
  */
 public class TypeFactory {
 
-    /** The primitive types */
-    private static Type[] primitives;
+    /** The primitive types, which may be read by several loading threads */
+    private static volatile Type[] primitives;
     
     /**
      * Don't allow instantiation!
@@ -20,11 +20,45 @@ Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
 */
 package org.pjos.emulator.engine;
 
+import java.io.File;
+import java.io.IOException;
+
 /**
  * An emulator for an abstract 32-bit computer.
  */
 public interface Engine {
     
+    /** The default memory size in bytes (just over 9MB) */
+    int DEFAULT_MEMORY_SIZE = 4 + 9 * 1024 * 1024;
+    
+    /** Collector mode: copy all live objects between two semispaces */
+    int COLLECTOR_SEMISPACE = 0;
+    
+    /**
+     * Collector mode: allocate new objects in a nursery, which is
+     * collected separately from the semispaces
+     */
+    int COLLECTOR_GENERATIONAL = 1;
+    
+    /**
+     * Collector mode: slide live objects to the start of a single space
+     * covering all of memory. Nearly all of memory can hold live objects,
+     * but collections are slower.
+     */
+    int COLLECTOR_MARK_COMPACT = 2;
+    
+    /** The default number of instructions in a time slice */
+    int DEFAULT_QUANTUM = 100000;
+    
+    /** Sampling mode: no samples are taken */
+    int SAMPLING_OFF = 0;
+    
+    /** Sampling mode: sample after a fixed number of instructions */
+    int SAMPLING_INSTRUCTIONS = 1;
+    
+    /** Sampling mode: sample when a host timer fires */
+    int SAMPLING_TIMER = 2;
+    
     /**
      * @param address the address
      * @return the 32-bit value at the specified memory address
@@ -93,17 +127,89 @@ public interface Engine {
      */
     int getMemorySize();
     
+    /**
+     * Set the memory size used after the next reset. The stack segments
+     * take the last sixteenth of memory. Two java spaces each take four
+     * ninths of the rest and the nursery takes what remains.
+     * @param size the memory size in bytes
+     */
+    void setMemorySize(int size);
+    
     /**
      * @return the number of instructions executed since the last reset
      */
     int getCounter();
     
+    /**
+     * Set the number of instructions each thread runs before the next
+     * thread is scheduled and sleeping threads which are due are woken
+     * @param quantum the number of instructions
+     */
+    void setQuantum(int quantum);
+    
+    /**
+     * @return the number of instructions in a time slice
+     */
+    int getQuantum();
+    
+    /**
+     * Set whether guest time is derived from the number of instructions
+     * executed, rather than taken from the host. With the virtual clock,
+     * guest time starts at zero at each reset, and runs are repeatable.
+     * This takes effect at the next reset.
+     * @param virtualClock true for the virtual clock
+     */
+    void setVirtualClock(boolean virtualClock);
+    
+    /**
+     * @return true if the clock used after the next reset is virtual
+     */
+    boolean getVirtualClock();
+    
     /**
      * Execute one virtual machine instruction
      * @return the an exception is thrown, otherwise null
      */
     Exception step();
     
+    /**
+     * Execute virtual machine instructions until the given number have
+     * been executed, an exception is thrown, the breakpoint is reached,
+     * an external interrupt is delivered, halt() is called or no guest
+     * thread can run. In the last case call waitForWork() before the
+     * next run.
+     * @param maxInstructions the maximum number of instructions
+     * @return the exception if thrown, otherwise null
+     */
+    Exception run(long maxInstructions);
+    
+    /**
+     * If the last run stopped because no guest thread could run, wait
+     * until a sleeping thread is due, a key is pressed or released, or
+     * halt() is called. Otherwise return at once. Other requests may be
+     * made to the engine while this thread waits.
+     */
+    void waitForWork();
+    
+    /**
+     * Ask a run in progress to stop, or end a wait for work. This may be
+     * called from any thread. If no run is in progress, the next run stops
+     * after one instruction.
+     */
+    void halt();
+    
+    /**
+     * Set the breakpoint. A run stops before executing the instruction
+     * at this address.
+     * @param address the instruction address, or zero for no breakpoint
+     */
+    void setBreakpoint(int address);
+    
+    /**
+     * @return the breakpoint address, or zero if there is none
+     */
+    int getBreakpoint();
+    
     /**
      * Reset the emulator and load the given memory and floppy images
      * @param memory the memory image
@@ -111,6 +217,23 @@ public interface Engine {
      */
     void reset(byte[] memory, byte[] floppy);
     
+    /**
+     * Save the complete state of the emulator to a snapshot file
+     * @param file the file
+     * @throws IOException if an error occurs
+     */
+    void saveSnapshot(File file) throws IOException;
+    
+    /**
+     * Restore the complete state of the emulator from a snapshot file,
+     * instead of resetting it. The collector mode, memory size, time slice
+     * and clock are those of the snapshot. If the snapshot cannot be read,
+     * the emulator is left as it was.
+     * @param file the file
+     * @throws IOException if an error occurs
+     */
+    void restoreSnapshot(File file) throws IOException;
+    
     /**
      * Set the debug mode
      * @param debug the new mode
@@ -122,6 +245,83 @@ public interface Engine {
      */
     boolean getDebug();
     
+    /**
+     * Set whether instructions are executed from a pre-decoded form
+     * of each method, rather than being decoded from memory each time
+     * @param predecode the new mode
+     */
+    void setPredecode(boolean predecode);
+    
+    /**
+     * @return true if instructions are executed from pre-decoded code
+     */
+    boolean getPredecode();
+    
+    /**
+     * Set whether hot methods are compiled into host classes. This
+     * only has an effect when instructions are pre-decoded.
+     * @param compile the new mode
+     */
+    void setCompile(boolean compile);
+    
+    /**
+     * @return true if hot methods are compiled
+     */
+    boolean getCompile();
+    
+    /**
+     * Set whether execution is profiled. The profile counts opcodes,
+     * pairs of opcodes and the instructions and invocations of each
+     * method. Switching profiling on discards the previous profile.
+     * @param profiling the new mode
+     */
+    void setProfiling(boolean profiling);
+    
+    /**
+     * @return true if execution is profiled
+     */
+    boolean getProfiling();
+    
+    /**
+     * Return the profile gathered since profiling was switched on
+     * @param csv true for comma separated values, false for a report
+     *     sorted by count
+     * @return the profile
+     */
+    String getProfile(boolean csv);
+    
+    /**
+     * Set how the call stack of the running thread is sampled. Setting
+     * the mode discards the previous samples.
+     * @param sampling the new mode
+     * @param interval the interval between samples, in instructions or
+     *     milliseconds depending on the mode (ignored if sampling is off)
+     */
+    void setSampling(int sampling, int interval);
+    
+    /**
+     * @return the sampling mode
+     */
+    int getSampling();
+    
+    /**
+     * Return the samples taken since the sampling mode was set, in the
+     * collapsed stack format read by flame graph tools
+     * @return the samples
+     */
+    String getSamples();
+    
+    /**
+     * Set the garbage collector used after the next reset
+     * @param collector the collector mode
+     */
+    void setCollector(int collector);
+    
+    /**
+     * @return the collector mode used after the next reset
+     */
+    int getCollector();
+    
     /**
      * @return the number of console rows
      */
@@ -20,6 +20,9 @@ Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
 */
 package org.pjos.emulator.engine;
 
+import java.io.File;
+import java.io.IOException;
+
 import java.lang.reflect.Method;
 
 /**
@@ -38,6 +41,18 @@ public class ResetImplementation implements Engine {
     
     /** The underlying engine */
     private Engine engine;
+    
+    /** The collector mode, which must survive reloading the engine */
+    private int collector = COLLECTOR_GENERATIONAL;
+    
+    /** The memory size, which must survive reloading the engine */
+    private int memorySize = DEFAULT_MEMORY_SIZE;
+    
+    /** The time slice, which must survive reloading the engine */
+    private int quantum = DEFAULT_QUANTUM;
+    
+    /** The clock mode, which must survive reloading the engine */
+    private boolean virtualClock = false;
 
     /**
      * Create a reset implementation which will load classes
@@ -65,12 +80,35 @@ public class ResetImplementation implements Engine {
                     "org.pjos.emulator.engine.implementation.Implementation");
             Method method = implementation.getMethod("get", null);
             engine = (Engine) method.invoke(null, null);
+            engine.setCollector(collector);
+            engine.setMemorySize(memorySize);
+            engine.setQuantum(quantum);
+            engine.setVirtualClock(virtualClock);
             engine.reset(memory, floppy);
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
     
+    /**
+     * Save the complete state of the emulator to a snapshot file
+     * @param file the file
+     * @throws IOException if an error occurs
+     */
+    public void saveSnapshot(File file) throws IOException {
+        engine.saveSnapshot(file);
+    }
+    
+    /**
+     * Restore the complete state of the emulator from a snapshot file
+     * @param file the file
+     * @throws IOException if an error occurs
+     */
+    public void restoreSnapshot(File file) throws IOException {
+        engine.restoreSnapshot(file);
+        quantum = engine.getQuantum();
+    }
+    
     /**
      * @param address the address
      * @return the 32-bit value at the specified memory address
@@ -165,6 +203,15 @@ public class ResetImplementation implements Engine {
         return engine.getMemorySize();
     }
     
+    /**
+     * Set the memory size used after the next reset
+     * @param size the memory size in bytes
+     */
+    public void setMemorySize(int size) {
+        engine.setMemorySize(size);
+        memorySize = size;
+    }
+    
     /**
      * @return the number of instructions executed since the last reset
      */
@@ -172,6 +219,38 @@ public class ResetImplementation implements Engine {
         return engine.getCounter();
     }
     
+    /**
+     * Set the number of instructions in a time slice
+     * @param quantum the number of instructions
+     */
+    public void setQuantum(int quantum) {
+        engine.setQuantum(quantum);
+        this.quantum = quantum;
+    }
+    
+    /**
+     * @return the number of instructions in a time slice
+     */
+    public int getQuantum() {
+        return quantum;
+    }
+    
+    /**
+     * Set whether the clock used after the next reset is virtual
+     * @param virtualClock true for the virtual clock
+     */
+    public void setVirtualClock(boolean virtualClock) {
+        engine.setVirtualClock(virtualClock);
+        this.virtualClock = virtualClock;
+    }
+    
+    /**
+     * @return true if the clock used after the next reset is virtual
+     */
+    public boolean getVirtualClock() {
+        return virtualClock;
+    }
+    
     /**
      * Execute one virtual machine instruction. If an exception is thrown,
      * during execution return it, otherwise return null.
@@ -181,6 +260,45 @@ public class ResetImplementation implements Engine {
         return engine.step();
     }
     
+    /**
+     * Execute instructions until a limit or event is reached
+     * @param maxInstructions the maximum number of instructions
+     * @return the exception if thrown, otherwise null
+     */
+    public Exception run(long maxInstructions) {
+        return engine.run(maxInstructions);
+    }
+    
+    /**
+     * Wait until the guest has work, if the last run stopped because
+     * it was idle
+     */
+    public void waitForWork() {
+        engine.waitForWork();
+    }
+    
+    /**
+     * Ask a run in progress to stop
+     */
+    public void halt() {
+        engine.halt();
+    }
+    
+    /**
+     * Set the breakpoint
+     * @param address the instruction address, or zero for none
+     */
+    public void setBreakpoint(int address) {
+        engine.setBreakpoint(address);
+    }
+    
+    /**
+     * @return the breakpoint address, or zero if there is none
+     */
+    public int getBreakpoint() {
+        return engine.getBreakpoint();
+    }
+    
     /**
      * Set the debug mode
      * @param debug the new debug mode
@@ -196,6 +314,98 @@ public class ResetImplementation implements Engine {
         return engine.getDebug();
     }
     
+    /**
+     * Set the pre-decode mode
+     * @param predecode the new pre-decode mode
+     */
+    public void setPredecode(boolean predecode) {
+        engine.setPredecode(predecode);
+    }
+    
+    /**
+     * @return the pre-decode mode
+     */
+    public boolean getPredecode() {
+        return engine.getPredecode();
+    }
+    
+    /**
+     * Set the compile mode
+     * @param compile the new compile mode
+     */
+    public void setCompile(boolean compile) {
+        engine.setCompile(compile);
+    }
+    
+    /**
+     * @return the compile mode
+     */
+    public boolean getCompile() {
+        return engine.getCompile();
+    }
+    
+    /**
+     * Set the profiling mode
+     * @param profiling the new profiling mode
+     */
+    public void setProfiling(boolean profiling) {
+        engine.setProfiling(profiling);
+    }
+    
+    /**
+     * @return the profiling mode
+     */
+    public boolean getProfiling() {
+        return engine.getProfiling();
+    }
+    
+    /**
+     * @param csv true for comma separated values, false for a report
+     * @return the profile gathered since profiling was switched on
+     */
+    public String getProfile(boolean csv) {
+        return engine.getProfile(csv);
+    }
+    
+    /**
+     * Set the sampling mode
+     * @param sampling the new sampling mode
+     * @param interval the interval between samples
+     */
+    public void setSampling(int sampling, int interval) {
+        engine.setSampling(sampling, interval);
+    }
+    
+    /**
+     * @return the sampling mode
+     */
+    public int getSampling() {
+        return engine.getSampling();
+    }
+    
+    /**
+     * @return the samples in collapsed stack format
+     */
+    public String getSamples() {
+        return engine.getSamples();
+    }
+    
+    /**
+     * Set the collector mode used after the next reset
+     * @param collector the collector mode
+     */
+    public void setCollector(int collector) {
+        this.collector = collector;
+        engine.setCollector(collector);
+    }
+    
+    /**
+     * @return the collector mode used after the next reset
+     */
+    public int getCollector() {
+        return collector;
+    }
+    
     /**
      * @return the number of console rows
      */
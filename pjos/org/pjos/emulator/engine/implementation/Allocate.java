@@ -25,12 +25,42 @@ package org.pjos.emulator.engine.implementation;
  */
 class Allocate implements Constants {
 
+    /** The next free address in the nursery */
+    static int nurseryNext;
+    
+    /** The size of the current space in bytes */
+    static int space;
+
     /**
      * @return percentage of memory used
      */
     static int used() {
         int next = Mem.load(Reg.core + 4 * CORE_NEXT);
-        return (next - Reg.core) * 100 / Mem.LIMIT;
+        return (int) ((next - Reg.core) * 100L / space);
+    }
+    
+    /**
+     * @return the number of bytes used in the nursery
+     */
+    static int nurseryUsed() {
+        return nurseryNext - Mem.nursery;
+    }
+    
+    /**
+     * @return the number of bytes free in the current java space
+     */
+    static int free() {
+        int next = Mem.load(Reg.core + 4 * CORE_NEXT);
+        return Reg.core + space - next;
+    }
+    
+    /**
+     * @param pointer the pointer value
+     * @return true if the pointer is in the current space or the nursery
+     */
+    static boolean isHeap(int pointer) {
+        return (pointer >= Reg.core && pointer < Reg.core + space)
+                || (pointer >= Mem.nursery && pointer < nurseryNext);
     }
     
     /**
@@ -39,6 +69,10 @@ class Allocate implements Constants {
      * null. The object header and size are initialised, and all words of the
      * object are set to zero.
      *
+     * When the generational collector is used, objects up to an eighth of
+     * the nursery size are allocated in the nursery, and only a minor
+     * collection is run when it fills.
+     *
      * Code calling this method should check if null is returned, this means
      * garbage collection has taken place and all previous memory addresses
      * have become invalid.
@@ -47,30 +81,42 @@ class Allocate implements Constants {
      * @return the address of the allocated space
      */
     static int allocate(int numWords, int header) {
-        // find the next available address
         int numBytes = numWords * 4;
-        int address = Mem.load(Reg.core + 4 * CORE_NEXT);
-        int nextAddress = address + numBytes;
-        
-        // do garbage collection if not enough space...
-        int result = NULL;
-        if (nextAddress >= Reg.core + Mem.LIMIT) {
-            Collector.gc();
+        int address;
+        if (Collector.generational && numBytes <= Mem.nurserySize / 8) {
+            // allocate in the nursery, collecting it if full
+            address = nurseryNext;
+            int nextAddress = address + numBytes;
+            if (nextAddress > Mem.nursery + Mem.nurserySize) {
+                Collector.minor();
+                return NULL;
+            }
+            nurseryNext = nextAddress;
         } else {
-            // ...otherwise initialise
-            Mem.store(header, address);
-            Mem.store(numWords, address + 4);
+            // find the next available address
+            address = Mem.load(Reg.core + 4 * CORE_NEXT);
+            int nextAddress = address + numBytes;
             
-            // initialise rest of object to zero/null
-            for (int i = 2; i < numWords; i++) {
-                Mem.store(0x00000000, address + (i * 4));
+            // do garbage collection if not enough space
+            if (nextAddress >= Reg.core + space) {
+                Collector.gc();
+                return NULL;
             }
-            result = address;
             
             // reset next pointer to next free space
             Mem.store(nextAddress, Reg.core + 4 * CORE_NEXT);
+            Collector.record(address, numBytes);
+        }
+        
+        // initialise header and size
+        Mem.store(header, address);
+        Mem.store(numWords, address + 4);
+        
+        // initialise rest of object to zero/null
+        for (int i = 2; i < numWords; i++) {
+            Mem.store(0x00000000, address + (i * 4));
         }
-        return result;
+        return address;
     }
     
 }
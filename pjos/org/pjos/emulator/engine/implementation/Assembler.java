@@ -0,0 +1,412 @@
+/*
+Copyright 2002 Simon Daniel
+email: simon@pjos.org
+
+This file is part of PJOS.
+
+This program is free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+package org.pjos.emulator.engine.implementation;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.pjos.common.runtime.Opcode;
+
+/**
+ * Assembles a host class file holding a single compiled method. The
+ * class extends Compiled, and its run method is built up one host
+ * instruction at a time. Branches refer to labels, which are patched
+ * when the class is written.
+ */
+class Assembler implements Opcode {
+
+    /** The name of the base class of compiled code */
+    static final String BASE = "org/pjos/emulator/engine/implementation/Compiled";
+
+    /** The class file version (JDK 1.4, so no stack map frames) */
+    private static final int VERSION = 48;
+
+    /** The constant pool entries written so far */
+    private ByteArrayOutputStream pool = new ByteArrayOutputStream();
+
+    /** The number of constant pool slots used, plus one */
+    private int poolCount = 1;
+
+    /** The index of each constant pool entry (String key to Integer) */
+    private HashMap indexes = new HashMap();
+
+    /** The code of the run method */
+    private byte[] code = new byte[256];
+
+    /** The number of bytes of code */
+    private int length;
+
+    /** The code offset of each label (-1 until marked) */
+    private int[] labels = new int[64];
+
+    /** The number of labels */
+    private int labelCount;
+
+    /** Branches to patch: instruction offset, operand offset, label */
+    private ArrayList branches = new ArrayList();
+
+    /**
+     * @return the current code offset
+     */
+    int offset() {
+        return length;
+    }
+
+    /**
+     * @return a new label, not yet marked
+     */
+    int label() {
+        if (labelCount == labels.length) {
+            int[] larger = new int[labels.length * 2];
+            System.arraycopy(labels, 0, larger, 0, labels.length);
+            labels = larger;
+        }
+        labels[labelCount] = -1;
+        return labelCount++;
+    }
+
+    /**
+     * Mark the given label at the current code offset
+     * @param label the label
+     */
+    void mark(int label) {
+        labels[label] = length;
+    }
+
+    /**
+     * Append a byte of code
+     * @param value the byte
+     */
+    void op(int value) {
+        if (length == code.length) {
+            byte[] larger = new byte[code.length * 2];
+            System.arraycopy(code, 0, larger, 0, length);
+            code = larger;
+        }
+        code[length++] = (byte) value;
+    }
+
+    /**
+     * Append two bytes of code
+     * @param value the big endian value
+     */
+    void op2(int value) {
+        op(value >> 8);
+        op(value);
+    }
+
+    /**
+     * Append four bytes of code
+     * @param value the big endian value
+     */
+    void op4(int value) {
+        op2(value >> 16);
+        op2(value);
+    }
+
+    /**
+     * Append a branch instruction with a two byte offset
+     * @param op the operation
+     * @param label the target label
+     */
+    void branch(int op, int label) {
+        int start = length;
+        op(op);
+        branches.add(new int[] {start, length, label, 2});
+        op2(0);
+    }
+
+    /**
+     * Append a four byte switch offset, relative to the given switch
+     * instruction
+     * @param start the offset of the switch instruction
+     * @param label the target label
+     */
+    void switchOffset(int start, int label) {
+        branches.add(new int[] {start, length, label, 4});
+        op4(0);
+    }
+
+    /**
+     * Append an instruction pushing the given int constant
+     * @param value the constant
+     */
+    void push(int value) {
+        if (value >= -1 && value <= 5) {
+            op(ICONST_0 + value);
+        } else if (value >= -128 && value <= 127) {
+            op(BIPUSH);
+            op(value);
+        } else if (value >= -32768 && value <= 32767) {
+            op(SIPUSH);
+            op2(value);
+        } else {
+            op(LDC_W);
+            op2(constant(3, "I" + value, value));
+        }
+    }
+
+    /**
+     * Append a load or store of a host local variable
+     * @param op ILOAD or ISTORE
+     * @param index the local variable index
+     */
+    void local(int op, int index) {
+        if (index > 255) { op(WIDE); }
+        op(op);
+        if (index > 255) { op2(index); } else { op(index); }
+    }
+
+    /**
+     * Append an increment of a host local variable
+     * @param index the local variable index
+     * @param amount the increment
+     */
+    void iinc(int index, int amount) {
+        if (index > 255 || amount < -128 || amount > 127) {
+            op(WIDE);
+            op(IINC);
+            op2(index);
+            op2(amount);
+        } else {
+            op(IINC);
+            op(index);
+            op(amount);
+        }
+    }
+
+    /**
+     * Append a call to a static method of the base class
+     * @param name the method name
+     * @param descriptor the method descriptor
+     */
+    void call(String name, String descriptor) {
+        op(INVOKESTATIC);
+        op2(member(10, BASE, name, descriptor));
+    }
+
+    /**
+     * Append a read or write of a static field of the base class
+     * @param op the getstatic or putstatic operation
+     * @param name the field name
+     */
+    void field(int op, String name) {
+        op(op);
+        op2(member(9, BASE, name, "I"));
+    }
+
+    /**
+     * Write the class file
+     * @param name the class name
+     * @param maxStack the maximum host stack depth of the run method
+     * @param maxLocals the number of host locals of the run method
+     * @return the class file
+     */
+    byte[] toClass(String name, int maxStack, int maxLocals) {
+        // patch the branches
+        for (int i = 0; i < branches.size(); i++) {
+            int[] branch = (int[]) branches.get(i);
+            int target = labels[branch[2]];
+            if (target < 0) {
+                throw new IllegalStateException("Unmarked label");
+            }
+            int offset = target - branch[0];
+            if (branch[3] == 2) {
+                if (offset < -32768 || offset > 32767) {
+                    throw new IllegalStateException("Branch too long");
+                }
+                code[branch[1]] = (byte) (offset >> 8);
+                code[branch[1] + 1] = (byte) offset;
+            } else {
+                for (int j = 0; j < 4; j++) {
+                    code[branch[1] + j] = (byte) (offset >> (24 - 8 * j));
+                }
+            }
+        }
+        if (length > 65535) {
+            throw new IllegalStateException("Method too long");
+        }
+
+        int thisClass = classRef(name);
+        int superClass = classRef(BASE);
+        int init = member(10, BASE, "<init>", "()V");
+        int initName = utf8("<init>");
+        int initType = utf8("()V");
+        int runName = utf8("run");
+        int runType = utf8("(I)I");
+        int codeName = utf8("Code");
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xcafebabe);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+            out.writeShort(poolCount);
+            pool.writeTo(out);
+            out.writeShort(0x0031); // public, final, super
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0); // interfaces
+            out.writeShort(0); // fields
+            out.writeShort(2); // methods
+
+            // public constructor calling the base constructor
+            out.writeShort(0x0001);
+            out.writeShort(initName);
+            out.writeShort(initType);
+            out.writeShort(1);
+            out.writeShort(codeName);
+            out.writeInt(12 + 5);
+            out.writeShort(1);
+            out.writeShort(1);
+            out.writeInt(5);
+            out.writeByte(ALOAD_0);
+            out.writeByte(INVOKESPECIAL);
+            out.writeShort(init);
+            out.writeByte(RETURN);
+            out.writeShort(0); // exception table
+            out.writeShort(0); // attributes
+
+            // the run method
+            out.writeShort(0x0001);
+            out.writeShort(runName);
+            out.writeShort(runType);
+            out.writeShort(1);
+            out.writeShort(codeName);
+            out.writeInt(12 + length);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(length);
+            out.write(code, 0, length);
+            out.writeShort(0); // exception table
+            out.writeShort(0); // attributes
+
+            out.writeShort(0); // class attributes
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e.getMessage());
+        }
+    }
+
+    /**
+     * @param value the string
+     * @return the index of the utf8 constant
+     */
+    private int utf8(String value) {
+        String key = "U" + value;
+        Integer index = (Integer) indexes.get(key);
+        if (index != null) { return index.intValue(); }
+        try {
+            DataOutputStream out = new DataOutputStream(pool);
+            out.writeByte(1);
+            out.writeUTF(value);
+        } catch (IOException e) {
+            throw new IllegalStateException(e.getMessage());
+        }
+        return add(key, 1);
+    }
+
+    /**
+     * @param name the internal class name
+     * @return the index of the class constant
+     */
+    private int classRef(String name) {
+        String key = "C" + name;
+        Integer index = (Integer) indexes.get(key);
+        if (index != null) { return index.intValue(); }
+        int nameIndex = utf8(name);
+        pool.write(7);
+        write2(nameIndex);
+        return add(key, 1);
+    }
+
+    /**
+     * @param tag the constant tag (9 for fields, 10 for methods)
+     * @param owner the internal class name
+     * @param name the member name
+     * @param descriptor the member descriptor
+     * @return the index of the member reference constant
+     */
+    private int member(int tag, String owner, String name,
+            String descriptor) {
+        String key = "M" + tag + owner + "." + name + descriptor;
+        Integer index = (Integer) indexes.get(key);
+        if (index != null) { return index.intValue(); }
+        int ownerIndex = classRef(owner);
+        int nameIndex = utf8(name);
+        int typeIndex = utf8(descriptor);
+        String typeKey = "T" + name + descriptor;
+        Integer nameAndType = (Integer) indexes.get(typeKey);
+        if (nameAndType == null) {
+            pool.write(12);
+            write2(nameIndex);
+            write2(typeIndex);
+            nameAndType = new Integer(add(typeKey, 1));
+        }
+        pool.write(tag);
+        write2(ownerIndex);
+        write2(nameAndType.intValue());
+        return add(key, 1);
+    }
+
+    /**
+     * @param tag the constant tag (3 for integers)
+     * @param key the key of the constant
+     * @param value the value
+     * @return the index of the constant
+     */
+    private int constant(int tag, String key, int value) {
+        Integer index = (Integer) indexes.get(key);
+        if (index != null) { return index.intValue(); }
+        pool.write(tag);
+        write2(value >> 16);
+        write2(value);
+        return add(key, 1);
+    }
+
+    /**
+     * Record a new constant pool entry
+     * @param key the key of the entry
+     * @param slots the number of slots the entry takes
+     * @return the index of the entry
+     */
+    private int add(String key, int slots) {
+        int index = poolCount;
+        poolCount += slots;
+        indexes.put(key, new Integer(index));
+        return index;
+    }
+
+    /**
+     * Write two bytes to the constant pool
+     * @param value the big endian value
+     */
+    private void write2(int value) {
+        pool.write(value >> 8);
+        pool.write(value);
+    }
+
+}
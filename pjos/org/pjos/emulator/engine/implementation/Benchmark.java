@@ -0,0 +1,685 @@
+/*
+Copyright 2002 Simon Daniel
+email: simon@pjos.org
+
+This file is part of PJOS.
+
+This program is free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+package org.pjos.emulator.engine.implementation;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.pjos.common.runtime.Entry;
+import org.pjos.common.runtime.Opcode;
+import org.pjos.emulator.engine.Engine;
+
+/**
+ * Runs micro benchmarks against the engine implementation. These use
+ * small synthetic heaps built directly in memory, so no memory image
+ * is needed. Each benchmark is repeated and the fastest round is
+ * reported, to discount warm up and noise from other processes.
+ */
+public final class Benchmark implements Constants, Opcode {
+
+    /** The number of times each benchmark is repeated */
+    private static final int ROUNDS = 20;
+
+    /** The number of times the work is repeated in each round */
+    private static final int PASSES = 20;
+
+    /** The number of words touched by the memory benchmark */
+    private static final int WORDS = 1024 * 1024;
+
+    /** The number of iterations of the interpreted loop */
+    private static final int LOOP = 32000;
+
+    /** The number of calls made in each pass of the call benchmark */
+    private static final int CALLS = 100000;
+
+    /** The depth of the chain of frames promoted by the call benchmark */
+    private static final int DEPTH = 1000;
+
+    /** The number of groups of arrays in the collector benchmark library */
+    private static final int GROUPS = 256;
+
+    /** The number of data arrays in each group */
+    private static final int GROUP = 64;
+
+    /** The number of words of data in each data array */
+    private static final int DATA = 16;
+
+    /** The number of short lived arrays allocated by the collector benchmark */
+    private static final int CHURN = 1000000;
+
+    /** Every this many short lived arrays, one replaces a library array */
+    private static final int KEEP = 16;
+
+    /** The next free address in the synthetic heap */
+    private static int next;
+
+    /** The byte array memory compared by the memory benchmark */
+    private static byte[] bytes;
+
+    /**
+     * Private constructor, not used
+     */
+    private Benchmark() {}
+
+    /**
+     * Run all the benchmarks
+     * @param args the command line arguments (not used)
+     */
+    public static void main(String[] args) {
+        Debug.debug = false;
+        memory();
+        interpreter();
+        fields();
+        calls();
+        snapshot();
+        collector(Engine.COLLECTOR_SEMISPACE, "semispace");
+        collector(Engine.COLLECTOR_GENERATIONAL, "generational");
+        collector(Engine.COLLECTOR_MARK_COMPACT, "mark-compact");
+        capacity(Engine.COLLECTOR_SEMISPACE, "semispace");
+        capacity(Engine.COLLECTOR_MARK_COMPACT, "mark-compact");
+    }
+
+    /**
+     * Compare word access through the word-granular memory methods
+     * with the same accesses made the way memory used to work: a byte
+     * array whose words are assembled from single checked bytes.
+     */
+    private static void memory() {
+        Mem.reset(new byte[0], Engine.DEFAULT_MEMORY_SIZE);
+        bytes = new byte[Mem.size];
+        int base = Mem.OFFSET;
+        long words = Long.MAX_VALUE;
+        long checked = Long.MAX_VALUE;
+        int check = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.currentTimeMillis();
+            for (int pass = 0; pass < PASSES; pass++) {
+                for (int i = 0; i < WORDS; i++) {
+                    int address = base + 4 * i;
+                    Mem.store(Mem.load(address) + i, address);
+                }
+            }
+            words = java.lang.Math.min(words,
+                    System.currentTimeMillis() - start);
+
+            start = System.currentTimeMillis();
+            for (int pass = 0; pass < PASSES; pass++) {
+                for (int i = 0; i < WORDS; i++) {
+                    int address = base + 4 * i;
+                    storeBytes(loadBytes(address) - i, address);
+                }
+            }
+            checked = java.lang.Math.min(checked,
+                    System.currentTimeMillis() - start);
+        }
+        for (int i = 0; i < WORDS; i++) {
+            check |= Mem.load(base + 4 * i) + loadBytes(base + 4 * i);
+        }
+        bytes = null;
+        report("memory, words", words, 2L * WORDS * PASSES, "accesses");
+        report("memory, byte array", checked, 2L * WORDS * PASSES, "accesses");
+        if (check != 0) {
+            throw new IllegalStateException("Memory benchmark failed");
+        }
+    }
+
+    /**
+     * Load a word from the byte array by assembling single bytes
+     * @param address the address
+     * @return the value
+     */
+    private static int loadBytes(int address) {
+        return loadByte(address) << 24
+            | loadByte(address + 1) << 16
+            | loadByte(address + 2) << 8
+            | loadByte(address + 3);
+    }
+
+    /**
+     * Store a word in the byte array as single bytes
+     * @param value the value
+     * @param address the address
+     */
+    private static void storeBytes(int value, int address) {
+        storeByte(value >>> 24, address);
+        storeByte(value >>> 16, address + 1);
+        storeByte(value >>> 8, address + 2);
+        storeByte(value, address + 3);
+    }
+
+    /**
+     * Load a byte from the byte array, checking the address
+     * @param address the address
+     * @return the value
+     */
+    private static int loadByte(int address) {
+        if (address < 0 || address >= bytes.length) {
+            throw new IllegalArgumentException(
+                    "Invalid address: 0x" + Integer.toHexString(address));
+        }
+        return (int) (bytes[address] & 0xff);
+    }
+
+    /**
+     * Store a byte in the byte array, checking the address
+     * @param value the value
+     * @param address the address
+     */
+    private static void storeByte(int value, int address) {
+        if (address < Mem.OFFSET || address >= bytes.length) {
+            throw new IllegalArgumentException(
+                    "Invalid address: 0x" + Integer.toHexString(address));
+        }
+        bytes[address] = (byte) (value & 0xff);
+    }
+
+    /**
+     * Time an interpreted integer loop, decoding from memory, executing
+     * pre-decoded code and running compiled code. The compiled code must
+     * count the same number of instructions as the pre-decoded code.
+     */
+    private static void interpreter() {
+        byte[] code = sumLoop();
+        String[] names = {
+            "interpreter", "interpreter, pre-decoded", "interpreter, compiled"
+        };
+        long instructions = 0;
+        for (int mode = 0; mode < names.length; mode++) {
+            long time = Long.MAX_VALUE;
+            long count = 0;
+            int result = 0;
+            for (int round = 0; round < ROUNDS; round++) {
+                long elapsed = 0;
+                count = 0;
+                for (int pass = 0; pass < PASSES; pass++) {
+                    load(code, 2, 3);
+                    long start = System.currentTimeMillis();
+                    while (Mem.loadByte(Reg.instruction) != RETURN) {
+                        if (mode == 0) {
+                            Distributor.execute();
+                        } else {
+                            if (mode == 2) {
+                                count += Compiler.execute(Compiler.BUDGET);
+                                if (Mem.loadByte(Reg.instruction) == RETURN) {
+                                    continue;
+                                }
+                            }
+                            Distributor.executeDecoded();
+                        }
+                        count++;
+                    }
+                    elapsed += System.currentTimeMillis() - start;
+                    result = Locals.getDataFromLocal(1);
+                }
+                time = java.lang.Math.min(time, elapsed);
+            }
+            if (result != (LOOP - 1) * LOOP / 2) {
+                throw new IllegalStateException("Wrong result: " + result);
+            }
+            if (mode < 2) { instructions = count; }
+            if (count != instructions) {
+                throw new IllegalStateException("Wrong count: " + count);
+            }
+            report(names[mode], time, count, "instructions");
+        }
+    }
+
+    /**
+     * Time an interpreted loop adding to an instance field, decoding from
+     * memory, which resolves the field on every access, executing
+     * pre-decoded code, which uses the quick forms of the field
+     * instructions, and running compiled code
+     */
+    private static void fields() {
+        byte[] code = fieldLoop();
+        String[] names = {"fields", "fields, quickened", "fields, compiled"};
+        long instructions = 0;
+        for (int mode = 0; mode < names.length; mode++) {
+            long time = Long.MAX_VALUE;
+            long count = 0;
+            int result = 0;
+            for (int round = 0; round < ROUNDS; round++) {
+                long elapsed = 0;
+                count = 0;
+                for (int pass = 0; pass < PASSES; pass++) {
+                    load(code, 3, 2);
+                    int object = fieldObject();
+                    long start = System.currentTimeMillis();
+                    while (Mem.loadByte(Reg.instruction) != RETURN) {
+                        if (mode == 0) {
+                            Distributor.execute();
+                        } else {
+                            if (mode == 2) {
+                                count += Compiler.execute(Compiler.BUDGET);
+                                if (Mem.loadByte(Reg.instruction) == RETURN) {
+                                    continue;
+                                }
+                            }
+                            Distributor.executeDecoded();
+                        }
+                        count++;
+                    }
+                    elapsed += System.currentTimeMillis() - start;
+                    result = Mem.load(object + 4 * OBJECT_FIELDS);
+                }
+                time = java.lang.Math.min(time, elapsed);
+            }
+            if (result != (LOOP - 1) * LOOP / 2) {
+                throw new IllegalStateException("Wrong result: " + result);
+            }
+            if (mode < 2) { instructions = count; }
+            if (count != instructions) {
+                throw new IllegalStateException("Wrong count: " + count);
+            }
+            report(names[mode], time, count, "instructions");
+        }
+    }
+
+    /**
+     * Time saving and restoring a snapshot part way through an interpreted
+     * loop, then finish the loop from the restored state and check it
+     */
+    private static void snapshot() {
+        load(sumLoop(), 2, 3);
+        for (int i = 0; i < LOOP; i++) {
+            Distributor.executeDecoded();
+        }
+        long save = Long.MAX_VALUE;
+        long restore = Long.MAX_VALUE;
+        try {
+            File file = File.createTempFile("pjos", ".snapshot");
+            file.deleteOnExit();
+            for (int round = 0; round < ROUNDS; round++) {
+                long start = System.currentTimeMillis();
+                Snapshot.save(file, new byte[0]);
+                save = java.lang.Math.min(save,
+                        System.currentTimeMillis() - start);
+                start = System.currentTimeMillis();
+                Snapshot.read(file).restore();
+                restore = java.lang.Math.min(restore,
+                        System.currentTimeMillis() - start);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e.toString());
+        }
+        Decoder.flush();
+        while (Mem.loadByte(Reg.instruction) != RETURN) {
+            Distributor.executeDecoded();
+        }
+        int result = Locals.getDataFromLocal(1);
+        if (result != (LOOP - 1) * LOOP / 2) {
+            throw new IllegalStateException("Wrong result: " + result);
+        }
+        report("snapshot, save", save, Mem.size / 1024, "KB");
+        report("snapshot, restore", restore, Mem.size / 1024, "KB");
+    }
+
+    /**
+     * Give the loaded method a pool holding a resolved entry for a single
+     * word data field, and put an object with that field in local 0
+     * @return the object
+     */
+    private static int fieldObject() {
+        int entry = allocate(OBJECT_FIELDS + FIELD_SIZE + 1, HEADER_INSTANCE);
+        Mem.store(Entry.FIELD, entry + 4 * ENTRY_ID);
+        Mem.store(0, entry + 4 * FIELD_INDEX);
+        Mem.store(0, entry + 4 * FIELD_REFERENCE_FLAG);
+        Mem.store(1, entry + 4 * FIELD_SIZE);
+        int pool = allocate(ARRAY_DATA + 2, HEADER_OBJECT_ARRAY);
+        Mem.store(2, pool + 4 * ARRAY_LENGTH);
+        Mem.store(entry, pool + 4 * ARRAY_DATA + 4);
+        int object = allocate(OBJECT_FIELDS + 1, HEADER_INSTANCE);
+        Mem.store(pool, Reg.method + 4 * METHOD_POOL);
+        Mem.store(object, Reg.locals);
+        Mem.store(next, Reg.core + 4 * CORE_NEXT);
+        Reg.load();
+        return object;
+    }
+
+    /**
+     * Time method calls and returns, then promote a deep chain of frames
+     * to the heap and check that it is intact
+     */
+    private static void calls() {
+        load(new byte[] {(byte) RETURN}, 1, 1);
+        Collector.reset(Engine.COLLECTOR_GENERATIONAL);
+        int method = Reg.method;
+        Mem.store(ACC_STATIC, method + 4 * ENTRY_FLAGS); // local 0 is data
+        long time = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.currentTimeMillis();
+            for (int pass = 0; pass < PASSES; pass++) {
+                for (int i = 0; i < CALLS; i++) {
+                    while (!Invoke.executeMethod(NULL, method, 0)) {}
+                    Return.op_return();
+                }
+            }
+            time = java.lang.Math.min(time,
+                    System.currentTimeMillis() - start);
+        }
+        report("calls", time, (long) CALLS * PASSES, "calls");
+
+        // build a chain of frames spanning several segments, and promote it
+        int base = Reg.frame;
+        for (int i = 0; i < DEPTH; i++) {
+            while (!Invoke.executeMethod(NULL, method, 0)) {}
+            Mem.store(i, Reg.locals);
+        }
+        while (!Segments.promote()) {}
+        int frame = Reg.frame;
+        for (int i = DEPTH - 1; i >= 0; i--) {
+            if (Segments.contains(frame)
+                    || Mem.load(frame + 4 * FRAME_LOCALS) != i) {
+                throw new IllegalStateException("Frame damaged at " + i);
+            }
+            frame = Mem.load(frame + 4 * FRAME_RETURN_FRAME);
+        }
+        for (int i = 0; i < DEPTH; i++) {
+            Return.op_return();
+        }
+        if (frame != base || Reg.frame != base) {
+            throw new IllegalStateException("Frame chain damaged");
+        }
+        Collector.reset(Engine.COLLECTOR_SEMISPACE);
+    }
+
+    /**
+     * Time garbage collection with a library of long lived arrays, like
+     * the class library in a real image, while many short lived arrays
+     * are allocated. A few of these replace arrays in the library, so
+     * the library is checked afterwards. The library is only referred to
+     * from a frame in a stack segment.
+     * @param collector the collector mode
+     * @param name the collector name
+     */
+    private static void collector(int collector, String name) {
+        load(new byte[] {(byte) RETURN}, 1, 1);
+        int root = library();
+        Collector.reset(collector);
+        Invoke.executeMethod(NULL, Reg.method, 0);
+        Mem.store(root, Reg.locals);
+        int[] expected = new int[GROUPS * GROUP];
+
+        long start = System.currentTimeMillis();
+        long paused = 0;
+        long longest = 0;
+        int collections = 0;
+        for (int i = 0; i < CHURN; i++) {
+            int array = NULL;
+            while (array == NULL) {
+                long before = System.currentTimeMillis();
+                array = Allocate.allocate(ARRAY_DATA + DATA,
+                        HEADER_DATA_ARRAY);
+                if (array == NULL) {
+                    long pause = System.currentTimeMillis() - before;
+                    paused += pause;
+                    longest = java.lang.Math.max(longest, pause);
+                    collections++;
+                }
+            }
+            Mem.store(DATA, array + 4 * ARRAY_LENGTH);
+            if (i % KEEP == 0) {
+                int slot = (i / KEEP) * 7919 % expected.length;
+                root = Mem.load(Reg.locals);
+                int group = Mem.load(root + 4 * ARRAY_DATA
+                        + 4 * (slot / GROUP));
+                Mem.store(i, array + 4 * ARRAY_DATA);
+                Mem.store(array, group + 4 * ARRAY_DATA + 4 * (slot % GROUP));
+                expected[slot] = i;
+            }
+        }
+        long time = System.currentTimeMillis() - start;
+
+        // check the library survived
+        root = Mem.load(Reg.locals);
+        for (int slot = 0; slot < expected.length; slot++) {
+            int group = Mem.load(root + 4 * ARRAY_DATA + 4 * (slot / GROUP));
+            int array = Mem.load(group + 4 * ARRAY_DATA + 4 * (slot % GROUP));
+            if (Mem.load(array + 4 * ARRAY_DATA) != expected[slot]) {
+                throw new IllegalStateException("Library damaged at " + slot);
+            }
+        }
+        report("collector, " + name, time, CHURN, "arrays");
+        System.out.println("collector, " + name + ": " + collections
+                + " collections, " + paused + "ms paused, longest "
+                + longest + "ms");
+        Collector.reset(Engine.COLLECTOR_SEMISPACE);
+    }
+
+    /**
+     * Find how much live data a collector can hold, by keeping every
+     * array allocated until an allocation fails even after a collection
+     * @param collector the collector mode
+     * @param name the collector name
+     */
+    private static void capacity(int collector, String name) {
+        load(new byte[] {(byte) RETURN}, 1, 1);
+        Collector.reset(collector);
+        int kept = 0;
+        try {
+            while (true) {
+                int array = Allocate.allocate(ARRAY_DATA + DATA,
+                        HEADER_OBJECT_ARRAY);
+                if (array == NULL) {
+                    // collected, so a second failure means memory is full
+                    array = Allocate.allocate(ARRAY_DATA + DATA,
+                            HEADER_OBJECT_ARRAY);
+                    if (array == NULL) { break; }
+                }
+                Mem.store(DATA, array + 4 * ARRAY_LENGTH);
+                Mem.store(Mem.load(Reg.locals), array + 4 * ARRAY_DATA);
+                Mem.store(array, Reg.locals);
+                kept++;
+            }
+        } catch (IllegalStateException e) {
+            // the live objects no longer fit in a semispace
+        }
+        long bytes = 4L * kept * (ARRAY_DATA + DATA);
+        System.out.println("capacity, " + name + ": " + bytes / 1024
+                + "KB of live arrays in " + Mem.size / 1024
+                + "KB of memory");
+        Collector.reset(Engine.COLLECTOR_SEMISPACE);
+    }
+
+    /**
+     * Build the library of long lived arrays used by the collector
+     * benchmark in the synthetic heap
+     * @return the root array of the library
+     */
+    private static int library() {
+        int root = allocate(ARRAY_DATA + GROUPS, HEADER_OBJECT_ARRAY);
+        Mem.store(GROUPS, root + 4 * ARRAY_LENGTH);
+        for (int i = 0; i < GROUPS; i++) {
+            int group = allocate(ARRAY_DATA + GROUP, HEADER_OBJECT_ARRAY);
+            Mem.store(GROUP, group + 4 * ARRAY_LENGTH);
+            Mem.store(group, root + 4 * ARRAY_DATA + 4 * i);
+            for (int j = 0; j < GROUP; j++) {
+                int array = allocate(ARRAY_DATA + DATA, HEADER_DATA_ARRAY);
+                Mem.store(DATA, array + 4 * ARRAY_LENGTH);
+                Mem.store(array, group + 4 * ARRAY_DATA + 4 * j);
+            }
+        }
+        Mem.store(next, Reg.core + 4 * CORE_NEXT);
+        return root;
+    }
+
+    /**
+     * @return the byte code for a loop summing the integers below LOOP
+     */
+    private static byte[] sumLoop() {
+        return new byte[] {
+            ICONST_0, ISTORE_1,                             //  0
+            ICONST_0, ISTORE_2,                             //  2
+            ILOAD_2, SIPUSH, (byte) (LOOP >> 8), (byte) LOOP, //  4
+            (byte) IF_ICMPGE, 0, 13,                        //  8 -> 21
+            ILOAD_1, ILOAD_2, IADD, ISTORE_1,               // 11
+            (byte) IINC, 2, 1,                              // 15
+            (byte) GOTO, -1, -14,                           // 18 -> 4
+            (byte) RETURN                                   // 21
+        };
+    }
+
+    /**
+     * @return the byte code for a loop adding the integers below LOOP to
+     * field 0 of the object in local 0, using pool entry 1
+     */
+    private static byte[] fieldLoop() {
+        return new byte[] {
+            ICONST_0, ISTORE_1,                             //  0
+            ILOAD_1, SIPUSH, (byte) (LOOP >> 8), (byte) LOOP, //  2
+            (byte) IF_ICMPGE, 0, 19,                        //  6 -> 25
+            ALOAD_0, DUP, (byte) GETFIELD, 0, 1,            //  9
+            ILOAD_1, IADD, (byte) PUTFIELD, 0, 1,           // 14
+            (byte) IINC, 1, 1,                              // 19
+            (byte) GOTO, -1, -20,                           // 22 -> 2
+            (byte) RETURN                                   // 25
+        };
+    }
+
+    /**
+     * Build a synthetic heap holding a core object and a single thread
+     * about to execute the given code, and load the registers from it.
+     * @param code the byte code
+     * @param maxStack the maximum stack depth
+     * @param maxLocals the number of local variables
+     */
+    private static void load(byte[] code, int maxStack, int maxLocals) {
+        Mem.reset(new byte[0], Engine.DEFAULT_MEMORY_SIZE);
+        Decoder.flush();
+        Dispatch.flush();
+        StackMaps.flush();
+        next = Mem.OFFSET;
+        int core = allocate(OBJECT_FIELDS + CORE_ARRAYS + 9, HEADER_INSTANCE);
+        int thread = allocate(OBJECT_FIELDS + THREAD_SUSPENDED + 1,
+                HEADER_INSTANCE);
+        int method = allocate(OBJECT_FIELDS + METHOD_MAGIC + 1,
+                HEADER_INSTANCE);
+        int array = allocate(ARRAY_DATA + (code.length + 3) / 4,
+                HEADER_DATA_ARRAY);
+        int pool = allocate(ARRAY_DATA, HEADER_OBJECT_ARRAY);
+        int frameWords = FRAME_LOCALS + maxStack + maxLocals;
+        int frame = allocate(frameWords, HEADER_STACK_FRAME);
+        int type = type(new int[] {
+            CORE_RUNNING, THREAD_FRAME, ENTRY_DESCRIPTOR, METHOD_POOL,
+            METHOD_CODE, TYPE_INSTANCE_MAP
+        });
+        Mem.store(type, core + 4 * OBJECT_TYPE);
+        Mem.store(type, thread + 4 * OBJECT_TYPE);
+        Mem.store(type, method + 4 * OBJECT_TYPE);
+        Mem.store(code.length, array + 4 * ARRAY_LENGTH);
+        for (int i = 0; i < code.length; i++) {
+            Mem.storeByte(code[i], array + 4 * ARRAY_DATA + i);
+        }
+        Mem.store(string("()V"), method + 4 * ENTRY_DESCRIPTOR);
+        Mem.store(array, method + 4 * METHOD_CODE);
+        Mem.store(pool, method + 4 * METHOD_POOL);
+        Mem.store(maxStack, method + 4 * METHOD_MAX_STACK);
+        Mem.store(maxLocals, method + 4 * METHOD_MAX_LOCALS);
+        Mem.store(method, frame + 4 * FRAME_METHOD);
+        Mem.store(4 * frameWords, frame + 4 * FRAME_SP);
+        Mem.store(frame, thread + 4 * THREAD_FRAME);
+        Mem.store(thread, core + 4 * CORE_RUNNING);
+        Mem.store(next, core + 4 * CORE_NEXT);
+        Reg.reset();
+    }
+
+    /**
+     * Allocate a type in the synthetic heap, which is its own type. The
+     * instance map marks the given fields as pointers, so the one type
+     * can describe every synthetic instance to the collector.
+     * @param pointers the indexes of the pointer fields
+     * @return the type
+     */
+    private static int type(int[] pointers) {
+        int numWords = OBJECT_FIELDS + TYPE_STATIC_MAP + 1;
+        int type = allocate(numWords, HEADER_INSTANCE);
+        int map = allocate(ARRAY_DATA + numWords / 4 + 1, HEADER_DATA_ARRAY);
+        Mem.store(numWords, map + 4 * ARRAY_LENGTH);
+        for (int i = 0; i < pointers.length; i++) {
+            Mem.storeByte(TRUE,
+                    map + 4 * ARRAY_DATA + pointers[i] - OBJECT_FIELDS);
+        }
+        Mem.store(type, type + 4 * OBJECT_TYPE);
+        Mem.store(map, type + 4 * TYPE_INSTANCE_MAP);
+        return type;
+    }
+
+    /**
+     * Allocate a string in the synthetic heap, with its own type
+     * @param value the value of the string
+     * @return the string
+     */
+    private static int string(String value) {
+        int chars = allocate(ARRAY_DATA + (value.length() + 1) / 2,
+                HEADER_DATA_ARRAY);
+        Mem.store(value.length(), chars + 4 * ARRAY_LENGTH);
+        for (int i = 0; i < value.length(); i++) {
+            Mem.storeShort(value.charAt(i), chars + 4 * ARRAY_DATA + 2 * i);
+        }
+        int string = allocate(OBJECT_FIELDS + STRING_HASHCODE + 1,
+                HEADER_INSTANCE);
+        int type = type(new int[] {STRING_CHARS, TYPE_INSTANCE_MAP});
+        Mem.store(type, string + 4 * OBJECT_TYPE);
+        Mem.store(chars, string + 4 * STRING_CHARS);
+        Mem.store(value.length(), string + 4 * STRING_LAST);
+        Mem.store(value.length(), string + 4 * STRING_LENGTH);
+        return string;
+    }
+
+    /**
+     * Allocate an object in the synthetic heap
+     * @param numWords the size of the object in words
+     * @param header the object header
+     * @return the address of the object
+     */
+    private static int allocate(int numWords, int header) {
+        int address = next;
+        next += 4 * numWords;
+        Mem.store(header, address);
+        Mem.store(numWords, address + 4);
+        Mem.store(address, address + 4 * OBJECT_HASHCODE);
+        return address;
+    }
+
+    /**
+     * Print the result of a benchmark
+     * @param name the benchmark name
+     * @param millis the time taken in milliseconds
+     * @param count the number of operations performed
+     * @param units the name of the operations
+     */
+    private static void report(String name, long millis, long count,
+            String units) {
+        long rate = (millis == 0) ? 0 : count / millis;
+        System.out.println(name + ": " + count + " " + units + " in "
+                + millis + "ms (" + rate + " per ms)");
+    }
+
+}
+
+
+
+
+
+
+
+
+
@@ -0,0 +1,79 @@
+/*
+Copyright 2002 Simon Daniel
+email: simon@pjos.org
+
+This file is part of PJOS.
+
+This program is free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+package org.pjos.emulator.engine.implementation;
+
+/**
+ * An inline cache for a single virtual or interface call site.
+ * The receiver types seen at the site are remembered along with the
+ * methods they dispatch to, up to a small limit. Once the limit is
+ * reached the site is treated as megamorphic and the method tables
+ * are used directly.
+ */
+class CallSite implements Constants {
+
+    /** The maximum number of receiver types cached */
+    private static final int SIZE = 4;
+
+    /** The receiver types */
+    private int[] types = new int[SIZE];
+
+    /** The method for each receiver type */
+    private int[] methods = new int[SIZE];
+
+    /** The number of receiver types cached */
+    private int count;
+
+    /**
+     * @param type the receiver type
+     * @return the cached method for the type, or NULL if not cached
+     */
+    int get(int type) {
+        for (int i = 0; i < count; i++) {
+            if (types[i] == type) { return methods[i]; }
+        }
+        return NULL;
+    }
+
+    /**
+     * Cache the method for the given receiver type, if there is room
+     * @param type the receiver type
+     * @param method the method
+     */
+    void put(int type, int method) {
+        if (count < SIZE) {
+            types[count] = type;
+            methods[count] = method;
+            count++;
+            Decoder.refer(type);
+            Decoder.refer(method);
+        }
+    }
+
+}
+
+
+
+
+
+
+
+
+
@@ -27,10 +27,10 @@ class Cast implements Constants {
 
     /**
      * instanceof instruction
+     * @param index the constant pool index
      */
-    static void op_instanceof() {
+    static void op_instanceof(int index) {
         // read args
-        int index = Instruction.twoByteCodes(1);
         int entry = Mem.load(Reg.pool + 4 * index);
         int objectAddress = Stack.popPointer();
 
@@ -48,10 +48,10 @@ class Cast implements Constants {
     
     /**
      * checkcast instruction
+     * @param index the constant pool index
      */
-    static void checkcast() {
+    static void checkcast(int index) {
         // read args
-        int index = Instruction.twoByteCodes(1);
         int entry = Mem.load(Reg.pool + 4 * index);
         int objectAddress = Stack.peekPointer(0);
 
@@ -0,0 +1,169 @@
+/*
+Copyright 2002 Simon Daniel
+email: simon@pjos.org
+
+This file is part of PJOS.
+
+This program is free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+package org.pjos.emulator.engine.implementation;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.pjos.emulator.engine.Engine;
+
+/**
+ * Measures time slices and guest time. Each thread runs for a quantum of
+ * instructions before the next thread is scheduled, so the same program
+ * switches threads at the same points on every run, however fast or
+ * slow the host is. Compiled code counts each instruction it executes,
+ * and may run past the end of a time slice by the length of a method.
+ *
+ * Guest time is either the host time, or with the virtual clock, the
+ * number of instructions executed since the last reset divided by a
+ * fixed rate. Then a run does not depend on the host at all, apart from
+ * keyboard input.
+ */
+class Clock implements Constants {
+
+    /** The number of instructions in a virtual millisecond */
+    static final int INSTRUCTIONS_PER_MILLISECOND = 10000;
+    
+    /** The number of instructions in a time slice */
+    private static int quantum = Engine.DEFAULT_QUANTUM;
+    
+    /** The instructions left in the current time slice */
+    static int remaining = Engine.DEFAULT_QUANTUM;
+    
+    /** Set if guest time is derived from the instruction count */
+    private static boolean virtual = false;
+    
+    /** The instructions executed before the current time slice */
+    private static long executed = 0;
+    
+    /**
+     * Don't allow instantiation!
+     */
+    private Clock() {
+        // should never be called
+        throw new IllegalStateException();
+    }
+    
+    /**
+     * Reset the clock, to measure time from zero if it is virtual
+     * @param virtual true for a virtual clock
+     */
+    static void reset(boolean virtual) {
+        Clock.virtual = virtual;
+        executed = 0;
+        remaining = quantum;
+    }
+    
+    /**
+     * Set the number of instructions in a time slice, starting a new one
+     * @param quantum the number of instructions
+     */
+    static void setQuantum(int quantum) {
+        slice();
+        Clock.quantum = quantum;
+        remaining = quantum;
+    }
+    
+    /**
+     * @return the number of instructions in a time slice
+     */
+    static int getQuantum() {
+        return quantum;
+    }
+    
+    /**
+     * @return true if guest time is derived from the instruction count
+     */
+    static boolean isVirtual() {
+        return virtual;
+    }
+    
+    /**
+     * End the time slice after the next instruction
+     */
+    static void endSlice() {
+        executed -= remaining - 1;
+        remaining = 1;
+    }
+    
+    /**
+     * Move the virtual clock forward to the given time, as if the
+     * instructions in between had been executed
+     * @param millis the time in milliseconds
+     */
+    static void skipTo(long millis) {
+        long target = millis * INSTRUCTIONS_PER_MILLISECOND;
+        long now = executed + quantum - remaining;
+        if (target > now) { executed += target - now; }
+    }
+    
+    /**
+     * Start a new time slice
+     */
+    static void slice() {
+        executed += quantum - remaining;
+        remaining = quantum;
+    }
+    
+    /**
+     * @return the guest time in milliseconds
+     */
+    static long now() {
+        if (!virtual) { return System.currentTimeMillis(); }
+        return (executed + quantum - remaining) / INSTRUCTIONS_PER_MILLISECOND;
+    }
+    
+    /**
+     * Write the clock to a snapshot
+     * @param out the snapshot
+     * @throws IOException if an error occurs
+     */
+    static void write(DataOutputStream out) throws IOException {
+        out.writeBoolean(virtual);
+        out.writeLong(executed);
+        out.writeInt(quantum);
+        out.writeInt(remaining);
+    }
+    
+    /**
+     * Read the clock from a snapshot
+     * @param in the snapshot
+     * @param restore true to restore what is read, false to only check it
+     * @throws IOException if an error occurs
+     */
+    static void read(DataInputStream in, boolean restore) throws IOException {
+        boolean isVirtual = in.readBoolean();
+        long before = in.readLong();
+        int slice = in.readInt();
+        int left = in.readInt();
+        if (slice <= 0 || left > slice) {
+            throw new IOException("Invalid time slice: " + slice);
+        }
+        if (restore) {
+            virtual = isVirtual;
+            executed = before;
+            quantum = slice;
+            remaining = left;
+        }
+    }
+    
+}
@@ -0,0 +1,130 @@
+/*
+Copyright 2002 Simon Daniel
+email: simon@pjos.org
+
+This file is part of PJOS.
+
+This program is free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+package org.pjos.emulator.engine.implementation;
+
+/**
+ * The pre-decoded form of the byte code of a single method. Each
+ * array is indexed by program counter, so branch offsets and return
+ * addresses carry over unchanged from the original byte code.
+ *
+ * Field and invoke instructions are replaced by quick forms once their
+ * constant pool entries are resolved. The operands of a quick form are
+ * the resolved values, so the entry need not be read again.
+ *
+ * The entry points are the first instruction and the targets of
+ * backward branches. Hot methods are compiled, and compiled code is
+ * only entered at these points.
+ */
+class Code {
+
+    /** Marks a program counter which is not the start of an instruction */
+    static final int NONE = -1;
+
+    /** Added to an operation to give its quick form */
+    static final int QUICK = 0x100;
+
+    /** The method this code belongs to */
+    final int method;
+
+    /** The address of the first byte code */
+    final int start;
+
+    /** The operation at each program counter */
+    final int[] ops;
+
+    /** The first operand at each program counter */
+    final int[] args;
+
+    /** The second operand at each program counter */
+    final int[] args2;
+
+    /** Set at each entry point for compiled code */
+    final boolean[] entries;
+
+    /** The number of times entry points have been reached */
+    int heat;
+
+    /** The compiled form of the method (null until compiled) */
+    Compiled compiled;
+
+    /** Set if the method cannot be compiled */
+    boolean failed;
+
+    /** The inline cache at each call site (created when first used) */
+    private CallSite[] sites;
+
+    /**
+     * Create an empty decoded form for the given method
+     * @param method the method
+     * @param start the address of the first byte code
+     * @param length the number of byte codes
+     */
+    Code(int method, int start, int length) {
+        this.method = method;
+        this.start = start;
+        this.ops = new int[length];
+        this.args = new int[length];
+        this.args2 = new int[length];
+        this.entries = new boolean[length];
+        for (int i = 0; i < length; i++) {
+            ops[i] = NONE;
+        }
+    }
+
+    /**
+     * Replace the instruction at the given program counter with its
+     * quick form, which takes the given resolved operands
+     * @param pc the program counter
+     * @param arg the first operand
+     * @param arg2 the second operand
+     */
+    void quicken(int pc, int arg, int arg2) {
+        args[pc] = arg;
+        args2[pc] = arg2;
+        ops[pc] |= QUICK;
+    }
+
+    /**
+     * Return the inline cache for the call site at the given program
+     * counter, creating it if necessary
+     * @param pc the program counter
+     * @return the inline cache
+     */
+    CallSite site(int pc) {
+        if (sites == null) { sites = new CallSite[ops.length]; }
+        CallSite site = sites[pc];
+        if (site == null) {
+            site = new CallSite();
+            sites[pc] = site;
+        }
+        return site;
+    }
+
+}
+
+
+
+
+
+
+
+
+
@@ -20,85 +20,529 @@ Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
 */
 package org.pjos.emulator.engine.implementation;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import java.util.Arrays;
+
+import org.pjos.emulator.engine.Engine;
+
 /**
- * Contains code for garbage collection
+ * Contains code for garbage collection. A full collection copies all the
+ * live objects from one semispace to the other. When the generational
+ * collector is used, new objects are allocated in a separate nursery,
+ * and a minor collection copies only the live nursery objects, which
+ * are promoted to the end of the current space. The roots of a minor
+ * collection are the objects in the cards marked since the last
+ * collection, so its cost does not depend on the size of the space.
+ *
+ * When the mark-compact collector is used there is a single space
+ * covering all of memory below the stack segments, and a full collection
+ * slides the live objects to the start of it instead of copying them.
+ *
+ * The frames in the stack segments never move, and are scanned as roots
+ * by every collection. Frame slots carry no type tags, so the pointers in
+ * a frame are found from the stack map of its method.
  */
 class Collector implements Constants {
 
+    /** The number of bytes in a card */
+    private static final int CARD = 1 << Mem.CARD_SHIFT;
+    
+    /** Check action: evacuate the target object */
+    private static final int EVACUATE = 0;
+    
+    /** Check action: mark the target object and record the pointer */
+    private static final int MARK = 1;
+    
+    /** Set if the generational collector is used */
+    static boolean generational = false;
+    
+    /** Set if the mark-compact collector is used */
+    private static boolean compact = false;
+    
+    /**
+     * The object covering the first address of each card in the current
+     * space. This is where the search for objects in a marked card starts.
+     */
+    private static int[] starts = new int[0];
+    
     /** The from space */
     private static int fromSpace;
     
+    /** Set during a minor collection, when only nursery objects move */
+    private static boolean minor;
+    
     /** The next pointer */
     private static int next;
     
     /** The scan pointer */
     private static int scan;
     
+    /** The address of the first pointer checked in the scan object */
+    private static int low;
+    
+    /** The address after the last pointer checked in the scan object */
+    private static int high;
+    
     /** The number of objects evacuated so far */
     private static int count;
     
+    /** The action taken for each pointer checked */
+    private static int action = EVACUATE;
+    
+    /** The mark bits, one for each word of memory */
+    private static int[] marks = new int[0];
+    
+    /** The marked objects which have not been scanned yet */
+    private static int[] stack = new int[1024];
+    
+    /** The number of objects on the mark stack */
+    private static int depth;
+    
+    /** The addresses of the pointers in the marked objects */
+    private static int[] pointers = new int[1024];
+    
+    /** The number of pointers recorded */
+    private static int pointerCount;
+    
+    /** The original headers of the live objects, in address order */
+    private static int[] headers = new int[1024];
+    
+    /** The sizes of the live objects, in address order */
+    private static int[] sizes = new int[1024];
+    
+    /**
+     * Reset the collector after a new image has been loaded. The objects
+     * in the image are recorded in the card start table.
+     * @param collector the collector mode
+     */
+    static synchronized void reset(int collector) {
+        generational = (collector == Engine.COLLECTOR_GENERATIONAL);
+        compact = (collector == Engine.COLLECTOR_MARK_COMPACT);
+        Mem.markCards(generational);
+        Allocate.nurseryNext = Mem.nursery;
+        Allocate.space = compact ? Mem.stacks - Mem.OFFSET : Mem.limit;
+        Segments.reset();
+        if (starts.length != Mem.cards.length) {
+            starts = new int[Mem.cards.length];
+        }
+        int end = Mem.load(Reg.core + 4 * CORE_NEXT);
+        for (int address = Reg.core; address < end; ) {
+            int numBytes = Mem.load(address + 4) * 4;
+            if (numBytes <= 0) {
+                throw new IllegalStateException("Invalid object size at 0x"
+                        + Integer.toHexString(address));
+            }
+            record(address, numBytes);
+            address += numBytes;
+        }
+        Arrays.fill(Mem.cards, (byte) FALSE);
+    }
+    
+    /**
+     * Write the collector mode, the allocation state and the card start
+     * table to a snapshot
+     * @param out the snapshot
+     * @throws IOException if an error occurs
+     */
+    static synchronized void write(DataOutputStream out) throws IOException {
+        out.writeBoolean(generational);
+        out.writeBoolean(compact);
+        out.writeInt(Allocate.nurseryNext);
+        out.writeInt(Allocate.space);
+        out.writeInt(starts.length);
+        for (int i = 0; i < starts.length; i++) {
+            out.writeInt(starts[i]);
+        }
+    }
+    
+    /**
+     * Read the collector mode, the allocation state and the card start
+     * table from a snapshot. The memory layout must be restored first.
+     * @param in the snapshot
+     * @param size the memory size in bytes
+     * @param restore true to restore what is read, false to only check it
+     * @throws IOException if an error occurs
+     */
+    static synchronized void read(DataInputStream in, int size,
+            boolean restore) throws IOException {
+        boolean isGenerational = in.readBoolean();
+        boolean isCompact = in.readBoolean();
+        int nurseryNext = in.readInt();
+        int space = in.readInt();
+        int count = in.readInt();
+        if (count != Mem.cardCount(size)) {
+            throw new IOException("Invalid card start table: " + count);
+        }
+        int[] table = new int[count];
+        for (int i = 0; i < count; i++) {
+            table[i] = in.readInt();
+        }
+        if (restore) {
+            generational = isGenerational;
+            compact = isCompact;
+            Mem.markCards(generational);
+            Allocate.nurseryNext = nurseryNext;
+            Allocate.space = space;
+            starts = table;
+        }
+    }
+    
     /**
-     * Collect garbage. This copies all the live objects from one
-     * semispace to the other.
+     * Record an object placed in the current space, so that it can be
+     * found when scanning the cards it covers
+     * @param address the object address
+     * @param numBytes the object size in bytes
+     */
+    static void record(int address, int numBytes) {
+        int first = (address + CARD - 1) >>> Mem.CARD_SHIFT;
+        int last = (address + numBytes - 1) >>> Mem.CARD_SHIFT;
+        for (int card = first; card <= last; card++) {
+            starts[card] = address;
+        }
+    }
+    
+    /**
+     * @param address the object address
+     * @return true if the object is in the nursery
+     */
+    static boolean isYoung(int address) {
+        return generational && address >= Mem.nursery
+                && address < Mem.nursery + Mem.nurserySize;
+    }
+    
+    /**
+     * Collect garbage. This copies all the live objects from the current
+     * semispace and the nursery to the other semispace.
      */
     static synchronized void gc() {
-        // save register values
-        Mem.store(Reg.instruction - Reg.code, Reg.frame + 4 * FRAME_PC);
-        Mem.store(Reg.stack - Reg.frame, Reg.frame + 4 * FRAME_SP);
+        if (compact) {
+            compact();
+            return;
+        }
+        saveRegisters();
         
         // flip spaces so core reg now points to new space
         fromSpace = Reg.core;
         Reg.core = (Reg.core == Mem.OFFSET)
-                ? Mem.OFFSET + Mem.LIMIT
+                ? Mem.OFFSET + Mem.limit
                 : Mem.OFFSET;
 
-        // set next and scan pointers
+        // set next pointer
         next =  Reg.core;
-        scan = next;
         
-        // scan live object tree starting with the core object
-        // until all live objects have been evacuated
-        // (ie. until scan pointer catches up to next pointer)
+        // scan live object tree starting with the core object and the
+        // stack segments until all live objects have been evacuated
+        minor = false;
         evacuate(fromSpace);
+        scanSegments();
         count = 0; // reset count
-        while (scan < next) {
-            // check the lock and type
-            check(OBJECT_LOCK);
-            check(OBJECT_TYPE);
-
-            // Check all other references in the object
-            int header = Mem.load(scan);
-            switch (header) {
-                case HEADER_INSTANCE:           checkInstanceFields();  break;
-                case HEADER_DATA_ARRAY:                                 break;
-                case HEADER_OBJECT_ARRAY:       checkObjectArray();     break;
-                case HEADER_STATIC_FIELDS:      checkStaticFields();    break;
-                case HEADER_STACK_FRAME:        checkStackFrame();      break;
+        scan = Reg.core;
+        scanObjects();
+
+        // write the address of the next free space to core object
+        Mem.store(next, Reg.core + 4 * CORE_NEXT);
+        Allocate.nurseryNext = Mem.nursery;
+
+        // debug report
+        System.out.println("Garbage collected: " + count
+                + " objects evacuated, " + Allocate.used() + "% used");
+        
+        // decoded code, method tables, stack maps, the profilers and the
+        // sleep queue index are keyed by the old addresses
+        Decoder.flush();
+        Dispatch.flush();
+        StackMaps.flush();
+        Profiler.flush();
+        Sampler.flush();
+        Sleep.flush();
+        restoreRegisters();
+    }
+    
+    /**
+     * Collect the nursery. The live nursery objects are promoted to the
+     * end of the current space. If the current space might not have room
+     * for them, a full collection is done instead.
+     */
+    static synchronized void minor() {
+        if (Allocate.free() <= Allocate.nurseryUsed()) {
+            gc();
+            return;
+        }
+        saveRegisters();
+        
+        // promoted objects are placed after the existing objects
+        int end = Mem.load(Reg.core + 4 * CORE_NEXT);
+        next = end;
+        minor = true;
+        count = 0;
+        
+        // evacuate the nursery objects referred to from marked cards and
+        // the stack segments, then the objects referred to from the
+        // promoted objects
+        scanCards(end);
+        scanSegments();
+        scan = end;
+        scanObjects();
+        minor = false;
+        
+        // write the address of the next free space to core object
+        Mem.store(next, Reg.core + 4 * CORE_NEXT);
+        Allocate.nurseryNext = Mem.nursery;
+
+        // debug report, only in debug mode since these are frequent
+        if (Debug.debug) {
+            System.out.println("Minor collection: " + count
+                    + " objects promoted, " + Allocate.used() + "% used");
+        }
+        
+        // only code, tables and stack maps referring to the nursery are
+        // affected, but the profilers and the sleep queue index may hold
+        // any nursery address
+        Decoder.flushYoung();
+        Dispatch.flushYoung();
+        StackMaps.flushYoung();
+        Profiler.flush();
+        Sampler.flush();
+        Sleep.flush();
+        restoreRegisters();
+    }
+    
+    /**
+     * Collect garbage by sliding all the live objects to the start of the
+     * space. The live objects are marked, recording the address of each
+     * pointer found. Each live object is then given a forwarding header
+     * and pointer holding its new address, after saving its header and
+     * size. Finally the pointers are updated and the objects are moved,
+     * restoring their headers and sizes.
+     */
+    private static void compact() {
+        saveRegisters();
+        int end = Mem.load(Reg.core + 4 * CORE_NEXT);
+        
+        // mark the live object tree starting with the core object
+        // and the stack segments
+        if (marks.length != (Mem.size >> 7) + 1) {
+            marks = new int[(Mem.size >> 7) + 1];
+        }
+        Arrays.fill(marks, 0);
+        pointerCount = 0;
+        action = MARK;
+        mark(Reg.core);
+        scanSegments();
+        while (depth > 0) {
+            scan = stack[--depth];
+            low = scan;
+            high = scan + Mem.load(scan + 4) * 4;
+            scanObject();
+        }
+        action = EVACUATE;
+        
+        // find the new location of each live object
+        int free = Reg.core;
+        count = 0;
+        for (int address = Reg.core; address < end; ) {
+            int numWords = Mem.load(address + 4);
+            if (isMarked(address)) {
+                if (count == sizes.length) {
+                    headers = grow(headers);
+                    sizes = grow(sizes);
+                }
+                headers[count] = Mem.load(address);
+                sizes[count] = numWords;
+                count++;
+                Mem.store(HEADER_FORWARD, address);
+                Mem.store(free, address + 4);
+                free += numWords * 4;
             }
+            address += numWords * 4;
+        }
+        
+        // update the pointers to the new locations
+        for (int i = 0; i < pointerCount; i++) {
+            int target = Mem.load(pointers[i]);
+            Mem.store(Mem.load(target + 4), pointers[i]);
+        }
         
-            // set scan to next object
-            int numWords = Mem.load(scan + 4);
-            scan += numWords * 4;
+        // move the objects, which never overwrites one not yet moved
+        int index = 0;
+        for (int address = Reg.core; address < end; ) {
+            if (isMarked(address)) {
+                int numWords = sizes[index];
+                int location = Mem.load(address + 4);
+                for (int i = 8; i < numWords * 4; i += 4) {
+                    Mem.store(Mem.load(address + i), location + i);
+                }
+                Mem.store(headers[index], location);
+                Mem.store(numWords, location + 4);
+                record(location, numWords * 4);
+                index++;
+                address += numWords * 4;
+            } else {
+                address += Mem.load(address + 4) * 4;
+            }
         }
 
         // write the address of the next free space to core object
-        Mem.store(next, Reg.core + 4 * CORE_NEXT);
+        Mem.store(free, Reg.core + 4 * CORE_NEXT);
 
         // debug report
         System.out.println("Garbage collected: " + count
-                + " objects evacuated, " + Allocate.used() + "% used");
+                + " objects kept, " + Allocate.used() + "% used");
         
-        // reload registers for new memory space
+        // decoded code, method tables, stack maps, the profilers and the
+        // sleep queue index are keyed by the old addresses
+        Decoder.flush();
+        Dispatch.flush();
+        StackMaps.flush();
+        Profiler.flush();
+        Sampler.flush();
+        Sleep.flush();
+        restoreRegisters();
+    }
+    
+    /**
+     * Mark an object and push it on the mark stack to be scanned
+     * @param address the object address
+     */
+    private static void mark(int address) {
+        marks[address >>> 7] |= 1 << ((address >>> 2) & 31);
+        if (depth == stack.length) { stack = grow(stack); }
+        stack[depth++] = address;
+    }
+    
+    /**
+     * @param address the object address
+     * @return true if the object is marked
+     */
+    private static boolean isMarked(int address) {
+        return (marks[address >>> 7] & (1 << ((address >>> 2) & 31))) != 0;
+    }
+    
+    /**
+     * @param array an array
+     * @return a copy of the array with twice the length
+     */
+    private static int[] grow(int[] array) {
+        int[] result = new int[array.length * 2];
+        System.arraycopy(array, 0, result, 0, array.length);
+        return result;
+    }
+    
+    /**
+     * Save the register values which are relative to the frame
+     */
+    private static void saveRegisters() {
+        Mem.store(Reg.instruction - Reg.code, Reg.frame + 4 * FRAME_PC);
+        Mem.store(Reg.stack - Reg.frame, Reg.frame + 4 * FRAME_SP);
+    }
+    
+    /**
+     * Clear the card table, which holds no old to young pointers after
+     * a collection, and reload the registers
+     */
+    private static void restoreRegisters() {
+        Arrays.fill(Mem.cards, (byte) FALSE);
         Reg.thread = Mem.load(Reg.core + 4 * CORE_RUNNING);
         Reg.load();
     }
     
+    /**
+     * Check the pointers in the marked cards of the current space
+     * @param end the end of the objects to be checked
+     */
+    private static void scanCards(int end) {
+        int first = Reg.core >>> Mem.CARD_SHIFT;
+        int last = (end - 1) >>> Mem.CARD_SHIFT;
+        for (int card = first; card <= last; card++) {
+            if (Mem.cards[card] == FALSE) { continue; }
+            
+            // check the objects overlapping the card, but only the
+            // pointers within it
+            int cardStart = card << Mem.CARD_SHIFT;
+            int cardEnd = cardStart + CARD;
+            int object = (cardStart <= Reg.core) ? Reg.core : starts[card];
+            while (object < cardEnd && object < end) {
+                scan = object;
+                low = cardStart;
+                high = cardEnd;
+                scanObject();
+                object += Mem.load(object + 4) * 4;
+            }
+        }
+    }
+    
+    /**
+     * Check the pointers in the frames in the stack segments
+     */
+    private static void scanSegments() {
+        for (int i = 0; i < Segments.tops.length; i++) {
+            int top = Segments.tops[i];
+            for (scan = Segments.start(i); scan < top; scan = high) {
+                low = scan;
+                high = scan + Mem.load(scan + 4) * 4;
+                scanObject();
+            }
+        }
+    }
+    
+    /**
+     * Check the pointers in all the evacuated objects, until the scan
+     * pointer catches up with the next pointer
+     */
+    private static void scanObjects() {
+        while (scan < next) {
+            int numBytes = Mem.load(scan + 4) * 4;
+            low = scan;
+            high = scan + numBytes;
+            scanObject();
+            scan += numBytes;
+        }
+    }
+    
+    /**
+     * Check the pointers in the current scan object
+     */
+    private static void scanObject() {
+        // check the lock and type
+        check(OBJECT_LOCK);
+        check(OBJECT_TYPE);
+
+        // Check all other references in the object
+        int header = Mem.load(scan);
+        switch (header) {
+            case HEADER_INSTANCE:           checkInstanceFields();  break;
+            case HEADER_DATA_ARRAY:                                 break;
+            case HEADER_OBJECT_ARRAY:       checkObjectArray();     break;
+            case HEADER_STATIC_FIELDS:      checkStaticFields();    break;
+            case HEADER_STACK_FRAME:        checkStackFrame();      break;
+        }
+    }
+    
+    /**
+     * @param index the index of the first pointer in the scan object
+     * @return the index of the first pointer which need be checked
+     */
+    private static int first(int index) {
+        return java.lang.Math.max(index, (low - scan) >> 2);
+    }
+    
+    /**
+     * @param numWords the size of the scan object in words
+     * @return the index after the last pointer which need be checked
+     */
+    private static int last(int numWords) {
+        return java.lang.Math.min(numWords, (high - scan) >> 2);
+    }
+    
     /**
      * Check the reference values in an object array
      */
     private static void checkObjectArray() {
-        int numWords = Mem.load(scan + 4);
-        for (int i = ARRAY_DATA; i < numWords; i++) {
+        int numWords = last(Mem.load(scan + 4));
+        for (int i = first(ARRAY_DATA); i < numWords; i++) {
             check(i);
         }
     }
@@ -109,9 +553,10 @@ class Collector implements Constants {
     private static void checkInstanceFields() {
         int type = Mem.load(scan + 4 * OBJECT_TYPE);
         int map = Mem.load(type + 4 * TYPE_INSTANCE_MAP);
-        int nextFlagAddress = map + 4 * ARRAY_DATA;
-        int numWords = Mem.load(scan + 4);
-        for (int i = OBJECT_FIELDS; i < numWords; i++) {
+        int numWords = last(Mem.load(scan + 4));
+        int i = first(OBJECT_FIELDS);
+        int nextFlagAddress = map + 4 * ARRAY_DATA + i - OBJECT_FIELDS;
+        for (; i < numWords; i++) {
             int flag = Mem.loadByte(nextFlagAddress);
             if (flag == TRUE) { check(i); }
             nextFlagAddress++;
@@ -126,9 +571,10 @@ class Collector implements Constants {
         
         // check field values
         int map = Mem.load(scan + 4 * STATICS_MAP);
-        int nextFlagAddress = map + 4 * ARRAY_DATA;
-        int numWords = Mem.load(scan + 4);
-        for (int i = STATICS_FIELDS; i < numWords; i++) {
+        int numWords = last(Mem.load(scan + 4));
+        int i = first(STATICS_FIELDS);
+        int nextFlagAddress = map + 4 * ARRAY_DATA + i - STATICS_FIELDS;
+        for (; i < numWords; i++) {
             int flag = Mem.loadByte(nextFlagAddress);
             if (flag == TRUE) { check(i); }
             nextFlagAddress++;
@@ -136,17 +582,31 @@ class Collector implements Constants {
     }
     
     /**
-     * Check the fields of a stack frame object
+     * Check the fields of a stack frame object. The locals and stack
+     * entries which hold pointers are found from the stack map of the
+     * method at the saved program counter. A frame which has returned
+     * has a zero stack pointer, and its values are no longer used.
      */
     private static void checkStackFrame() {
+        int method = Mem.load(scan + 4 * FRAME_METHOD);
         check(FRAME_RETURN_FRAME);
         check(FRAME_METHOD);
+        int sp = Mem.load(scan + 4 * FRAME_SP);
+        if (sp == 0) { return; }
 
-        // check tagged values
+        // check the locals and stack entries holding pointers
         int numWords = Mem.load(scan + 4);
-        for (int i = FRAME_LOCALS; i < numWords; i += 2) {
-            int flag = Mem.load(scan + 4 * i + 4);
-            if (flag == TRUE) { check(i); }
+        int depth = numWords - (sp >> 2);
+        int pc = Mem.load(scan + 4 * FRAME_PC);
+        StackMap map = StackMaps.get(method);
+        int[] state = map.state(scan, pc, depth);
+        for (int i = 0; i < map.maxLocals; i++) {
+            if (state[1 + i] == StackMap.REF) { check(FRAME_LOCALS + i); }
+        }
+        for (int i = 0; i < depth; i++) {
+            if (state[1 + map.maxLocals + i] == StackMap.REF) {
+                check(numWords - 1 - i);
+            }
         }
     }
 
@@ -154,12 +614,24 @@ class Collector implements Constants {
      * Check the pointer at the specified index within the current scan object.
      * Evacuate the target object if it has not already been moved evacuated,
      * otherwise just update the pointer value to the new location. Ignore
-     * null pointer values.
+     * null pointer values, pointers outside the checked range, pointers to
+     * frames in the stack segments, which never move, and during a minor
+     * collection pointers to objects outside the nursery. While
+     * marking, mark the target object instead and record the pointer.
      */
     private static void check(int index) {
-        // ignore null values
-        int target = Mem.load(scan + 4 * index);
-        if (target == NULL) { return; }
+        // ignore null values and values outside the range
+        int address = scan + 4 * index;
+        if (address < low || address >= high) { return; }
+        int target = Mem.load(address);
+        if (target == NULL || Segments.contains(target)) { return; }
+        if (minor && !isYoung(target)) { return; }
+        if (action == MARK) {
+            if (pointerCount == pointers.length) { pointers = grow(pointers); }
+            pointers[pointerCount++] = address;
+            if (!isMarked(target)) { mark(target); }
+            return;
+        }
 
         // find the new location of the target object, evacuating if necessary,
         // and update the value in the pointer
@@ -167,7 +639,7 @@ class Collector implements Constants {
         int newLocation = (header == HEADER_FORWARD)
                 ? Mem.load(target + 4)
                 : evacuate(target);
-        Mem.store(newLocation, scan + 4 * index);
+        Mem.store(newLocation, address);
     }
     
     /**
@@ -183,6 +655,9 @@ class Collector implements Constants {
         int result = next;
         int numWords = Mem.load(location + 4);
         int numBytes = numWords * 4;
+        if (result + numBytes > Reg.core + Allocate.space) {
+            throw new IllegalStateException("Out of memory");
+        }
         for (int i = 0; i < numBytes; i += 4) {
             int value = Mem.load(location + i);
             Mem.store(value, result + i);
@@ -194,18 +669,10 @@ class Collector implements Constants {
         
         // set the next pointer to the next available space and increment count
         next += numBytes;
+        record(result, numBytes);
         count++;
         return result;
     }
     
     
-}
-
-
-
-
-
-
-
-
-
+}
\ No newline at end of file
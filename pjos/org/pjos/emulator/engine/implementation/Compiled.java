@@ -0,0 +1,188 @@
+/*
+Copyright 2002 Simon Daniel
+email: simon@pjos.org
+
+This file is part of PJOS.
+
+This program is free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+package org.pjos.emulator.engine.implementation;
+
+/**
+ * The base class of compiled methods. Each compiled method is a host
+ * class generated by the Compiler and loaded by its own class loader,
+ * so this class and the helpers it offers to compiled code must be
+ * public. The helpers read and write the frame of the current method
+ * and the emulated memory.
+ */
+public abstract class Compiled implements Constants {
+
+    /**
+     * The number of instructions after which compiled code exits, at the
+     * next backward branch
+     */
+    public static int budget;
+
+    /**
+     * Create a compiled method
+     */
+    protected Compiled() {
+    }
+
+    /**
+     * Run the compiled method from the given program counter, which
+     * must be an entry point with an empty stack. On return the
+     * instruction and stack registers describe where the interpreter
+     * should carry on.
+     * @param pc the program counter
+     * @return the number of instructions executed (zero if none was run)
+     */
+    public abstract int run(int pc);
+
+    /**
+     * @param index the local variable index
+     * @return the value of the local variable of the current frame
+     */
+    public static int local(int index) {
+        return Mem.load(Reg.locals + 4 * index);
+    }
+
+    /**
+     * Write back a local variable of the current frame
+     * @param value the value
+     * @param index the local variable index
+     */
+    public static void setLocal(int value, int index) {
+        Mem.store(value, Reg.locals + 4 * index);
+    }
+
+    /**
+     * Write back an entry of the operand stack of the current frame
+     * @param value the value
+     * @param depth the number of entries below it
+     */
+    public static void spill(int value, int depth) {
+        Mem.store(value, Stack.max() - 4 * (depth + 1));
+    }
+
+    /**
+     * Leave compiled code, setting the registers so that the
+     * interpreter carries on at the given program counter
+     * @param pc the program counter
+     * @param depth the number of entries on the operand stack
+     */
+    public static void exit(int pc, int depth) {
+        Reg.instruction = Reg.code + pc;
+        Reg.stack = Stack.max() - 4 * depth;
+    }
+
+    /**
+     * @param address the address
+     * @return the word at the address
+     */
+    public static int load(int address) {
+        return Mem.load(address);
+    }
+
+    /**
+     * @param address the address
+     * @param value the word to store at the address
+     */
+    public static void store(int address, int value) {
+        Mem.store(value, address);
+    }
+
+    /**
+     * @param array the array (not null)
+     * @return the length of the array
+     */
+    public static int arraylength(int array) {
+        return Mem.load(array + 4 * ARRAY_LENGTH);
+    }
+
+    /**
+     * @param array the array
+     * @param index the index
+     * @return true if the array is not null and the index is in bounds
+     */
+    public static boolean inBounds(int array, int index) {
+        return array != NULL && index >= 0
+                && index < Mem.load(array + 4 * ARRAY_LENGTH);
+    }
+
+    /**
+     * @param array the array
+     * @param index the index (in bounds)
+     * @return the word element
+     */
+    public static int iaload(int array, int index) {
+        return Mem.load(array + 4 * ARRAY_DATA + 4 * index);
+    }
+
+    /**
+     * @param array the array
+     * @param index the index (in bounds)
+     * @return the sign extended byte element
+     */
+    public static int baload(int array, int index) {
+        return (byte) Mem.loadByte(array + 4 * ARRAY_DATA + index);
+    }
+
+    /**
+     * @param array the array
+     * @param index the index (in bounds)
+     * @return the char element
+     */
+    public static int caload(int array, int index) {
+        return Mem.loadShort(array + 4 * ARRAY_DATA + 2 * index);
+    }
+
+    /**
+     * @param array the array
+     * @param index the index (in bounds)
+     * @return the sign extended short element
+     */
+    public static int saload(int array, int index) {
+        return (short) Mem.loadShort(array + 4 * ARRAY_DATA + 2 * index);
+    }
+
+    /**
+     * @param array the array
+     * @param index the index (in bounds)
+     * @param value the word element
+     */
+    public static void iastore(int array, int index, int value) {
+        Mem.store(value, array + 4 * ARRAY_DATA + 4 * index);
+    }
+
+    /**
+     * @param array the array
+     * @param index the index (in bounds)
+     * @param value the byte element
+     */
+    public static void bastore(int array, int index, int value) {
+        Mem.storeByte(value, array + 4 * ARRAY_DATA + index);
+    }
+
+    /**
+     * @param array the array
+     * @param index the index (in bounds)
+     * @param value the char or short element
+     */
+    public static void castore(int array, int index, int value) {
+        Mem.storeShort(value, array + 4 * ARRAY_DATA + 2 * index);
+    }
+
+}
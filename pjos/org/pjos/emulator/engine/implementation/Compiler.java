@@ -0,0 +1,639 @@
+/*
+Copyright 2002 Simon Daniel
+email: simon@pjos.org
+
+This file is part of PJOS.
+
+This program is free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+package org.pjos.emulator.engine.implementation;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.pjos.common.runtime.Entry;
+import org.pjos.common.runtime.Opcode;
+
+/**
+ * Translates hot methods into host classes. The entry points of a
+ * method (its first instruction and the targets of backward branches)
+ * count how often they are reached, and once a method is hot enough
+ * its byte code is translated into a subclass of Compiled.
+ *
+ * Only simple instructions are translated: constants, locals, stack
+ * shuffles, int arithmetic, branches, array elements and resolved
+ * instance fields. Any other instruction, or a simple one which would
+ * throw, becomes an exit, which writes the locals and stack back to
+ * the frame and returns to the interpreter at that instruction. The
+ * compiled code never holds a heap address across an exit, so it stays
+ * valid when objects move. Methods with the same code share a class,
+ * which is kept when the decoded code is flushed.
+ *
+ * The compiled code counts the instructions it executes, and returns
+ * the count. Backward branches check the count against a budget, and
+ * the compiled code exits when it runs out. This bounds the time between
+ * safepoints.
+ */
+class Compiler implements Constants, Opcode {
+
+    /** The number of times entry points are reached before compiling */
+    static final int THRESHOLD = 1000;
+
+    /** The maximum number of instructions executed on each entry */
+    static final int BUDGET = 10000;
+
+    /** The maximum number of compiled classes kept */
+    private static final int CLASSES = 256;
+
+    /** The name of each compiled class (each has its own loader) */
+    private static final String NAME =
+            "org.pjos.emulator.engine.implementation.CompiledMethod";
+
+    /** The host local holding the first local variable */
+    private static final int FIRST_LOCAL = 2;
+
+    /** The number of classes compiled since the last reset */
+    private static int count;
+
+    /** The compiled methods (String class file to Compiled) */
+    private static HashMap classes = new HashMap();
+
+    /** The decoded code being compiled */
+    private final Code code;
+
+    /** The stack depth before each instruction (-1 if never reached) */
+    private final int[] depths;
+
+    /** The host label of each instruction */
+    private final int[] labels;
+
+    /** The host label of the exit at each instruction (-1 if none) */
+    private final int[] exits;
+
+    /** Code placed after the method body (int arrays, see tail) */
+    private final ArrayList tails = new ArrayList();
+
+    /** The host assembler */
+    private final Assembler asm = new Assembler();
+
+    /** The number of local variables */
+    private final int maxLocals;
+
+    /** The first host local used for temporary values */
+    private final int temp;
+
+    /** The host local counting the instructions executed */
+    private final int executed;
+
+    /**
+     * Run compiled code for the current method, if the program counter
+     * is at an entry point and the method is hot. Afterwards the
+     * interpreter executes the next instruction as usual.
+     * @param limit the number of instructions which may be executed.
+     *     The compiled code stops at the first backward branch after the
+     *     limit, so it may run past it by the length of the method.
+     * @return the number of instructions executed
+     */
+    static int execute(int limit) {
+        Code code = Decoder.get();
+        int pc = Reg.instruction - Reg.code;
+        if (!code.entries[pc]) { return 0; }
+        Compiled compiled = code.compiled;
+        if (compiled == null) {
+            if (code.failed || ++code.heat < THRESHOLD) { return 0; }
+            compiled = compile(code);
+            if (compiled == null) {
+                code.failed = true;
+                return 0;
+            }
+            code.compiled = compiled;
+        }
+        if (limit <= 0) { return 0; }
+        Compiled.budget = java.lang.Math.min(limit, BUDGET);
+        return compiled.run(pc);
+    }
+
+    /**
+     * @return the number of classes compiled since the last reset
+     */
+    static int count() {
+        return count;
+    }
+
+    /**
+     * Discard all compiled classes
+     */
+    static void reset() {
+        classes.clear();
+        count = 0;
+    }
+
+    /**
+     * Compile the given code, which belongs to the current method
+     * @param code the decoded code
+     * @return the compiled method, or null if it cannot be compiled
+     */
+    private static Compiled compile(Code code) {
+        byte[] bytes;
+        try {
+            bytes = new Compiler(code).translate(NAME.replace('.', '/'));
+        } catch (IllegalStateException e) {
+            return null; // interpret the method instead
+        }
+        char[] chars = new char[bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i] = (char) (bytes[i] & 0xff);
+        }
+        String key = new String(chars);
+        Compiled compiled = (Compiled) classes.get(key);
+        if (compiled != null) { return compiled; }
+        if (classes.size() == CLASSES) { classes.clear(); }
+        try {
+            Class type = new Loader().define(NAME, bytes);
+            compiled = (Compiled) type.newInstance();
+            classes.put(key, compiled);
+            count++;
+            return compiled;
+        } catch (InstantiationException e) {
+            throw new IllegalStateException(e.toString());
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e.toString());
+        }
+    }
+
+    /**
+     * Create a compiler for the given code
+     * @param code the decoded code
+     */
+    private Compiler(Code code) {
+        this.code = code;
+        StackMap map = StackMaps.get(code.method);
+        int length = code.ops.length;
+        maxLocals = map.maxLocals;
+        temp = FIRST_LOCAL + maxLocals;
+        executed = temp + 2;
+        depths = new int[length];
+        labels = new int[length];
+        exits = new int[length];
+        for (int pc = 0; pc < length; pc++) {
+            int[][] states = map.states[pc];
+            depths[pc] = -1;
+            exits[pc] = -1;
+            if (states == null) { continue; }
+            depths[pc] = states[0][0];
+            for (int i = 1; i < states.length; i++) {
+                if (states[i][0] != depths[pc]) {
+                    throw new IllegalStateException("Stack depths differ");
+                }
+            }
+            labels[pc] = asm.label();
+        }
+    }
+
+    /**
+     * Translate the code into a host class
+     * @param name the internal name of the class
+     * @return the class file
+     */
+    private byte[] translate(String name) {
+        // start counting, and load the locals
+        asm.op(ICONST_0);
+        asm.local(ISTORE, executed);
+        for (int i = 0; i < maxLocals; i++) {
+            asm.push(i);
+            asm.call("local", "(I)I");
+            asm.local(ISTORE, FIRST_LOCAL + i);
+        }
+
+        // jump to the entry point (or return at once if there is none)
+        int length = code.ops.length;
+        int pairs = 0;
+        for (int pc = 0; pc < length; pc++) {
+            if (isEntry(pc)) { pairs++; }
+        }
+        int none = asm.label();
+        asm.op(ILOAD_1);
+        int start = asm.offset();
+        asm.op(LOOKUPSWITCH);
+        while (asm.offset() % 4 != 0) { asm.op(0); }
+        asm.switchOffset(start, none);
+        asm.op4(pairs);
+        for (int pc = 0; pc < length; pc++) {
+            if (isEntry(pc)) {
+                asm.op4(pc);
+                asm.switchOffset(start, labels[pc]);
+            }
+        }
+        asm.mark(none);
+        asm.op(ICONST_0);
+        asm.op(IRETURN);
+
+        // translate each reachable instruction
+        for (int pc = 0; pc < length; pc++) {
+            if (depths[pc] < 0) { continue; }
+            asm.mark(labels[pc]);
+            translate(pc);
+        }
+
+        // the code after the body, then the exits it uses
+        for (int i = 0; i < tails.size(); i++) {
+            int[] tail = (int[]) tails.get(i);
+            asm.mark(tail[0]);
+            if (tail[1] < 0) {
+                // budget check before a backward branch
+                asm.local(ILOAD, executed);
+                asm.field(GETSTATIC, "budget");
+                asm.branch(IF_ICMPGE, exit(tail[2]));
+                asm.branch(GOTO, labels[tail[2]]);
+            } else {
+                // values held in temporaries before an exit
+                for (int j = 0; j < tail[1]; j++) {
+                    asm.local(ILOAD, temp + j);
+                }
+                asm.branch(GOTO, exit(tail[2]));
+            }
+        }
+        for (int pc = 0; pc < length; pc++) {
+            if (exits[pc] < 0) { continue; }
+            asm.mark(exits[pc]);
+            for (int depth = depths[pc] - 1; depth >= 0; depth--) {
+                asm.push(depth);
+                asm.call("spill", "(II)V");
+            }
+            for (int i = 0; i < maxLocals; i++) {
+                asm.local(ILOAD, FIRST_LOCAL + i);
+                asm.push(i);
+                asm.call("setLocal", "(II)V");
+            }
+            asm.push(pc);
+            asm.push(depths[pc]);
+            asm.call("exit", "(II)V");
+            asm.local(ILOAD, executed);
+            asm.op(IRETURN);
+        }
+
+        int maxStack = Mem.load(code.method + 4 * METHOD_MAX_STACK);
+        return asm.toClass(name, maxStack + 4, executed + 1);
+    }
+
+    /**
+     * @param pc the program counter
+     * @return true if compiled code may be entered at the program counter
+     */
+    private boolean isEntry(int pc) {
+        return code.entries[pc] && depths[pc] == 0;
+    }
+
+    /**
+     * Translate a single instruction, counting it once it is complete.
+     * Branches count themselves, and exits are not counted, since the
+     * interpreter executes the instruction.
+     * @param pc the program counter
+     */
+    private void translate(int pc) {
+        int op = code.ops[pc];
+        int arg = code.args[pc];
+        switch (op) {
+            case NOP:
+                break;
+            case ACONST_NULL:
+                asm.op(ICONST_0);
+                break;
+            case ICONST_M1: case ICONST_0: case ICONST_1: case ICONST_2:
+            case ICONST_3: case ICONST_4: case ICONST_5:
+                asm.op(op);
+                break;
+            case LCONST_0: case LCONST_1:
+                asm.op(ICONST_0);
+                asm.push(op - LCONST_0);
+                break;
+            case FCONST_0: case FCONST_1: case FCONST_2:
+                asm.push(Float.floatToIntBits(op - FCONST_0));
+                break;
+            case BIPUSH: case SIPUSH:
+                asm.push(arg);
+                break;
+            case LDC: case LDC_W:
+                ldc(pc, arg);
+                break;
+            case LDC2_W:
+                int entry = Mem.load(Reg.pool + 4 * arg);
+                asm.push(Mem.load(entry + 4 * CONSTANT_FIRST));
+                asm.push(Mem.load(entry + 4 * CONSTANT_SECOND));
+                break;
+            case ILOAD: case FLOAD: case ALOAD:
+                asm.local(ILOAD, FIRST_LOCAL + arg);
+                break;
+            case LLOAD: case DLOAD:
+                asm.local(ILOAD, FIRST_LOCAL + arg);
+                asm.local(ILOAD, FIRST_LOCAL + arg + 1);
+                break;
+            case ISTORE: case FSTORE: case ASTORE:
+                asm.local(ISTORE, FIRST_LOCAL + arg);
+                break;
+            case LSTORE: case DSTORE:
+                asm.local(ISTORE, FIRST_LOCAL + arg + 1);
+                asm.local(ISTORE, FIRST_LOCAL + arg);
+                break;
+            case ILOAD_0: case ILOAD_1: case ILOAD_2: case ILOAD_3:
+                asm.local(ILOAD, FIRST_LOCAL + op - ILOAD_0);
+                break;
+            case FLOAD_0: case FLOAD_1: case FLOAD_2: case FLOAD_3:
+                asm.local(ILOAD, FIRST_LOCAL + op - FLOAD_0);
+                break;
+            case ALOAD_0: case ALOAD_1: case ALOAD_2: case ALOAD_3:
+                asm.local(ILOAD, FIRST_LOCAL + op - ALOAD_0);
+                break;
+            case LLOAD_0: case LLOAD_1: case LLOAD_2: case LLOAD_3:
+                asm.local(ILOAD, FIRST_LOCAL + op - LLOAD_0);
+                asm.local(ILOAD, FIRST_LOCAL + op - LLOAD_0 + 1);
+                break;
+            case ISTORE_0: case ISTORE_1: case ISTORE_2: case ISTORE_3:
+                asm.local(ISTORE, FIRST_LOCAL + op - ISTORE_0);
+                break;
+            case FSTORE_0: case FSTORE_1: case FSTORE_2: case FSTORE_3:
+                asm.local(ISTORE, FIRST_LOCAL + op - FSTORE_0);
+                break;
+            case ASTORE_0: case ASTORE_1: case ASTORE_2: case ASTORE_3:
+                asm.local(ISTORE, FIRST_LOCAL + op - ASTORE_0);
+                break;
+            case LSTORE_0: case LSTORE_1: case LSTORE_2: case LSTORE_3:
+                asm.local(ISTORE, FIRST_LOCAL + op - LSTORE_0 + 1);
+                asm.local(ISTORE, FIRST_LOCAL + op - LSTORE_0);
+                break;
+            case WIDE:
+                if (!wide(pc)) { return; }
+                break;
+            case IALOAD: case FALOAD: case AALOAD:
+                arrayLoad(pc, "iaload");
+                break;
+            case BALOAD:
+                arrayLoad(pc, "baload");
+                break;
+            case CALOAD:
+                arrayLoad(pc, "caload");
+                break;
+            case SALOAD:
+                arrayLoad(pc, "saload");
+                break;
+            case IASTORE: case FASTORE:
+                arrayStore(pc, "iastore");
+                break;
+            case BASTORE:
+                arrayStore(pc, "bastore");
+                break;
+            case CASTORE: case SASTORE:
+                arrayStore(pc, "castore");
+                break;
+            case ARRAYLENGTH:
+                asm.op(DUP);
+                asm.branch(IFEQ, exit(pc));
+                asm.call("arraylength", "(I)I");
+                break;
+            case POP: case POP2: case DUP: case DUP_X1: case DUP_X2:
+            case DUP2: case DUP2_X1: case DUP2_X2: case SWAP:
+            case IADD: case ISUB: case IMUL: case INEG: case ISHL:
+            case ISHR: case IUSHR: case IAND: case IOR: case IXOR:
+            case I2B: case I2C: case I2S:
+                asm.op(op);
+                break;
+            case IDIV: case IREM:
+                asm.op(DUP);
+                asm.branch(IFEQ, exit(pc));
+                asm.op(op);
+                break;
+            case IINC:
+                asm.iinc(FIRST_LOCAL + arg, code.args2[pc]);
+                break;
+            case IFEQ: case IFNE: case IFLT: case IFGE: case IFGT: case IFLE:
+            case IF_ICMPEQ: case IF_ICMPNE: case IF_ICMPLT: case IF_ICMPGE:
+            case IF_ICMPGT: case IF_ICMPLE: case GOTO:
+                branch(op, pc, pc + arg);
+                return;
+            case IF_ACMPEQ:
+                branch(IF_ICMPEQ, pc, pc + arg);
+                return;
+            case IF_ACMPNE:
+                branch(IF_ICMPNE, pc, pc + arg);
+                return;
+            case IFNULL:
+                branch(IFEQ, pc, pc + arg);
+                return;
+            case IFNONNULL:
+                branch(IFNE, pc, pc + arg);
+                return;
+            case Code.QUICK + GETFIELD:
+                getfield(pc, arg, code.args2[pc]);
+                break;
+            case Code.QUICK + PUTFIELD:
+                putfield(pc, arg, code.args2[pc]);
+                break;
+            default:
+                asm.branch(GOTO, exit(pc));
+                return;
+        }
+        asm.iinc(executed, 1);
+    }
+
+    /**
+     * Translate an ldc or ldc_w instruction. Strings are left to the
+     * interpreter, since their addresses may change.
+     * @param pc the program counter
+     * @param index the constant pool index
+     */
+    private void ldc(int pc, int index) {
+        int entry = Mem.load(Reg.pool + 4 * index);
+        if (Mem.load(entry + 4 * ENTRY_ID) == Entry.STRING_CONSTANT) {
+            asm.branch(GOTO, exit(pc));
+        } else {
+            asm.push(Mem.load(entry + 4 * CONSTANT_FIRST));
+        }
+    }
+
+    /**
+     * Translate a wide instruction
+     * @param pc the program counter
+     * @return false if the instruction is left to the interpreter
+     */
+    private boolean wide(int pc) {
+        int address = code.start + pc;
+        int op = Mem.loadByte(address + 1);
+        int index = FIRST_LOCAL + Decoder.twoBytes(address + 2);
+        switch (op) {
+            case ILOAD: case FLOAD: case ALOAD:
+                asm.local(ILOAD, index);
+                break;
+            case LLOAD: case DLOAD:
+                asm.local(ILOAD, index);
+                asm.local(ILOAD, index + 1);
+                break;
+            case ISTORE: case FSTORE: case ASTORE:
+                asm.local(ISTORE, index);
+                break;
+            case LSTORE: case DSTORE:
+                asm.local(ISTORE, index + 1);
+                asm.local(ISTORE, index);
+                break;
+            case IINC:
+                asm.iinc(index, Instruction.signExtendShort(
+                        Decoder.twoBytes(address + 4)));
+                break;
+            default:
+                asm.branch(GOTO, exit(pc));
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Translate a branch, counting it first. Backward branches go through
+     * a budget check.
+     * @param op the host branch operation
+     * @param pc the program counter
+     * @param target the program counter of the branch target
+     */
+    private void branch(int op, int pc, int target) {
+        asm.iinc(executed, 1);
+        if (target > pc) {
+            asm.branch(op, labels[target]);
+        } else {
+            int label = asm.label();
+            tails.add(new int[] {label, -1, target});
+            asm.branch(op, label);
+        }
+    }
+
+    /**
+     * Translate an array load, which exits if the array is null or the
+     * index is out of bounds
+     * @param pc the program counter
+     * @param helper the name of the helper which loads the element
+     */
+    private void arrayLoad(int pc, String helper) {
+        asm.op(DUP2);
+        asm.call("inBounds", "(II)Z");
+        asm.branch(IFEQ, exit(pc));
+        asm.call(helper, "(II)I");
+    }
+
+    /**
+     * Translate an array store, which exits if the array is null or the
+     * index is out of bounds
+     * @param pc the program counter
+     * @param helper the name of the helper which stores the element
+     */
+    private void arrayStore(int pc, String helper) {
+        asm.local(ISTORE, temp);
+        asm.op(DUP2);
+        asm.call("inBounds", "(II)Z");
+        asm.branch(IFEQ, reload(pc, 1));
+        asm.local(ILOAD, temp);
+        asm.call(helper, "(III)V");
+    }
+
+    /**
+     * Translate the quick form of a getfield instruction
+     * @param pc the program counter
+     * @param offset the byte offset of the field
+     * @param flags the field flags
+     */
+    private void getfield(int pc, int offset, int flags) {
+        asm.op(DUP);
+        asm.branch(IFEQ, exit(pc));
+        asm.push(offset);
+        asm.op(IADD);
+        if ((flags & Field.WIDE) != 0) {
+            asm.op(DUP);
+            asm.call("load", "(I)I");
+            asm.op(SWAP);
+            asm.op(ICONST_4);
+            asm.op(IADD);
+        }
+        asm.call("load", "(I)I");
+    }
+
+    /**
+     * Translate the quick form of a putfield instruction
+     * @param pc the program counter
+     * @param offset the byte offset of the field
+     * @param flags the field flags
+     */
+    private void putfield(int pc, int offset, int flags) {
+        int words = ((flags & Field.WIDE) != 0) ? 2 : 1;
+        for (int i = words - 1; i >= 0; i--) {
+            asm.local(ISTORE, temp + i);
+        }
+        asm.op(DUP);
+        asm.branch(IFEQ, reload(pc, words));
+        asm.push(offset);
+        asm.op(IADD);
+        for (int i = 0; i < words; i++) {
+            if (i < words - 1) { asm.op(DUP); }
+            asm.local(ILOAD, temp + i);
+            asm.call("store", "(II)V");
+            if (i < words - 1) {
+                asm.op(ICONST_4);
+                asm.op(IADD);
+            }
+        }
+    }
+
+    /**
+     * @param pc the program counter
+     * @return the label of the exit at the program counter
+     */
+    private int exit(int pc) {
+        if (exits[pc] < 0) { exits[pc] = asm.label(); }
+        return exits[pc];
+    }
+
+    /**
+     * Return a label which pushes back values held in temporaries, then
+     * exits at the given program counter
+     * @param pc the program counter
+     * @param words the number of temporaries
+     * @return the label
+     */
+    private int reload(int pc, int words) {
+        int label = asm.label();
+        tails.add(new int[] {label, words, pc});
+        return label;
+    }
+
+    /**
+     * Loads a single compiled class, so that the class can be unloaded
+     * once it is dropped
+     */
+    private static class Loader extends ClassLoader {
+
+        /**
+         * Create a loader which delegates to the loader of the emulator
+         */
+        Loader() {
+            super(Compiler.class.getClassLoader());
+        }
+
+        /**
+         * @param name the class name
+         * @param bytes the class file
+         * @return the class
+         */
+        Class define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+
+    }
+
+}
@@ -27,36 +27,36 @@ class Control implements Constants {
         
     /**
      * goto instruction
+     * @param offset the branch offset
      */
-    static void op_goto() {
-        int offset = Instruction.signTwoByteCodes(1);
+    static void op_goto(int offset) {
         Reg.instruction += offset;
     }
     
     /**
      * jsr instruction
+     * @param offset the branch offset
      */
-    static void jsr() {
+    static void jsr(int offset) {
         int pc = Reg.instruction - Reg.code;
         Stack.pushData(pc + 3);
-        int offset = Instruction.signTwoByteCodes(1);
         Reg.instruction += offset;
     }
     
     /**
      * ret instruction
+     * @param index the local variable index
      */
-    static void ret() {
-        int index = Instruction.byteCode(1);
+    static void ret(int index) {
         int pc = Locals.getDataFromLocal(index);
         Reg.instruction = Reg.code + pc;
     }
     
     /**
      * ifeq instruction
+     * @param offset the branch offset
      */
-    static void ifeq() {
-        int offset = Instruction.signTwoByteCodes(1);
+    static void ifeq(int offset) {
         int value = Stack.popData();
         if (value == 0) {
             Reg.instruction += offset;
@@ -67,9 +67,9 @@ class Control implements Constants {
     
     /**
      * ifne instruction
+     * @param offset the branch offset
      */
-    static void ifne() {
-        int offset = Instruction.signTwoByteCodes(1);
+    static void ifne(int offset) {
         int value = Stack.popData();
         if (value != 0) {
             Reg.instruction += offset;
@@ -80,9 +80,9 @@ class Control implements Constants {
     
     /**
      * iflt instruction
+     * @param offset the branch offset
      */
-    static void iflt() {
-        int offset = Instruction.signTwoByteCodes(1);
+    static void iflt(int offset) {
         int value = Stack.popData();
         if (value < 0) {
             Reg.instruction += offset;
@@ -93,9 +93,9 @@ class Control implements Constants {
     
     /**
      * ifge instruction
+     * @param offset the branch offset
      */
-    static void ifge() {
-        int offset = Instruction.signTwoByteCodes(1);
+    static void ifge(int offset) {
         int value = Stack.popData();
         if (value >= 0) {
             Reg.instruction += offset;
@@ -106,9 +106,9 @@ class Control implements Constants {
     
     /**
      * ifgt instruction
+     * @param offset the branch offset
      */
-    static void ifgt() {
-        int offset = Instruction.signTwoByteCodes(1);
+    static void ifgt(int offset) {
         int value = Stack.popData();
         if (value > 0) {
             Reg.instruction += offset;
@@ -119,9 +119,9 @@ class Control implements Constants {
     
     /**
      * ifle instruction
+     * @param offset the branch offset
      */
-    static void ifle() {
-        int offset = Instruction.signTwoByteCodes(1);
+    static void ifle(int offset) {
         int value = Stack.popData();
         if (value <= 0) {
             Reg.instruction += offset;
@@ -132,9 +132,9 @@ class Control implements Constants {
     
     /**
      * if_icmpeq instruction
+     * @param offset the branch offset
      */
-    static void if_icmpeq() {
-        int offset = Instruction.signTwoByteCodes(1);
+    static void if_icmpeq(int offset) {
         int value2 = Stack.popData();
         int value1 = Stack.popData();
         if (value1 == value2) {
@@ -146,9 +146,9 @@ class Control implements Constants {
 
     /**
      * if_icmpne instruction
+     * @param offset the branch offset
      */
-    static void if_icmpne() {
-        int offset = Instruction.signTwoByteCodes(1);
+    static void if_icmpne(int offset) {
         int value2 = Stack.popData();
         int value1 = Stack.popData();
         if (value1 != value2) {
@@ -160,9 +160,9 @@ class Control implements Constants {
 
     /**
      * if_icmplt instruction
+     * @param offset the branch offset
      */
-    static void if_icmplt() {
-        int offset = Instruction.signTwoByteCodes(1);
+    static void if_icmplt(int offset) {
         int value2 = Stack.popData();
         int value1 = Stack.popData();
         if (value1 < value2) {
@@ -174,9 +174,9 @@ class Control implements Constants {
 
     /**
      * if_icmpge instruction
+     * @param offset the branch offset
      */
-    static void if_icmpge() {
-        int offset = Instruction.signTwoByteCodes(1);
+    static void if_icmpge(int offset) {
         int value2 = Stack.popData();
         int value1 = Stack.popData();
         if (value1 >= value2) {
@@ -188,9 +188,9 @@ class Control implements Constants {
 
     /**
      * if_icmpgt instruction
+     * @param offset the branch offset
      */
-    static void if_icmpgt() {
-        int offset = Instruction.signTwoByteCodes(1);
+    static void if_icmpgt(int offset) {
         int value2 = Stack.popData();
         int value1 = Stack.popData();
         if (value1 > value2) {
@@ -202,9 +202,9 @@ class Control implements Constants {
 
     /**
      * if_icmple instruction
+     * @param offset the branch offset
      */
-    static void if_icmple() {
-        int offset = Instruction.signTwoByteCodes(1);
+    static void if_icmple(int offset) {
         int value2 = Stack.popData();
         int value1 = Stack.popData();
         if (value1 <= value2) {
@@ -216,9 +216,9 @@ class Control implements Constants {
 
     /**
      * if_acmpeq instruction
+     * @param offset the branch offset
      */
-    static void if_acmpeq() {
-        int offset = Instruction.signTwoByteCodes(1);
+    static void if_acmpeq(int offset) {
         int pointer2 = Stack.popPointer();
         int pointer1 = Stack.popPointer();
         if (pointer1 == pointer2) {
@@ -230,9 +230,9 @@ class Control implements Constants {
 
     /**
      * if_acmpne instruction
+     * @param offset the branch offset
      */
-    static void if_acmpne() {
-        int offset = Instruction.signTwoByteCodes(1);
+    static void if_acmpne(int offset) {
         int pointer2 = Stack.popPointer();
         int pointer1 = Stack.popPointer();
         if (pointer1 != pointer2) {
@@ -244,9 +244,9 @@ class Control implements Constants {
 
     /**
      * ifnull instruction
+     * @param offset the branch offset
      */
-    static void ifnull() {
-        int offset = Instruction.signTwoByteCodes(1);
+    static void ifnull(int offset) {
         int pointer = Stack.popPointer();
         if (pointer == NULL) {
             Reg.instruction += offset;
@@ -257,9 +257,9 @@ class Control implements Constants {
     
     /**
      * ifnonnull instruction
+     * @param offset the branch offset
      */
-    static void ifnonnull() {
-        int offset = Instruction.signTwoByteCodes(1);
+    static void ifnonnull(int offset) {
         int pointer = Stack.popPointer();
         if (pointer != NULL) {
             Reg.instruction += offset;
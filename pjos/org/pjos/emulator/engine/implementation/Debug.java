@@ -39,6 +39,18 @@ class Debug implements Constants {
         return classname + "." + name + descriptor;
     }
     
+    /**
+     * @param address the method address
+     * @return the name of the method as a stack trace shows it
+     */
+    static String traceName(int address) {
+        int type = Mem.load(address + 4 * ENTRY_OWNER);
+        String classname = (type == NULL)
+                ? "?"
+                : string(Mem.load(type + 4 * TYPE_NAME)).replace('/', '.');
+        return classname + "." + string(Mem.load(address + 4 * ENTRY_NAME));
+    }
+    
     /**
      * @param address the string address
      * @return the string stored at the given memory location
@@ -0,0 +1,256 @@
+/*
+Copyright 2002 Simon Daniel
+email: simon@pjos.org
+
+This file is part of PJOS.
+
+This program is free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+package org.pjos.emulator.engine.implementation;
+
+import java.util.HashMap;
+
+import org.pjos.common.runtime.Opcode;
+
+/**
+ * Decodes the byte code of each method once, the first time it
+ * is executed, and caches the result. The cache is keyed by method
+ * address, so it must be flushed whenever objects move.
+ */
+class Decoder implements Constants, Opcode {
+
+    /** Instruction lengths (zero for variable length instructions) */
+    private static final int[] LENGTHS = new int[256];
+
+    /** The decoded code for each method (Integer address to Code) */
+    private static HashMap cache = new HashMap();
+
+    /** The decoded code for the current method */
+    private static Code current;
+
+    /** Set if any decoded code refers to an object in the nursery */
+    private static boolean young;
+
+    static {
+        for (int i = 0; i < LENGTHS.length; i++) {
+            LENGTHS[i] = 1;
+        }
+        int[] two = {
+            BIPUSH, LDC, ILOAD, LLOAD, FLOAD, DLOAD, ALOAD, ISTORE, LSTORE,
+            FSTORE, DSTORE, ASTORE, RET, NEWARRAY
+        };
+        int[] three = {
+            SIPUSH, LDC_W, LDC2_W, IINC, IFEQ, IFNE, IFLT, IFGE, IFGT, IFLE,
+            IF_ICMPEQ, IF_ICMPNE, IF_ICMPLT, IF_ICMPGE, IF_ICMPGT, IF_ICMPLE,
+            IF_ACMPEQ, IF_ACMPNE, GOTO, JSR, GETSTATIC, PUTSTATIC, GETFIELD,
+            PUTFIELD, INVOKEVIRTUAL, INVOKESPECIAL, INVOKESTATIC, NEW,
+            ANEWARRAY, CHECKCAST, INSTANCEOF, IFNULL, IFNONNULL
+        };
+        for (int i = 0; i < two.length; i++) { LENGTHS[two[i]] = 2; }
+        for (int i = 0; i < three.length; i++) { LENGTHS[three[i]] = 3; }
+        LENGTHS[MULTIANEWARRAY] = 4;
+        LENGTHS[INVOKEINTERFACE] = 5;
+        LENGTHS[GOTO_W] = 5;
+        LENGTHS[JSR_W] = 5;
+        LENGTHS[TABLESWITCH] = 0;
+        LENGTHS[LOOKUPSWITCH] = 0;
+        LENGTHS[WIDE] = 0;
+    }
+
+    /**
+     * Return the decoded code for the method in the registers,
+     * decoding it if this has not already been done.
+     * @return the decoded code
+     */
+    static Code get() {
+        Code code = current;
+        if (code == null || code.start != Reg.code) {
+            Integer key = new Integer(Reg.method);
+            code = (Code) cache.get(key);
+            if (code == null) {
+                code = decode(Reg.method);
+                cache.put(key, code);
+                refer(Reg.method);
+                refer(code.start);
+            }
+            current = code;
+        }
+        return code;
+    }
+
+    /**
+     * Discard all decoded code. This must be called whenever methods
+     * or the objects referred to by decoded operands may have moved.
+     */
+    static void flush() {
+        cache.clear();
+        current = null;
+        young = false;
+    }
+
+    /**
+     * Discard all decoded code if any of it refers to an object in the
+     * nursery. This must be called after a minor collection.
+     */
+    static void flushYoung() {
+        if (young) { flush(); }
+    }
+
+    /**
+     * Note that decoded code refers to the given object
+     * @param address the object address
+     */
+    static void refer(int address) {
+        if (Collector.isYoung(address)) { young = true; }
+    }
+
+    /**
+     * @return the number of methods currently decoded
+     */
+    static int size() {
+        return cache.size();
+    }
+
+    /**
+     * Decode the byte code of the given method
+     * @param method the method
+     * @return the decoded code
+     */
+    private static Code decode(int method) {
+        int array = Mem.load(method + 4 * METHOD_CODE);
+        if (array == NULL) {
+            throw new IllegalStateException("Null code for method");
+        }
+        int start = array + 4 * ARRAY_DATA;
+        int length = Mem.load(array + 4 * ARRAY_LENGTH);
+        Code code = new Code(method, start, length);
+        if (length > 0) { code.entries[0] = true; }
+        int pc = 0;
+        while (pc < length) {
+            int op = Mem.loadByte(start + pc);
+            code.ops[pc] = op;
+            code.args[pc] = operand(op, start + pc + 1);
+            switch (op) {
+                case IINC:
+                    code.args2[pc] = Instruction.signExtendByte(
+                            Mem.loadByte(start + pc + 2));
+                    break;
+                case IFEQ: case IFNE: case IFLT: case IFGE: case IFGT:
+                case IFLE: case IF_ICMPEQ: case IF_ICMPNE: case IF_ICMPLT:
+                case IF_ICMPGE: case IF_ICMPGT: case IF_ICMPLE:
+                case IF_ACMPEQ: case IF_ACMPNE: case GOTO:
+                case IFNULL: case IFNONNULL:
+                    if (code.args[pc] <= 0) {
+                        code.entries[pc + code.args[pc]] = true;
+                    }
+                    break;
+                case INVOKEINTERFACE:
+                    Invoke.checkInterfaceOperands(
+                            Mem.loadByte(start + pc + 3),
+                            Mem.loadByte(start + pc + 4));
+                    break;
+                default:
+                    break;
+            }
+            pc += length(start, pc, op);
+        }
+        return code;
+    }
+
+    /**
+     * Decode the first operand of an instruction. The plain interpreter
+     * decodes each instruction this way as it executes it.
+     * @param op the operation
+     * @param address the address of the byte following the opcode
+     * @return the operand, or zero if the operation has none
+     */
+    static int operand(int op, int address) {
+        switch (op) {
+            case BIPUSH:
+                return Instruction.signExtendByte(Mem.loadByte(address));
+            case LDC:
+            case ILOAD: case LLOAD: case FLOAD: case DLOAD: case ALOAD:
+            case ISTORE: case LSTORE: case FSTORE: case DSTORE: case ASTORE:
+            case RET: case NEWARRAY: case IINC:
+                return Mem.loadByte(address);
+            case SIPUSH:
+            case IFEQ: case IFNE: case IFLT: case IFGE: case IFGT: case IFLE:
+            case IF_ICMPEQ: case IF_ICMPNE: case IF_ICMPLT: case IF_ICMPGE:
+            case IF_ICMPGT: case IF_ICMPLE: case IF_ACMPEQ: case IF_ACMPNE:
+            case GOTO: case JSR: case IFNULL: case IFNONNULL:
+                return Instruction.signExtendShort(twoBytes(address));
+            case LDC_W: case LDC2_W:
+            case GETSTATIC: case PUTSTATIC: case GETFIELD: case PUTFIELD:
+            case INVOKEVIRTUAL: case INVOKESPECIAL: case INVOKESTATIC:
+            case INVOKEINTERFACE: case NEW: case ANEWARRAY: case CHECKCAST:
+            case INSTANCEOF: case MULTIANEWARRAY:
+                return twoBytes(address);
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Return the length of the instruction at the given program counter
+     * @param start the address of the first byte code
+     * @param pc the program counter
+     * @param op the operation at the program counter
+     * @return the length in bytes
+     */
+    static int length(int start, int pc, int op) {
+        int length = LENGTHS[op];
+        if (length != 0) { return length; }
+        int offset = 1 + (3 - (pc % 4));
+        switch (op) {
+            case TABLESWITCH:
+                int low = fourBytes(start + pc + offset + 4);
+                int high = fourBytes(start + pc + offset + 8);
+                return offset + 12 + 4 * (high - low + 1);
+            case LOOKUPSWITCH:
+                int npairs = fourBytes(start + pc + offset + 4);
+                return offset + 8 + 8 * npairs;
+            default:
+                // wide instruction
+                int next = Mem.loadByte(start + pc + 1);
+                return (next == IINC) ? 6 : 4;
+        }
+    }
+
+    /**
+     * @param address the address
+     * @return the unsigned 16-bit big endian value at the address
+     */
+    static int twoBytes(int address) {
+        return (Mem.loadByte(address) << 8) | Mem.loadByte(address + 1);
+    }
+
+    /**
+     * @param address the address
+     * @return the signed 32-bit big endian value at the address
+     */
+    static int fourBytes(int address) {
+        return (twoBytes(address) << 16) | twoBytes(address + 2);
+    }
+
+}
+
+
+
+
+
+
+
+
+
@@ -0,0 +1,95 @@
+/*
+Copyright 2002 Simon Daniel
+email: simon@pjos.org
+
+This file is part of PJOS.
+
+This program is free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+package org.pjos.emulator.engine.implementation;
+
+import java.util.HashMap;
+
+/**
+ * Looks up the methods executed by virtual and interface invocations.
+ * A method table is built for each receiver type the first time it
+ * is needed. Tables are keyed by type address, so they must be
+ * flushed whenever objects move, or after a minor collection if
+ * any of them refer to an object in the nursery.
+ */
+class Dispatch implements Constants {
+
+    /** The method table for each type (Integer address to MethodTable) */
+    private static HashMap tables = new HashMap();
+
+    /** The type most recently looked up */
+    private static int lastType = NULL;
+
+    /** The table for the type most recently looked up */
+    private static MethodTable lastTable;
+
+    /** Set if any table refers to an object in the nursery */
+    private static boolean young;
+
+    /**
+     * Return the method which an invocation of the given name and
+     * descriptor will execute for an instance of the given type.
+     * @param type the receiver type
+     * @param name the method name string pointer
+     * @param descriptor the method descriptor string pointer
+     * @return the method, or NULL if there is none
+     */
+    static int lookup(int type, int name, int descriptor) {
+        if (type != lastType || lastTable == null) {
+            Integer key = new Integer(type);
+            MethodTable table = (MethodTable) tables.get(key);
+            if (table == null) {
+                table = new MethodTable(type);
+                tables.put(key, table);
+                if (table.young) { young = true; }
+            }
+            lastType = type;
+            lastTable = table;
+        }
+        return lastTable.get(name, descriptor);
+    }
+
+    /**
+     * Discard all method tables
+     */
+    static void flush() {
+        tables.clear();
+        lastType = NULL;
+        lastTable = null;
+        young = false;
+    }
+
+    /**
+     * Discard all method tables if any refer to an object in the nursery
+     */
+    static void flushYoung() {
+        if (young) { flush(); }
+    }
+
+}
+
+
+
+
+
+
+
+
+
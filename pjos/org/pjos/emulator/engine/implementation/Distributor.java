@@ -30,10 +30,39 @@ import org.pjos.common.runtime.Opcodes;
 class Distributor implements Opcode {
 
     /**
-     * Execute the next bytecode instruction
+     * Execute the next bytecode instruction, decoding its operands
+     * from memory
      */
     static void execute() {
         int op = Mem.loadByte(Reg.instruction);
+        int arg = Decoder.operand(op, Reg.instruction + 1);
+        int arg2 = (op == IINC) ? Instruction.signByteCode(2) : 0;
+        execute(op, arg, arg2, null, 0);
+    }
+    
+    /**
+     * Execute the next instruction from the pre-decoded form of the
+     * current method. Operands are taken from the decoded code rather
+     * than being read from memory each time.
+     */
+    static void executeDecoded() {
+        Code code = Decoder.get();
+        int pc = Reg.instruction - Reg.code;
+        execute(code.ops[pc], code.args[pc], code.args2[pc], code, pc);
+    }
+    
+    /**
+     * Execute an instruction whose operands have been decoded. Field and
+     * invoke instructions in pre-decoded code are replaced by their quick
+     * forms instead of being executed.
+     * @param op the operation
+     * @param arg the first operand
+     * @param arg2 the second operand
+     * @param code the pre-decoded code, or null if there is none
+     * @param pc the program counter in the pre-decoded code
+     */
+    private static void execute(int op, int arg, int arg2, Code code,
+            int pc) {
         switch (op) {
             case NOP:               error(op);                          break;
             case ACONST_NULL:       Const.aconst_null();                break;
@@ -51,16 +80,16 @@ class Distributor implements Opcode {
             case FCONST_2:          Const.fconst_x(2f);                 break;
             case DCONST_2:          error(op);                          break;
             case DCONST_1:          error(op);                          break;
-            case BIPUSH:            Stack.bipush();                     break;
-            case SIPUSH:            Stack.sipush();                     break;
-            case LDC:               Load.ldc();                         break;
-            case LDC_W:             Load.ldc_w();                       break;
-            case LDC2_W:            Load.ldc2_w();                      break;
-            case ILOAD:             Load.iload();                       break;
-            case LLOAD:             Load.lload();                       break;
-            case FLOAD:             Load.fload();                       break;
-            case DLOAD:             Load.dload();                       break;
-            case ALOAD:             Load.aload();                       break;
+            case BIPUSH:            Stack.bipush(arg);                  break;
+            case SIPUSH:            Stack.sipush(arg);                  break;
+            case LDC:               Load.ldc(arg);                      break;
+            case LDC_W:             Load.ldc_w(arg);                    break;
+            case LDC2_W:            Load.ldc2_w(arg);                   break;
+            case ILOAD:             Load.iload(arg);                    break;
+            case LLOAD:             Load.lload(arg);                    break;
+            case FLOAD:             Load.fload(arg);                    break;
+            case DLOAD:             Load.dload(arg);                    break;
+            case ALOAD:             Load.aload(arg);                    break;
             case ILOAD_0:           Load.iload_x(0);                    break;
             case ILOAD_1:           Load.iload_x(1);                    break;
             case ILOAD_2:           Load.iload_x(2);                    break;
@@ -89,11 +118,11 @@ class Distributor implements Opcode {
             case BALOAD:            Array.baload();                     break;
             case CALOAD:            Array.caload();                     break;
             case SALOAD:            Array.saload();                     break;
-            case ISTORE:            Store.istore();                     break;
-            case LSTORE:            Store.lstore();                     break;
-            case FSTORE:            Store.fstore();                     break;
-            case DSTORE:            Store.dstore();                     break;
-            case ASTORE:            Store.astore();                     break;
+            case ISTORE:            Store.istore(arg);                  break;
+            case LSTORE:            Store.lstore(arg);                  break;
+            case FSTORE:            Store.fstore(arg);                  break;
+            case DSTORE:            Store.dstore(arg);                  break;
+            case ASTORE:            Store.astore(arg);                  break;
             case ISTORE_0:          Store.istore_x(0);                  break;
             case ISTORE_1:          Store.istore_x(1);                  break;
             case ISTORE_2:          Store.istore_x(2);                  break;
@@ -167,7 +196,7 @@ class Distributor implements Opcode {
             case LOR:               Bit.lor();                          break;
             case IXOR:              Bit.ixor();                         break;
             case LXOR:              Bit.lxor();                         break;
-            case IINC:              Locals.iinc();                      break;
+            case IINC:              Locals.iinc(arg, arg2);             break;
             case I2L:               Convert.i2l();                      break;
             case I2F:               Convert.i2f();                      break;
             case I2D:               Convert.i2d();                      break;
@@ -188,23 +217,23 @@ class Distributor implements Opcode {
             case FCMPG:             Compare.fcmpg();                    break;
             case DCMPL:             Compare.dcmpl();                    break;
             case DCMPG:             Compare.dcmpg();                    break;
-            case IFEQ:              Control.ifeq();                     break;
-            case IFNE:              Control.ifne();                     break;
-            case IFLT:              Control.iflt();                     break;
-            case IFGE:              Control.ifge();                     break;
-            case IFGT:              Control.ifgt();                     break;
-            case IFLE:              Control.ifle();                     break;
-            case IF_ICMPEQ:         Control.if_icmpeq();                break;
-            case IF_ICMPNE:         Control.if_icmpne();                break;
-            case IF_ICMPLT:         Control.if_icmplt();                break;
-            case IF_ICMPGE:         Control.if_icmpge();                break;
-            case IF_ICMPGT:         Control.if_icmpgt();                break;
-            case IF_ICMPLE:         Control.if_icmple();                break;
-            case IF_ACMPEQ:         Control.if_acmpeq();                break;
-            case IF_ACMPNE:         Control.if_acmpne();                break;
-            case GOTO:              Control.op_goto();                  break;
-            case JSR:               Control.jsr();                      break;
-            case RET:               Control.ret();                      break;
+            case IFEQ:              Control.ifeq(arg);                  break;
+            case IFNE:              Control.ifne(arg);                  break;
+            case IFLT:              Control.iflt(arg);                  break;
+            case IFGE:              Control.ifge(arg);                  break;
+            case IFGT:              Control.ifgt(arg);                  break;
+            case IFLE:              Control.ifle(arg);                  break;
+            case IF_ICMPEQ:         Control.if_icmpeq(arg);             break;
+            case IF_ICMPNE:         Control.if_icmpne(arg);             break;
+            case IF_ICMPLT:         Control.if_icmplt(arg);             break;
+            case IF_ICMPGE:         Control.if_icmpge(arg);             break;
+            case IF_ICMPGT:         Control.if_icmpgt(arg);             break;
+            case IF_ICMPLE:         Control.if_icmple(arg);             break;
+            case IF_ACMPEQ:         Control.if_acmpeq(arg);             break;
+            case IF_ACMPNE:         Control.if_acmpne(arg);             break;
+            case GOTO:              Control.op_goto(arg);               break;
+            case JSR:               Control.jsr(arg);                   break;
+            case RET:               Control.ret(arg);                   break;
             case TABLESWITCH:       Switch.tableswitch();               break;
             case LOOKUPSWITCH:      Switch.lookupswitch();              break;
             case IRETURN:           Return.ireturn();                   break;
@@ -213,33 +242,88 @@ class Distributor implements Opcode {
             case DRETURN:           Return.dreturn();                   break;
             case ARETURN:           Return.areturn();                   break;
             case RETURN:            Return.op_return();                 break;
-            case GETSTATIC:         Field.getstatic();                  break;
-            case PUTSTATIC:         Field.putstatic();                  break;
-            case GETFIELD:          Field.getfield();                   break;
-            case PUTFIELD:          Field.putfield();                   break;
-            case INVOKEVIRTUAL:     Invoke.invokevirtual();             break;
-            case INVOKESPECIAL:     Invoke.invokespecial();             break;
-            case INVOKESTATIC:      Invoke.invokestatic();              break;
-            case INVOKEINTERFACE:   Invoke.invokeinterface();           break;
-            case NEW:               Instance.op_new();                  break;
-            case NEWARRAY:          Instance.newarray();                break;
-            case ANEWARRAY:         Instance.anewarray();               break;
+            case GETSTATIC:
+                if (code == null) { Field.getstatic(arg); break; }
+                Field.quicken(code, pc, arg, true);
+                break;
+            case PUTSTATIC:
+                if (code == null) { Field.putstatic(arg); break; }
+                Field.quicken(code, pc, arg, true);
+                break;
+            case GETFIELD:
+                if (code == null) { Field.getfield(arg); break; }
+                Field.quicken(code, pc, arg, false);
+                break;
+            case PUTFIELD:
+                if (code == null) { Field.putfield(arg); break; }
+                Field.quicken(code, pc, arg, false);
+                break;
+            case INVOKEVIRTUAL:
+                if (code == null) { Invoke.invokevirtual(arg); break; }
+                Invoke.quicken(code, pc, arg, false);
+                break;
+            case INVOKESPECIAL:
+                if (code == null) { Invoke.invokespecial(arg); break; }
+                Invoke.quicken(code, pc, arg, false);
+                break;
+            case INVOKEINTERFACE:
+                if (code == null) { Invoke.invokeinterface(arg); break; }
+                Invoke.quicken(code, pc, arg, false);
+                break;
+            case INVOKESTATIC:
+                if (code == null) { Invoke.invokestatic(arg); break; }
+                Invoke.quicken(code, pc, arg, true);
+                break;
+            case NEW:               Instance.op_new(arg);               break;
+            case NEWARRAY:          Instance.newarray(arg);             break;
+            case ANEWARRAY:         Instance.anewarray(arg);            break;
             case ARRAYLENGTH:       Array.arraylength();                break;
             case ATHROW:            Exceptions.athrow();                break;
-            case CHECKCAST:         Cast.checkcast();                   break;
-            case INSTANCEOF:        Cast.op_instanceof();               break;
+            case CHECKCAST:         Cast.checkcast(arg);                break;
+            case INSTANCEOF:        Cast.op_instanceof(arg);            break;
             case MONITORENTER:      Monitor.monitorenter();             break;
             case MONITOREXIT:       Monitor.monitorexit();              break;
             case WIDE:              error(op);                          break;
             case MULTIANEWARRAY:    Instance.multianewarray();          break;
-            case IFNULL:            Control.ifnull();                   break;
-            case IFNONNULL:         Control.ifnonnull();                break;
+            case IFNULL:            Control.ifnull(arg);                break;
+            case IFNONNULL:         Control.ifnonnull(arg);             break;
             case GOTO_W:            error(op);                          break;
             case JSR_W:             error(op);                          break;
             case BREAKPOINT:        error(op);                          break;
             case IMPDEP1:           error(op);                          break;
             case IMPDEP2:           error(op);                          break;
             
+            // quick forms of resolved field and invoke instructions
+            case Code.QUICK + GETSTATIC:
+                Field.getstatic_quick(arg, arg2);
+                break;
+            case Code.QUICK + PUTSTATIC:
+                Field.putstatic_quick(arg, arg2);
+                break;
+            case Code.QUICK + GETFIELD:
+                Field.getfield_quick(arg, arg2);
+                break;
+            case Code.QUICK + PUTFIELD:
+                Field.putfield_quick(arg, arg2);
+                break;
+            case Code.QUICK + INVOKEVIRTUAL:
+                Invoke.dispatch_quick(arg, arg2, code.site(pc), 3);
+                break;
+            case Code.QUICK + INVOKESPECIAL:
+                Invoke.invokespecial_quick(arg, arg2);
+                break;
+            case Code.QUICK + INVOKESTATIC:
+                Invoke.invokestatic_quick(arg, arg2);
+                break;
+            case Code.QUICK + INVOKEINTERFACE:
+                Invoke.dispatch_quick(arg, arg2, code.site(pc), 5);
+                break;
+
+            // not the start of an instruction
+            case Code.NONE:
+                throw new IllegalStateException(
+                        "No instruction at pc " + pc);
+
             // instruction not valid
             default: error(op);
         }
@@ -52,9 +52,12 @@ class Exceptions implements Constants {
             unlockIfSynchronized();
 
             // pop to previous frame
-            int previous = Mem.load(Reg.frame + 4 * FRAME_RETURN_FRAME);
+            int frame = Reg.frame;
+            int previous = Mem.load(frame + 4 * FRAME_RETURN_FRAME);
             Mem.store(previous, Reg.thread + 4 * THREAD_FRAME);
-            if (previous != NULL) { Reg.load(); }
+            Segments.pop(frame);
+            if (previous == NULL) { break; }
+            Reg.load();
         }
 
         // No handler was found in any frame so exit thread
@@ -27,12 +27,18 @@ import org.pjos.common.runtime.Entry;
  */
 class Field implements Constants {
     
+    /** Quick operand flag: the field takes two words */
+    static final int WIDE = 1;
+    
+    /** Quick operand flag: the field holds a pointer */
+    static final int REFERENCE = 2;
+    
     /**
      * getfield instruction
+     * @param index the constant pool index
      */
-    static void getfield() {
+    static void getfield(int index) {
         // resolve the field entry
-        int index = Instruction.twoByteCodes(1);
         int entry = Resolve.resolve(index, Entry.FIELD);
         if (entry == NULL) { return; } // rollback because gc has been done
 
@@ -67,10 +73,10 @@ class Field implements Constants {
 
     /**
      * putfield instruction
+     * @param index the constant pool index
      */
-    static void putfield() {
+    static void putfield(int index) {
         // resolve the field entry
-        int index = Instruction.twoByteCodes(1);
         int entry = Resolve.resolve(index, Entry.FIELD);
         if (entry == NULL) { return; } // rollback because gc has been done
 
@@ -101,10 +107,10 @@ class Field implements Constants {
     
     /**
      * putstatic instruction
+     * @param index the constant pool index
      */
-    static void putstatic() {
+    static void putstatic(int index) {
         // resolve the field entry
-        int index = Instruction.twoByteCodes(1);
         int entry = Resolve.resolve(index, Entry.FIELD);
         if (entry == NULL) { return; } // rollback because gc has been done
 
@@ -129,10 +135,10 @@ class Field implements Constants {
     
     /**
      * getstatic instruction
+     * @param index the constant pool index
      */
-    static void getstatic() {
+    static void getstatic(int index) {
         // resolve the field entry
-        int index = Instruction.twoByteCodes(1);
         int entry = Resolve.resolve(index, Entry.FIELD);
         if (entry == NULL) { return; } // rollback because gc has been done
 
@@ -159,4 +165,113 @@ class Field implements Constants {
         Reg.instruction += 3;
     }
     
+    /**
+     * Resolve the constant pool entry of a field instruction in decoded
+     * code, and replace the instruction with its quick form. The program
+     * counter is not changed, so the quick form is executed next.
+     * @param code the decoded code
+     * @param pc the program counter
+     * @param index the constant pool index
+     * @param isStatic true for getstatic and putstatic
+     */
+    static void quicken(Code code, int pc, int index, boolean isStatic) {
+        // resolve the field entry
+        int entry = Resolve.resolve(index, Entry.FIELD);
+        if (entry == NULL) { return; } // rollback because gc has been done
+
+        // work out the field flags
+        int flags = 0;
+        if (Mem.load(entry + 4 * FIELD_SIZE) == 2) { flags |= WIDE; }
+        if (Mem.load(entry + 4 * FIELD_REFERENCE_FLAG) == 1) {
+            flags |= REFERENCE;
+        }
+
+        // static fields are addressed directly, instance fields by offset
+        int fieldIndex = Mem.load(entry + 4 * FIELD_INDEX);
+        if (isStatic) {
+            int owner = Mem.load(entry + 4 * ENTRY_OWNER);
+            int statics = Mem.load(owner + 4 * TYPE_STATICS);
+            Decoder.refer(statics);
+            code.quicken(pc, statics + 4 * (STATICS_FIELDS + fieldIndex),
+                    flags);
+        } else {
+            code.quicken(pc, 4 * (OBJECT_FIELDS + fieldIndex), flags);
+        }
+    }
+    
+    /**
+     * getfield instruction, quick form
+     * @param offset the byte offset of the field within the object
+     * @param flags the field flags
+     */
+    static void getfield_quick(int offset, int flags) {
+        int object = Stack.popPointer();
+        if (object == NULL) {
+            Exceptions.throwException(CORE_THROW_NULL_POINTER);
+            return;
+        }
+        push(object + offset, flags);
+        Reg.instruction += 3;
+    }
+    
+    /**
+     * putfield instruction, quick form
+     * @param offset the byte offset of the field within the object
+     * @param flags the field flags
+     */
+    static void putfield_quick(int offset, int flags) {
+        int value2 = ((flags & WIDE) != 0) ? Stack.popData() : 0;
+        int value1 = ((flags & REFERENCE) != 0)
+                ? Stack.popPointer()
+                : Stack.popData();
+        int object = Stack.popPointer();
+        if (object == NULL) {
+            Exceptions.throwException(CORE_THROW_NULL_POINTER);
+            return;
+        }
+        Mem.store(value1, object + offset);
+        if ((flags & WIDE) != 0) { Mem.store(value2, object + offset + 4); }
+        Reg.instruction += 3;
+    }
+    
+    /**
+     * getstatic instruction, quick form
+     * @param address the address of the field
+     * @param flags the field flags
+     */
+    static void getstatic_quick(int address, int flags) {
+        push(address, flags);
+        Reg.instruction += 3;
+    }
+    
+    /**
+     * putstatic instruction, quick form
+     * @param address the address of the field
+     * @param flags the field flags
+     */
+    static void putstatic_quick(int address, int flags) {
+        int value2 = ((flags & WIDE) != 0) ? Stack.popData() : 0;
+        int value1 = ((flags & REFERENCE) != 0)
+                ? Stack.popPointer()
+                : Stack.popData();
+        Mem.store(value1, address);
+        if ((flags & WIDE) != 0) { Mem.store(value2, address + 4); }
+        Reg.instruction += 3;
+    }
+    
+    /**
+     * Push the value of the field at the given address
+     * @param address the address of the field
+     * @param flags the field flags
+     */
+    private static void push(int address, int flags) {
+        int value1 = Mem.load(address);
+        if ((flags & REFERENCE) != 0) {
+            Stack.pushPointer(value1);
+        } else {
+            Stack.pushData(value1);
+        }
+        if ((flags & WIDE) != 0) { Stack.pushData(Mem.load(address + 4)); }
+    }
+    
 }
@@ -20,6 +20,10 @@ Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
 */
 package org.pjos.emulator.engine.implementation;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
 /**
  * Uses the data in a file to represent a virtual floppy disk drive
  */
@@ -42,6 +46,32 @@ class Floppy {
         data = b;
     }
     
+    /**
+     * Write the floppy data, if there is any, to a snapshot
+     * @param out the snapshot
+     * @throws IOException if an error occurs
+     */
+    static synchronized void write(DataOutputStream out) throws IOException {
+        out.writeBoolean(data != null);
+        if (data != null) { out.write(data); }
+    }
+    
+    /**
+     * Read the floppy data from a snapshot
+     * @param in the snapshot
+     * @param restore true to restore what is read, false to only check it
+     * @throws IOException if an error occurs
+     */
+    static synchronized void read(DataInputStream in, boolean restore)
+            throws IOException {
+        byte[] b = null;
+        if (in.readBoolean()) {
+            b = new byte[LENGTH];
+            in.readFully(b);
+        }
+        if (restore) { data = b; }
+    }
+    
     /**
      * Write an unsigned byte value to the disk
      * @param value the value
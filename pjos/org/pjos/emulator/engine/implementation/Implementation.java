@@ -22,7 +22,11 @@ package org.pjos.emulator.engine.implementation;
 
 import org.pjos.emulator.engine.Engine;
 
-import java.util.LinkedList;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
 
 /**
  * Provides an implementation of the abstract 32-bit computer
@@ -43,19 +47,82 @@ public class Implementation implements Engine, Constants {
     /** Counts the number of instructions executed since the last reset */
     static int counter = 0;
     
+    /** Set if instructions are executed from pre-decoded code */
+    private static boolean predecode = true;
+    
+    /** Set if hot methods are compiled into host classes */
+    private static boolean compile = false;
+    
+    /** Set if execution is profiled */
+    private static boolean profiling = false;
+    
+    /** The sampling mode */
+    private static int sampling = SAMPLING_OFF;
+    
+    /** The number of instructions between samples */
+    private static int sampleInterval;
+    
+    /** The instructions left before the next sample (zero if none due) */
+    private static int countdown;
+    
+    /** The collector mode used after the next reset */
+    private static int collector = COLLECTOR_GENERATIONAL;
+    
+    /** The memory size used after the next reset */
+    private static int memorySize = DEFAULT_MEMORY_SIZE;
+    
+    /** Set if the clock used after the next reset is virtual */
+    private static boolean virtualClock = false;
+    
+    /** The number of values each input queue can hold */
+    private static final int QUEUE_SIZE = 1024;
+    
     /** The queue of interrupt values */
-    static LinkedList interrupts = new LinkedList();
+    static Ring interrupts = new Ring(QUEUE_SIZE);
     
-    /** The queue of keyboard values */
-    static LinkedList keys = new LinkedList();
+    /** The queue of keyboard values, in event and key code pairs */
+    static Ring keys = new Ring(QUEUE_SIZE);
+    
+    /** The breakpoint address (NULL if there is none) */
+    private int breakpoint = NULL;
+    
+    /**
+     * Set when another thread has made a request which must be handled
+     * at the next safepoint. This is the only flag checked after every
+     * instruction; the flags below say what the requests are.
+     */
+    private volatile boolean attention = false;
+    
+    /** Set when an external interrupt is waiting to be delivered */
+    private volatile boolean interruptPending = false;
+    
+    /** Set when a run has been asked to stop */
+    private volatile boolean haltRequested = false;
+    
+    /** Set when the sampler asks for the call stack to be sampled */
+    private volatile boolean sampleRequested = false;
+    
+    /** Set while a run is in progress, so the idle thread may stop it */
+    private boolean running = false;
+    
+    /** The value of idleUntil when the host need not wait */
+    private static final long NOT_IDLE = Long.MIN_VALUE;
+    
+    /**
+     * The time until which the host should wait after the current run,
+     * because the guest is idle, Long.MAX_VALUE if no thread is sleeping,
+     * or NOT_IDLE
+     */
+    private volatile long idleUntil = NOT_IDLE;
+    
+    /** The host waits on this until another thread needs attention */
+    private final Object idleLock = new Object();
     
     /**
      * Create an implementation
      */
     private Implementation() {
         clearLines();
-        Thread thread = new Thread(new Timer(this));
-        thread.start();
     }
 
     /**
@@ -156,7 +223,7 @@ public class Implementation implements Engine, Constants {
      * @return the memory size in bytes
      */
     public int getMemorySize() {
-        return Mem.SIZE;
+        return Mem.size;
     }
     
     /**
@@ -173,23 +240,209 @@ public class Implementation implements Engine, Constants {
      */
     public synchronized Exception step() {
         try {
-            // execute the next instruction
-            Distributor.execute();
-            counter++;
-            
-            // if the current thread exits, yield to next
-            if (Reg.thread == NULL) { tick(); }
+            execute(1);
+            if (attention) { safepoint(); }
         } catch (Exception e) {
             return e;
         }
         return null;
     }
+    
+    /**
+     * Execute instructions until the given number have been executed,
+     * an exception is thrown, the breakpoint is reached, an external
+     * interrupt is delivered, a halt is requested or the guest is idle.
+     * Requests from other threads are only handled between instructions.
+     * @param maxInstructions the maximum number of instructions
+     * @return the exception if thrown or null
+     */
+    public synchronized Exception run(long maxInstructions) {
+        running = true;
+        idleUntil = NOT_IDLE;
+        boolean compiled = compile && !profiling && breakpoint == NULL;
+        try {
+            long done = 0;
+            while (done < maxInstructions) {
+                done += execute(compiled ? maxInstructions - done : 1);
+                if (attention && safepoint()) { break; }
+                if (Reg.instruction == breakpoint) { break; }
+            }
+        } catch (Exception e) {
+            return e;
+        } finally {
+            running = false;
+        }
+        return null;
+    }
+    
+    /**
+     * If the last run stopped because the guest is idle, wait until the
+     * next sleeping thread is due or another thread needs attention. This
+     * does not hold the engine lock, so other requests are handled while
+     * the host waits.
+     */
+    public void waitForWork() {
+        synchronized (idleLock) {
+            long wakeup = idleUntil;
+            idleUntil = NOT_IDLE;
+            if (wakeup == NOT_IDLE || attention) { return; }
+            long delay = 0;
+            if (wakeup != Long.MAX_VALUE) {
+                delay = wakeup - Clock.now();
+                if (delay <= 0) { return; }
+            }
+            try {
+                idleLock.wait(delay);
+            } catch (InterruptedException e) {
+                // carry on, as if the wakeup was due
+            }
+        }
+    }
+    
+    /**
+     * Ask a run in progress to stop at the next safepoint, and end a wait
+     * for work
+     */
+    public void halt() {
+        haltRequested = true;
+        attend();
+    }
+    
+    /**
+     * Set the breakpoint
+     * @param address the instruction address, or zero for none
+     */
+    public synchronized void setBreakpoint(int address) {
+        breakpoint = address;
+    }
+    
+    /**
+     * @return the breakpoint address, or zero if there is none
+     */
+    public int getBreakpoint() {
+        return breakpoint;
+    }
+    
+    /**
+     * Execute the next instruction, first running compiled code if the
+     * current method has any and the limit allows more than one
+     * instruction (compiled code may run past a breakpoint). Compiled
+     * code is kept within the time slice and the next sample as well.
+     * @param limit the number of instructions which may be executed
+     * @return the number of instructions executed
+     */
+    private int execute(long limit) {
+        // execute the next instruction
+        if (profiling) { Profiler.instruction(); }
+        if (countdown != 0 && --countdown == 0) {
+            countdown = sampleInterval;
+            Sampler.sample();
+        }
+        int executed = 1;
+        if (predecode) {
+            if (limit > 1) {
+                long room = java.lang.Math.min(limit, Clock.remaining) - 1;
+                if (countdown != 0) {
+                    room = java.lang.Math.min(room, countdown - 1);
+                }
+                executed += Compiler.execute((int) room);
+                if (countdown != 0) {
+                    countdown = java.lang.Math.max(1, countdown + 1 - executed);
+                }
+            }
+            Distributor.executeDecoded();
+        } else {
+            Distributor.execute();
+        }
+        counter += executed;
+        
+        // change thread at the end of the time slice, or if it exits
+        Clock.remaining -= executed;
+        if (Clock.remaining <= 0 || Reg.thread == NULL) { tick(); }
+        return executed;
+    }
+    
+    /**
+     * Handle the requests made by other threads since the last
+     * safepoint. A request flag is always set before the attention
+     * flag, so clearing attention first means no request is missed.
+     * @return true if a run should stop here
+     */
+    private boolean safepoint() {
+        attention = false;
+        boolean stop = false;
+        if (interruptPending) {
+            interruptPending = false;
+            scheduleInterruptHandler();
+            stop = true;
+            
+            // the handler can run, so the host need not wait
+            idleUntil = NOT_IDLE;
+        }
+        if (idleUntil != NOT_IDLE) {
+            stop = true;
+        }
+        if (haltRequested) {
+            haltRequested = false;
+            stop = true;
+        }
+        if (sampleRequested) {
+            sampleRequested = false;
+            Sampler.sample();
+        }
+        return stop;
+    }
+
+    /**
+     * This method will be called by the sampler thread to ask for the
+     * call stack to be sampled at the next safepoint.
+     */
+    void requestSample() {
+        sampleRequested = true;
+        attend();
+    }
+    
+    /**
+     * Set the attention flag, waking the host if it is waiting
+     */
+    private void attend() {
+        synchronized (idleLock) {
+            attention = true;
+            idleLock.notifyAll();
+        }
+    }
+    
+    /**
+     * This method will be called by the idle thread, which only runs
+     * when no other thread can. During a run, the run stops after the
+     * current instruction so that the host can wait, in waitForWork(),
+     * until the next sleeping thread is due or another thread needs
+     * attention, instead of executing the idle loop. With the virtual
+     * clock, time skips forward to the next wakeup instead. Either way
+     * the time slice ends after the current instruction, so any thread
+     * which is due can be scheduled.
+     */
+    void idle() {
+        if (running && Mem.load(Reg.core + 4 * CORE_RUNNING) == NULL) {
+            long wakeup = Sleep.nextWakeup();
+            if (Clock.isVirtual() && wakeup != Long.MAX_VALUE) {
+                Clock.skipTo(wakeup);
+            } else if (wakeup == Long.MAX_VALUE || wakeup > Clock.now()) {
+                synchronized (idleLock) {
+                    idleUntil = wakeup;
+                    attention = true;
+                }
+            }
+        }
+        Clock.endSlice();
+    }
 
     /**
-     * This method will be called by the system timer to allow
-     * the currently running thread to be changed.
+     * Start a new time slice: change the currently running thread and
+     * wake any sleeping threads which are due.
      */
     synchronized void tick() {
+        Clock.slice();
         if (Reg.thread != NULL) {
             // save execution state of running thread
             Reg.save();
@@ -207,13 +460,120 @@ public class Implementation implements Engine, Constants {
      * @param floppy the new floppy image
      */
     public synchronized void reset(byte[] image, byte[] floppy) {
-        Mem.reset(image);
+        Mem.reset(image, memorySize);
+        Decoder.flush();
+        Dispatch.flush();
+        StackMaps.flush();
+        Compiler.reset();
+        Profiler.clear();
+        Sampler.clear();
+        Sleep.flush();
         Reg.reset();
+        Collector.reset(collector);
+        Clock.reset(virtualClock);
         counter = 0;
+        idleUntil = NOT_IDLE;
         Floppy.reset(floppy);
         clearLines();
     }
     
+    /**
+     * Save the complete state of the emulator to a snapshot file
+     * @param file the file
+     * @throws IOException if an error occurs
+     */
+    public synchronized void saveSnapshot(File file) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(counter);
+        
+        // take the interrupts first, so their keys are taken as well
+        int[] pending = interrupts.toArray();
+        write(out, keys.toArray());
+        write(out, pending);
+        out.writeInt(lines.length);
+        for (int i = 0; i < lines.length; i++) {
+            out.writeUTF(lines[i]);
+        }
+        out.flush();
+        Snapshot.save(file, bytes.toByteArray());
+    }
+    
+    /**
+     * Restore the complete state of the emulator from a snapshot file.
+     * The collector mode, memory size, time slice and clock are those of
+     * the snapshot. The whole snapshot is read before anything is
+     * restored, so if it cannot be read the emulator is left as it was.
+     * @param file the file
+     * @throws IOException if an error occurs
+     */
+    public synchronized void restoreSnapshot(File file) throws IOException {
+        Snapshot snapshot = Snapshot.read(file);
+        DataInputStream in = snapshot.getState();
+        int executed = in.readInt();
+        int[] queued = read(in, keys.getCapacity());
+        int[] pending = read(in, interrupts.getCapacity());
+        if (queued.length % 2 != 0) {
+            throw new IOException("Invalid keyboard queue: " + file);
+        }
+        String[] text = (String[]) lines.clone();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            String line = in.readUTF();
+            if (i < text.length) { text[i] = line; }
+        }
+        
+        snapshot.restore();
+        counter = executed;
+        keys.fill(queued);
+        interrupts.fill(pending);
+        interruptPending = !interrupts.isEmpty();
+        System.arraycopy(text, 0, lines, 0, lines.length);
+        Decoder.flush();
+        Dispatch.flush();
+        StackMaps.flush();
+        Compiler.reset();
+        Profiler.clear();
+        Sampler.clear();
+        Sleep.flush();
+        idleUntil = NOT_IDLE;
+        attention = true;
+    }
+    
+    /**
+     * Write an array of integers
+     * @param out the snapshot
+     * @param values the values
+     * @throws IOException if an error occurs
+     */
+    private static void write(DataOutputStream out, int[] values)
+            throws IOException {
+        out.writeInt(values.length);
+        for (int i = 0; i < values.length; i++) {
+            out.writeInt(values[i]);
+        }
+    }
+    
+    /**
+     * Read an array of integers
+     * @param in the snapshot
+     * @param max the largest number of values allowed
+     * @return the values
+     * @throws IOException if an error occurs
+     */
+    private static int[] read(DataInputStream in, int max)
+            throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > max) {
+            throw new IOException("Invalid array length: " + length);
+        }
+        int[] values = new int[length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = in.readInt();
+        }
+        return values;
+    }
+    
     /**
      * Set the debug mode
      * @param debug the new debug mode
@@ -229,6 +589,167 @@ public class Implementation implements Engine, Constants {
         return Debug.debug;
     }
     
+    /**
+     * Set the pre-decode mode
+     * @param predecode the new pre-decode mode
+     */
+    public synchronized void setPredecode(boolean predecode) {
+        Implementation.predecode = predecode;
+        Decoder.flush();
+    }
+    
+    /**
+     * @return the pre-decode mode
+     */
+    public boolean getPredecode() {
+        return predecode;
+    }
+    
+    /**
+     * Set the compile mode
+     * @param compile the new compile mode
+     */
+    public synchronized void setCompile(boolean compile) {
+        Implementation.compile = compile;
+    }
+    
+    /**
+     * @return the compile mode
+     */
+    public boolean getCompile() {
+        return compile;
+    }
+    
+    /**
+     * Set the profiling mode. Switching profiling on discards the
+     * previous profile.
+     * @param profiling the new profiling mode
+     */
+    public synchronized void setProfiling(boolean profiling) {
+        if (profiling && !Implementation.profiling) { Profiler.clear(); }
+        Implementation.profiling = profiling;
+    }
+    
+    /**
+     * @return the profiling mode
+     */
+    public boolean getProfiling() {
+        return profiling;
+    }
+    
+    /**
+     * @param csv true for comma separated values, false for a report
+     * @return the profile gathered since profiling was switched on
+     */
+    public synchronized String getProfile(boolean csv) {
+        return Profiler.report(csv);
+    }
+    
+    /**
+     * Set the sampling mode. This discards the previous samples.
+     * @param sampling the new sampling mode
+     * @param interval the interval between samples, in instructions or
+     *     milliseconds depending on the mode
+     */
+    public synchronized void setSampling(int sampling, int interval) {
+        if (sampling < SAMPLING_OFF || sampling > SAMPLING_TIMER) {
+            throw new IllegalArgumentException(
+                    "Unknown sampling mode: " + sampling);
+        }
+        if (sampling != SAMPLING_OFF && interval <= 0) {
+            throw new IllegalArgumentException(
+                    "Invalid sampling interval: " + interval);
+        }
+        Sampler.stop();
+        Sampler.clear();
+        Implementation.sampling = sampling;
+        sampleInterval = interval;
+        countdown = (sampling == SAMPLING_INSTRUCTIONS) ? interval : 0;
+        if (sampling == SAMPLING_TIMER) { Sampler.start(this, interval); }
+    }
+    
+    /**
+     * @return the sampling mode
+     */
+    public int getSampling() {
+        return sampling;
+    }
+    
+    /**
+     * @return the samples taken since sampling was set, in collapsed
+     * stack format
+     */
+    public synchronized String getSamples() {
+        return Sampler.report();
+    }
+    
+    /**
+     * Set the collector mode. This takes effect at the next reset, since
+     * the layout of memory depends on the collector.
+     * @param collector the collector mode
+     */
+    public synchronized void setCollector(int collector) {
+        if (collector < COLLECTOR_SEMISPACE
+                || collector > COLLECTOR_MARK_COMPACT) {
+            throw new IllegalArgumentException(
+                    "Unknown collector: " + collector);
+        }
+        Implementation.collector = collector;
+    }
+    
+    /**
+     * @return the collector mode used after the next reset
+     */
+    public int getCollector() {
+        return collector;
+    }
+    
+    /**
+     * Set the memory size. This takes effect at the next reset.
+     * @param size the memory size in bytes
+     */
+    public synchronized void setMemorySize(int size) {
+        if (size < Mem.MIN_SIZE || size > Mem.MAX_SIZE) {
+            throw new IllegalArgumentException("Invalid memory size: " + size);
+        }
+        memorySize = size;
+    }
+    
+    /**
+     * Set the number of instructions each thread runs before the next
+     * thread is scheduled. This starts a new time slice.
+     * @param quantum the number of instructions
+     */
+    public synchronized void setQuantum(int quantum) {
+        if (quantum <= 0) {
+            throw new IllegalArgumentException("Invalid quantum: " + quantum);
+        }
+        Clock.setQuantum(quantum);
+    }
+    
+    /**
+     * @return the number of instructions in a time slice
+     */
+    public int getQuantum() {
+        return Clock.getQuantum();
+    }
+    
+    /**
+     * Set whether guest time is derived from the number of instructions
+     * executed. This takes effect at the next reset.
+     * @param virtualClock true for a virtual clock, false for host time
+     */
+    public synchronized void setVirtualClock(boolean virtualClock) {
+        Implementation.virtualClock = virtualClock;
+    }
+    
+    /**
+     * @return true if the clock used after the next reset is virtual
+     */
+    public boolean getVirtualClock() {
+        return virtualClock;
+    }
+    
     /**
      * @return the number of console rows
      */
@@ -248,31 +769,47 @@ public class Implementation implements Engine, Constants {
     }
     
     /**
-     * Simulate keyboard press
+     * Simulate keyboard press. The interrupt handler is scheduled
+     * at the next safepoint.
+     * @param key the key code
+     */
+    public void pressKey(int key) {
+        queueKey(KEY_PRESS, key);
+    }
+    
+    /**
+     * Simulate keyboard release. The interrupt handler is scheduled
+     * at the next safepoint.
      * @param key the key code
      */
-    public synchronized void pressKey(int key) {
-        keys.addLast(new Integer(KEY_PRESS));
-        keys.addLast(new Integer(key));
-        interrupts.addLast(new Integer(KEYBOARD_INTERRUPT));
-        scheduleInterruptHandler();
+    public void releaseKey(int key) {
+        queueKey(KEY_RELEASE, key);
     }
     
     /**
-     * Simulate keyboard release
+     * Queue a keyboard event and its interrupt
+     * @param event the event (press or release)
      * @param key the key code
      */
-    public synchronized void releaseKey(int key) {
-        keys.addLast(new Integer(KEY_RELEASE));
-        keys.addLast(new Integer(key));
-        interrupts.addLast(new Integer(KEYBOARD_INTERRUPT));
-        scheduleInterruptHandler();
+    private void queueKey(int event, int key) {
+        // the key values are published before the interrupt, so the
+        // handler finds them, and the event is lost unless there is room
+        // for both, which holding the locks keeps until they are added
+        synchronized (keys) {
+            synchronized (interrupts) {
+                if (!keys.hasRoom(2) || !interrupts.hasRoom(1)) { return; }
+                keys.put(event, key);
+                interrupts.put(KEYBOARD_INTERRUPT);
+            }
+        }
+        interruptPending = true;
+        attend();
     }
     
     /**
      * Schedule the interrupt handler thread
      */
-    private synchronized void scheduleInterruptHandler() {
+    private void scheduleInterruptHandler() {
         int notifier = Mem.load(Reg.core + 4 * CORE_NOTIFIER);
         int suspended = Mem.load(notifier + 4 * THREAD_SUSPENDED);
         if (suspended == TRUE) {
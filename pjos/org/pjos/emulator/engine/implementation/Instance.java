@@ -38,10 +38,10 @@ throw new UnsupportedOperationException("Don't hold your breath!");
     
     /**
      * anewarray instruction
+     * @param index the constant pool index
      */
-    static void anewarray() {
+    static void anewarray(int index) {
         // look up component type
-        int index = Instruction.twoByteCodes(1);
         int entry = Resolve.resolve(index, Entry.TYPE);
         if (entry == NULL) { return; } // rollback because gc has been done
         int arrayType = Mem.load(entry + 4 * TYPE_ARRAY_TYPE);
@@ -83,10 +83,10 @@ throw new UnsupportedOperationException("Don't hold your breath!");
     
     /**
      * newarray instruction
+     * @param atype the primitive array type
      */
-    static void newarray() {
+    static void newarray(int atype) {
         // figure out required width
-        int atype = Instruction.byteCode(1);
         int width = getWidth(atype);
 
         // figure out size
@@ -117,10 +117,10 @@ throw new UnsupportedOperationException("Don't hold your breath!");
     
     /**
      * new instruction
+     * @param index the constant pool index
      */
-    static void op_new() {
+    static void op_new(int index) {
         // resolve entry
-        int index = Instruction.twoByteCodes(1);
         int entry = Resolve.resolve(index, Entry.TYPE);
         if (entry == NULL) { return; } // rollback because gc has been done
         
@@ -26,8 +26,6 @@ import java.io.OutputStream;
 
 import java.lang.reflect.Modifier;
 
-import java.util.LinkedList;
-
 import org.pjos.common.runtime.Entry;
 
 /**
@@ -41,49 +39,48 @@ class Invoke implements Constants {
 
     /**
      * invokeinterface instruction
+     * @param index the constant pool index
      */
-    static void invokeinterface() {
-        // read the constant pool entry
-        int index = Instruction.twoByteCodes(1);
-        int count = Instruction.byteCode(3);
+    static void invokeinterface(int index) {
+        invokeinterface(index, null);
+    }
+    
+    /**
+     * invokeinterface instruction, using the given inline cache
+     * @param index the constant pool index
+     * @param site the inline cache for the call site, or null
+     */
+    static void invokeinterface(int index, CallSite site) {
+        // check the remaining operands (the decoder also checks these)
+        if (Debug.debug) {
+            checkInterfaceOperands(
+                    Instruction.byteCode(3), Instruction.byteCode(4));
+        }
+        dispatch(index, site, 5);
+    }
+    
+    /**
+     * Check the count and zero operands of an invokeinterface instruction
+     * @param count the count operand
+     * @param zero the zero operand
+     */
+    static void checkInterfaceOperands(int count, int zero) {
         if (count <= 0) {
             throw new IllegalStateException(
                     "Count should not be zero: " + count);
         }
-        int zero = Instruction.byteCode(4);
         if (zero != 0) {
             throw new IllegalStateException(
                     "Value should be zero: 0x" + Integer.toHexString(zero));
         }
-
-        // look up the method in the constant pool
-        int entry = Resolve.resolve(index, Entry.METHOD);
-        if (entry == NULL) { return; } // roll back if not resolved
-        int argcount = Mem.load(entry + 4 * METHOD_ARG_COUNT);
-
-        // Resolve the method by searching through the
-        // object's available methods. Check all super
-        // classes until found.
-        int descriptor = Mem.load(entry + 4 * ENTRY_DESCRIPTOR);
-        int name = Mem.load(entry + 4 * ENTRY_NAME);
-        int object = Stack.peekPointer(argcount - 1);
-        if (object == NULL) {
-            Exceptions.throwException(CORE_THROW_NULL_POINTER);
-            return;
-        }
-        int type = Mem.load(object + 4 * OBJECT_TYPE);
-        int method = resolveMethod(type, name, descriptor);
-        
-        // execute
-        executeMethod(object, method, 5);
     }
     
     /**
      * invokestatic instruction
+     * @param index the constant pool index
      */
-    static void invokestatic() {
+    static void invokestatic(int index) {
         // read the constant pool entry
-        int index = Instruction.twoByteCodes(1);
         int entry = Resolve.resolve(index, Entry.METHOD);
         if (entry == NULL) { return; } // roll back, gc done
 
@@ -94,10 +91,10 @@ class Invoke implements Constants {
     
     /**
      * invokespecial instruction
+     * @param index the constant pool index
      */
-    static void invokespecial() {
+    static void invokespecial(int index) {
         // read the constant pool entry
-        int index = Instruction.twoByteCodes(1);
         int entry = Resolve.resolve(index, Entry.METHOD);
         if (entry == NULL) { return; } // roll back, gc done
 
@@ -112,30 +109,127 @@ class Invoke implements Constants {
     }
     
     /**
-     * invokevirtual instruction
+     * Resolve the constant pool entry of an invoke instruction in decoded
+     * code, and replace the instruction with its quick form. The program
+     * counter is not changed, so the quick form is executed next. The
+     * operands are the method entry and either the owner for invokestatic
+     * or the argument count.
+     * @param code the decoded code
+     * @param pc the program counter
+     * @param index the constant pool index
+     * @param isStatic true for invokestatic
      */
-    static void invokevirtual() {
-        // read the constant pool entry index
-        int index = Instruction.twoByteCodes(1);
+    static void quicken(Code code, int pc, int index, boolean isStatic) {
+        // read the constant pool entry
         int entry = Resolve.resolve(index, Entry.METHOD);
         if (entry == NULL) { return; } // roll back, gc done
 
-        // Get a pointer to the object for which the method will be invoked
+        Decoder.refer(entry);
+        if (isStatic) {
+            int owner = Mem.load(entry + 4 * ENTRY_OWNER);
+            Decoder.refer(owner);
+            code.quicken(pc, entry, owner);
+        } else {
+            code.quicken(pc, entry, Mem.load(entry + 4 * METHOD_ARG_COUNT));
+        }
+    }
+    
+    /**
+     * invokestatic instruction, quick form
+     * @param method the method
+     * @param owner the class which owns the method
+     */
+    static void invokestatic_quick(int method, int owner) {
+        executeMethod(owner, method, 3);
+    }
+    
+    /**
+     * invokespecial instruction, quick form
+     * @param method the method
+     * @param argcount the number of argument words, including the object
+     */
+    static void invokespecial_quick(int method, int argcount) {
+        int object = Stack.peekPointer(argcount - 1);
+        if (object == NULL) {
+            Exceptions.throwException(CORE_THROW_NULL_POINTER);
+            return;
+        }
+        executeMethod(object, method, 3);
+    }
+    
+    /**
+     * invokevirtual or invokeinterface instruction, quick form
+     * @param entry the method entry
+     * @param argcount the number of argument words, including the object
+     * @param site the inline cache for the call site
+     * @param pcOffset the length of the invoke instruction
+     */
+    static void dispatch_quick(int entry, int argcount, CallSite site,
+            int pcOffset) {
+        select(entry, argcount, site, pcOffset);
+    }
+    
+    /**
+     * invokevirtual instruction
+     * @param index the constant pool index
+     */
+    static void invokevirtual(int index) {
+        invokevirtual(index, null);
+    }
+    
+    /**
+     * invokevirtual instruction, using the given inline cache
+     * @param index the constant pool index
+     * @param site the inline cache for the call site, or null
+     */
+    static void invokevirtual(int index, CallSite site) {
+        dispatch(index, site, 3);
+    }
+    
+    /**
+     * Invoke the method selected by the type of the receiver object.
+     * This is used for both virtual and interface invocations.
+     * @param index the constant pool index
+     * @param site the inline cache for the call site, or null
+     * @param pcOffset the length of the invoke instruction
+     */
+    private static void dispatch(int index, CallSite site, int pcOffset) {
+        // read the constant pool entry
+        int entry = Resolve.resolve(index, Entry.METHOD);
+        if (entry == NULL) { return; } // roll back, gc done
         int argcount = Mem.load(entry + 4 * METHOD_ARG_COUNT);
+        select(entry, argcount, site, pcOffset);
+    }
+    
+    /**
+     * Invoke the method selected by the type of the receiver object,
+     * once the constant pool entry has been resolved
+     * @param entry the method entry
+     * @param argcount the number of argument words, including the object
+     * @param site the inline cache for the call site, or null
+     * @param pcOffset the length of the invoke instruction
+     */
+    private static void select(int entry, int argcount, CallSite site,
+            int pcOffset) {
+        // Get a pointer to the object for which the method will be invoked
         int object = Stack.peekPointer(argcount - 1);
         if (object == NULL) {
             Exceptions.throwException(CORE_THROW_NULL_POINTER);
             return;
         }
         
-        // Resolve the method
-        int descriptor = Mem.load(entry + 4 * ENTRY_DESCRIPTOR);
-        int name = Mem.load(entry + 4 * ENTRY_NAME);
+        // Resolve the method, trying the inline cache first
         int type = Mem.load(object + 4 * OBJECT_TYPE);
-        int method = resolveMethod(type, name, descriptor);
+        int method = (site == null) ? NULL : site.get(type);
+        if (method == NULL) {
+            int descriptor = Mem.load(entry + 4 * ENTRY_DESCRIPTOR);
+            int name = Mem.load(entry + 4 * ENTRY_NAME);
+            method = resolveMethod(type, name, descriptor);
+            if (site != null) { site.put(type, method); }
+        }
 
         // execute
-        executeMethod(object, method, 3);
+        executeMethod(object, method, pcOffset);
     }
 
     /**
@@ -178,11 +272,15 @@ class Invoke implements Constants {
         // calculate size required
         int maxStack = Mem.load(method + 4 * METHOD_MAX_STACK);
         int maxLocals = Mem.load(method + 4 * METHOD_MAX_LOCALS);
-        int numWords = FRAME_LOCALS + 2 * maxStack + 2 * maxLocals;
-
-        // allocate space for new frame
-        int address = Allocate.allocate(numWords, HEADER_STACK_FRAME);
-        if (address == NULL) { return false; } // roll back gc done
+        int numWords = FRAME_LOCALS + maxStack + maxLocals;
+
+        // allocate space for new frame, in the heap if no stack
+        // segment has room
+        int address = Segments.push(Reg.frame, numWords);
+        if (address == NULL) {
+            address = Allocate.allocate(numWords, HEADER_STACK_FRAME);
+            if (address == NULL) { return false; } // roll back gc done
+        }
 
         // can increment lock count now that instruction can't be rolled back
         if (isSynchronized) { Monitor.increment(lock, 1); }
@@ -207,14 +305,7 @@ class Invoke implements Constants {
 
          // Pop arguments off current stack and write to new frame
         for (int i = argcount - 1; i >= 0; i--) {
-            if (Stack.pointerOnStack()) {
-                Mem.store(Stack.popPointer(),
-                        address + 4 * FRAME_LOCALS + 8 * i);
-                Mem.store(TRUE, address + 4 * FRAME_LOCALS + 8 * i + 4);
-            } else {
-                Mem.store(Stack.popData(), address + 4 * FRAME_LOCALS + 8 * i);
-                Mem.store(FALSE, address + 4 * FRAME_LOCALS + 8 * i + 4);
-            }
+            Mem.store(Stack.popData(), address + 4 * FRAME_LOCALS + 4 * i);
         }
 
         // save current register values in current frame
@@ -291,20 +382,19 @@ class Invoke implements Constants {
                 }
                 break;
             
-            // return the current frame
+            // return the current frame, which must be in the heap
             case MAGIC_RUNTIME_FRAME_CURRENT:
+                if (!Segments.promote()) {
+                    return; // roll back because gc has been done
+                }
                 Stack.pushPointer(Reg.frame);
                 Reg.instruction += pcOffset;
                 break;
             
             // put system to sleep to avoid wasting processor time idling
             case MAGIC_RUNTIME_IDLE_SLEEP:
-                try {
-                    Thread.sleep(50);
-                } catch (InterruptedException e) {
-                    // ignore any interruptions
-                }
                 Reg.instruction += pcOffset;
+                Implementation.get().idle();
                 break;
                 
             // create a statics object
@@ -425,7 +515,7 @@ class Invoke implements Constants {
             // return system time in milliseconds
             case MAGIC_JAVA_SYSTEM_TIME:
                 {
-                    long time = System.currentTimeMillis();
+                    long time = Clock.now();
                     Stack.pushLong(time);
                     Reg.instruction += pcOffset;
                 }
@@ -512,28 +602,14 @@ class Invoke implements Constants {
                 
             // read the next interrupt value
             case MAGIC_EMULATOR_NEXT_INTERRUPT:
-                {
-                    LinkedList interrupts = Implementation.interrupts;
-                    Integer next = (!interrupts.isEmpty())
-                            ? (Integer) interrupts.removeFirst()
-                            : null;
-                    int value = (next != null) ? next.intValue() : -1;
-                    Stack.pushData(value);
-                    Reg.instruction += pcOffset;
-                }
+                Stack.pushData(Implementation.interrupts.take());
+                Reg.instruction += pcOffset;
                 break;
                 
             // read the next keyboard value
             case MAGIC_EMULATOR_READ_FROM_KEYBOARD:
-                {
-                    LinkedList keys = Implementation.keys;
-                    Integer next = (!keys.isEmpty())
-                            ? (Integer) keys.removeFirst()
-                            : null;
-                    int value = (next != null) ? next.intValue() : -1;
-                    Stack.pushData(value);
-                    Reg.instruction += pcOffset;
-                }
+                Stack.pushData(Implementation.keys.take());
+                Reg.instruction += pcOffset;
                 break;
                 
             // illegal id
@@ -544,21 +620,12 @@ class Invoke implements Constants {
     }
     
     /**
-     * Resolve a method address by a recursive search through the
-     * method table of a class and its superclasses.
+     * Resolve a method address using the method table of a class,
+     * which covers the class and its superclasses.
      */
     static int resolveMethod(int methodType, int name, int descriptor) {
         if (methodType == NULL) { throw new IllegalArgumentException(); }
-        int method = NULL;
-        int type = methodType;
-        while (type != NULL && method == NULL) {
-            method = findMethod(type, name, descriptor);
-            
-            // if not found, check superclass
-            if (method == NULL) {
-                type = Mem.load(type + 4 * TYPE_SUPER_TYPE);
-            }
-        }
+        int method = Dispatch.lookup(methodType, name, descriptor);
         
         // throw exception if not found
         if (method == NULL) {
@@ -572,27 +639,6 @@ class Invoke implements Constants {
         return method;
     }
     
-    /**
-     * Find the method matching the given name and descriptor in the
-     * given class. If no method is found return NULL (0x00).
-     */
-    static int findMethod(int type, int name, int descriptor) {
-        int result = NULL;
-        int array = Mem.load(type + 4 * TYPE_METHODS);
-        if (array != NULL) {
-            int length = Mem.load(array + 4 * ARRAY_LENGTH);
-            for (int i = 0; i < length && result == NULL; i++) {
-                int method = Mem.load(array + 4 * ARRAY_DATA + 4 * i);
-                int d = Mem.load(method + 4 * ENTRY_DESCRIPTOR);
-                int n = Mem.load(method + 4 * ENTRY_NAME);
-                if (name == n && descriptor == d) {
-                    return method;
-                }
-            }
-        }
-        return NULL;
-    }
-    
     /**
      * Return an output stream to the console log file
      * @return the output stream
@@ -29,18 +29,18 @@ class Load implements Constants {
     
     /**
      * ldc instruction
+     * @param index the index
      */
-    static void ldc() {
-        int index = Instruction.byteCode(1);
+    static void ldc(int index) {
         loadConstant(index);
         Reg.instruction += 2;
     }
     
     /**
      * ldc_w instruction
+     * @param index the index
      */
-    static void ldc_w() {
-        int index = Instruction.twoByteCodes(1);
+    static void ldc_w(int index) {
         loadConstant(index);
         Reg.instruction += 3;
     }
@@ -62,9 +62,9 @@ class Load implements Constants {
     
     /**
      * ldc2_w instruction
+     * @param index the index
      */
-    static void ldc2_w() {
-        int index = Instruction.twoByteCodes(1);
+    static void ldc2_w(int index) {
         int entry = Mem.load(Reg.pool + 4 * index);
         int highBytes = Mem.load(entry + 4 * CONSTANT_FIRST);
         int lowBytes = Mem.load(entry + 4 * CONSTANT_SECOND);
@@ -75,9 +75,9 @@ class Load implements Constants {
     
     /**
      * iload instruction
+     * @param index the index
      */
-    static void iload() {
-        int index = Instruction.byteCode(1);
+    static void iload(int index) {
         Stack.pushData(Locals.getDataFromLocal(index));
         Reg.instruction += 2;
     }
@@ -93,9 +93,9 @@ class Load implements Constants {
     
     /**
      * lload instruction
+     * @param index the index
      */
-    static void lload() {
-        int index = Instruction.byteCode(1);
+    static void lload(int index) {
         Stack.pushLong(Locals.getLongFromLocal(index));
         Reg.instruction += 2;
     }
@@ -111,9 +111,9 @@ class Load implements Constants {
     
     /**
      * fload instruction
+     * @param index the index
      */
-    static void fload() {
-        int index = Instruction.byteCode(1);
+    static void fload(int index) {
         Stack.pushData(Locals.getDataFromLocal(index));
         Reg.instruction += 2;
     }
@@ -129,9 +129,9 @@ class Load implements Constants {
     
     /**
      * dload instruction
+     * @param index the index
      */
-    static void dload() {
-        int index = Instruction.byteCode(1);
+    static void dload(int index) {
         Stack.pushLong(Locals.getLongFromLocal(index));
         Reg.instruction += 2;
     }
@@ -146,9 +146,9 @@ class Load implements Constants {
     
     /**
      * aload instruction
+     * @param index the index
      */
-    static void aload() {
-        int index = Instruction.byteCode(1);
+    static void aload(int index) {
         Stack.pushPointer(Locals.getPointerFromLocal(index));
         Reg.instruction += 2;
     }
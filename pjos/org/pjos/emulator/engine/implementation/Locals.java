@@ -33,12 +33,8 @@ class Locals implements Constants {
      */
     static int getPointerFromLocal(int index) {
         if (Debug.debug) { checkLocalIndex(index); }
-        int address = Reg.locals + 8 * index;
-        int result = Mem.load(address);
-        int flag = Mem.load(address + 4);
-        if (flag == FALSE) {
-            throw new IllegalStateException("Data found at index " + index);
-        }
+        int result = Mem.load(Reg.locals + 4 * index);
+        if (Debug.debug) { Stack.checkPointer(result); }
         return result;
     }
 
@@ -50,13 +46,7 @@ class Locals implements Constants {
      */
     static int getDataFromLocal(int index) {
         if (Debug.debug) { checkLocalIndex(index); }
-        int address = Reg.locals + 8 * index;
-        int result = Mem.load(address);
-        int flag = Mem.load(address + 4);
-        if (flag == TRUE) {
-            throw new IllegalStateException("Pointer found at index " + index);
-        }
-        return result;
+        return Mem.load(Reg.locals + 4 * index);
     }
 
     /**
@@ -79,9 +69,7 @@ class Locals implements Constants {
      */
     static void storeDataToLocal(int value, int index) {
         if (Debug.debug) { checkLocalIndex(index); }
-        int address = Reg.locals + 8 * index;
-        Mem.store(value, address);
-        Mem.store(FALSE, address + 4);
+        Mem.store(value, Reg.locals + 4 * index);
     }
 
     /**
@@ -92,9 +80,7 @@ class Locals implements Constants {
      */
     static void storePointerToLocal(int pointer, int index) {
         if (Debug.debug) { checkLocalIndex(index); }
-        int address = Reg.locals + 8 * index;
-        Mem.store(pointer, address);
-        Mem.store(TRUE, address + 4);
+        Mem.store(pointer, Reg.locals + 4 * index);
     }
 
     /**
@@ -127,10 +113,10 @@ class Locals implements Constants {
 
     /**
      * iinc instruction
+     * @param index the local variable index
+     * @param amount the increment
      */
-    static void iinc() {
-        int index = Instruction.byteCode(1);
-        int amount = Instruction.signByteCode(2);
+    static void iinc(int index, int amount) {
         int value = getDataFromLocal(index);
         value += amount;
         storeDataToLocal(value, index);
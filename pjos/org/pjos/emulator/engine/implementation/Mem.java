@@ -20,10 +20,26 @@ Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
 */
 package org.pjos.emulator.engine.implementation;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.pjos.emulator.engine.Engine;
+
 /**
- * Big-endian memory for the virtual machine implementation.
+ * Big-endian memory for the virtual machine implementation. The memory
+ * size is set at reset. Memory is a private mapping of an empty file, so
+ * the host only commits a page of memory when it is first written, and
+ * the unused parts of a large memory cost nothing. Writes are never
+ * written back to the file. The mapping is kept, and cleared, for the
+ * next reset of the same size.
  */
-class Mem {
+class Mem implements Constants {
     
     /**
      * The location of the first java space. The pointer value 0x0 is
@@ -32,16 +48,71 @@ class Mem {
      */
     static final int OFFSET = 0x4;
     
+    /** The smallest memory size allowed */
+    static final int MIN_SIZE = OFFSET + 9 * 64 * 1024;
+    
+    /** The largest memory size allowed */
+    static final int MAX_SIZE = 1024 * 1024 * 1024;
+    
+    /** The number of address bits covered by each card */
+    static final int CARD_SHIFT = 9; // 512 byte cards
+    
+    /** The number of address bits covered by each stack segment */
+    static final int SEGMENT_SHIFT = 14; // 16KB segments
+    
+    /** The size of the pages in which memory is saved */
+    static final int PAGE = 4096;
+    
+    /** The memory size in bytes */
+    static int size;
+    
     /**
-     * The size of a java space
+     * The size of a java space. Each java space is four ninths of the
+     * memory below the stack segments.
      */
-    static final int LIMIT = 4 * 1024 * 1024; // 4MB per java space
+    static int limit;
     
-    /** The memory size in bytes */
-    static final int SIZE = OFFSET + (2 * LIMIT); // just over 8MB
+    /**
+     * The location of the nursery, where the generational collector
+     * allocates new objects. It follows the two java spaces and takes
+     * the rest of the memory below the stack segments.
+     */
+    static int nursery;
+    
+    /** The size of the nursery */
+    static int nurserySize;
+    
+    /**
+     * The location of the stack segments, which hold the frames of
+     * running methods. They take the last sixteenth of memory, or a
+     * single segment if that is smaller.
+     */
+    static int stacks;
+    
+    /**
+     * The card table. A 32-bit store of a nursery address below the
+     * nursery marks the card holding the address, so the generational
+     * collector can find the old objects which may have been given
+     * pointers to new ones since the last collection. Other values, which
+     * include all the stores of the other collectors, never mark a card.
+     */
+    static byte[] cards;
+    
+    /**
+     * The lowest value which marks a card: the nursery address with the
+     * generational collector, otherwise a value above all addresses
+     */
+    private static int young = Integer.MAX_VALUE;
     
     /** The memory */
-    private static byte[] memory = new byte[SIZE];
+    private static ByteBuffer memory;
+    
+    /** The mapping of an empty file, kept for the next reset */
+    private static ByteBuffer mapping;
+    
+    static {
+        reset(new byte[0], Engine.DEFAULT_MEMORY_SIZE);
+    }
     
     /**
      * Store an 8-bit value at the given address
@@ -49,11 +120,8 @@ class Mem {
      * @param address the address
      */
     public static void storeByte(int value, int address) {
-        if (address < OFFSET || address >= SIZE) {
-            throw new IllegalArgumentException(
-                    "Invalid address: 0x" + Integer.toHexString(address));
-        }
-        memory[address] = (byte) (value & 0xff);
+        if (Debug.debug) { checkStore(address, 1); }
+        memory.put(address, (byte) value);
     }
 
     /**
@@ -62,8 +130,8 @@ class Mem {
      * @param address the address
      */
     public static void storeShort(int value, int address) {
-        storeByte(value >>> 8, address);
-        storeByte(value, address + 1);
+        if (Debug.debug) { checkStore(address, 2); }
+        memory.putShort(address, (short) value);
     }
 
     /**
@@ -72,10 +140,11 @@ class Mem {
      * @param address the address
      */
     public static void store(int value, int address) {
-        storeByte(value >>> 24, address);
-        storeByte(value >>> 16, address + 1);
-        storeByte(value >>> 8, address + 2);
-        storeByte(value, address + 3);
+        if (Debug.debug) { checkStore(address, 4); }
+        memory.putInt(address, value);
+        if (value >= young && value < stacks && address < young) {
+            cards[address >>> CARD_SHIFT] = TRUE;
+        }
     }
 
     /**
@@ -84,11 +153,8 @@ class Mem {
      * @return the value
      */
     public static int loadByte(int address) {
-        if (address < 0 || address >= SIZE) {
-            throw new IllegalArgumentException(
-                    "Invalid address: 0x" + Integer.toHexString(address));
-        }
-        return (int) (memory[address] & 0xff);
+        if (Debug.debug) { checkLoad(address, 1); }
+        return memory.get(address) & 0xff;
     }
 
     /**
@@ -97,8 +163,8 @@ class Mem {
      * @return the value
      */
     public static int loadShort(int address) {
-        return loadByte(address) << 8
-            | loadByte(address + 1);
+        if (Debug.debug) { checkLoad(address, 2); }
+        return memory.getShort(address) & 0xffff;
     }
 
     /**
@@ -107,39 +173,230 @@ class Mem {
      * @return the value
      */
     public static int load(int address) {
-        return loadByte(address) << 24
-            | loadByte(address + 1) << 16
-            | loadByte(address + 2) << 8
-            | loadByte(address + 3);
+        if (Debug.debug) { checkLoad(address, 4); }
+        return memory.getInt(address);
+    }
+
+    /**
+     * Check that a value of the given size can be stored at the given
+     * address. Stores below the offset would overwrite the null pointer.
+     * Outside debug mode only the buffer's own bounds checks apply.
+     * @param address the address
+     * @param size the size of the value in bytes
+     */
+    private static void checkStore(int address, int size) {
+        if (address < OFFSET || address > Mem.size - size) {
+            throw new IllegalArgumentException(
+                    "Invalid address: 0x" + Integer.toHexString(address));
+        }
     }
 
     /**
-     * Reset the memory. The given image is loaded into the first java space.
-     * The rest of memory is zeroed.
+     * Check that a value of the given size can be loaded from the
+     * given address.
+     * @param address the address
+     * @param size the size of the value in bytes
+     */
+    private static void checkLoad(int address, int size) {
+        if (address < 0 || address > Mem.size - size) {
+            throw new IllegalArgumentException(
+                    "Invalid address: 0x" + Integer.toHexString(address));
+        }
+    }
+
+    /**
+     * Reset the memory with the given size. The given image is loaded into
+     * the first java space. The rest of memory and the card table are zero.
      * @param image the memory image
+     * @param size the memory size in bytes
      */
-    static void reset(byte[] image) {
-        int to = 0;
-        int from = 0;
-        int max = image.length;
-        while (to < OFFSET) {
-            memory[to++] = 0; // zero to offset
+    static void reset(byte[] image, int size) {
+        layout(size);
+        if (image.length > limit) {
+            throw new IllegalArgumentException("Memory image is larger than "
+                    + "a java space: " + image.length + " bytes");
         }
-        while (from < max && to < SIZE) {
-            memory[to++] = image[from++]; // load image
+        if (mapping != null && mapping.capacity() == Mem.size) {
+            clear(mapping);
+        } else {
+            mapping = null; // drop the old mapping before making another
+            mapping = allocate(Mem.size);
         }
-        while (to < SIZE) {
-            memory[to++] = 0; // zero to end of memory
+        memory = mapping;
+        ByteBuffer view = memory.duplicate();
+        view.position(OFFSET);
+        view.put(image);
+        cards = new byte[cardCount(Mem.size)];
+    }
+    
+    /**
+     * Set whether stores of nursery addresses mark cards, which only the
+     * generational collector reads
+     * @param marked true if cards are marked
+     */
+    static void markCards(boolean marked) {
+        young = marked ? nursery : Integer.MAX_VALUE;
+    }
+    
+    /**
+     * Set the memory size, and divide memory into the java spaces, the
+     * nursery and the stack segments. No cards are marked until the
+     * collector asks for them.
+     * @param size the memory size in bytes
+     */
+    private static void layout(int size) {
+        if (size < MIN_SIZE || size > MAX_SIZE) {
+            throw new IllegalArgumentException("Invalid memory size: " + size);
+        }
+        Mem.size = size & ~3;
+        stacks = Mem.size - (segmentCount(size) << SEGMENT_SHIFT);
+        limit = ((stacks - OFFSET) / 9 * 4) & ~3;
+        nursery = OFFSET + (2 * limit);
+        nurserySize = stacks - nursery;
+        young = Integer.MAX_VALUE;
+    }
+    
+    /**
+     * @param size the memory size in bytes
+     * @return the number of cards in the card table
+     */
+    static int cardCount(int size) {
+        return (size >> CARD_SHIFT) + 1;
+    }
+    
+    /**
+     * @param size the memory size in bytes
+     * @return the number of stack segments
+     */
+    static int segmentCount(int size) {
+        return java.lang.Math.max(1, size >> (4 + SEGMENT_SHIFT));
+    }
+    
+    /**
+     * Write the memory size and the card table to a snapshot
+     * @param out the snapshot
+     * @throws IOException if an error occurs
+     */
+    static void write(DataOutputStream out) throws IOException {
+        out.writeInt(size);
+        out.write(cards);
+    }
+    
+    /**
+     * Read the memory size and the card table from a snapshot. The
+     * memory itself must then be mapped from the snapshot.
+     * @param in the snapshot
+     * @param restore true to restore what is read, false to only check it
+     * @return the memory size in bytes
+     * @throws IOException if an error occurs
+     */
+    static int read(DataInputStream in, boolean restore) throws IOException {
+        int size = in.readInt();
+        if (size < MIN_SIZE || size > MAX_SIZE || (size & 3) != 0) {
+            throw new IOException("Invalid memory size: " + size);
+        }
+        byte[] table = new byte[cardCount(size)];
+        in.readFully(table);
+        if (restore) {
+            layout(size);
+            cards = table;
+        }
+        return size;
+    }
+    
+    /**
+     * Write the memory to a snapshot, one page at a time. Pages which are
+     * all zero are skipped, leaving holes which take no space on disk.
+     * @param file the snapshot, already long enough to hold the memory
+     * @param position the position of the memory in the snapshot
+     * @throws IOException if an error occurs
+     */
+    static void writePages(RandomAccessFile file, long position)
+            throws IOException {
+        FileChannel channel = file.getChannel();
+        for (int page = 0; page < size; page += PAGE) {
+            int end = java.lang.Math.min(page + PAGE, size);
+            boolean zero = true;
+            for (int i = page; i < end && zero; i += 4) {
+                zero = (memory.getInt(i) == 0);
+            }
+            if (zero) { continue; }
+            ByteBuffer view = memory.duplicate();
+            view.limit(end);
+            view.position(page);
+            while (view.hasRemaining()) {
+                channel.write(view, position + view.position());
+            }
+        }
+    }
+    
+    /**
+     * Map the memory from a snapshot. The mapping is private, so pages are
+     * only read from the snapshot when first used, and writes are never
+     * written back to it.
+     * @param file the snapshot
+     * @param position the position of the memory in the snapshot
+     * @param size the memory size in bytes
+     * @return the memory
+     * @throws IOException if an error occurs
+     */
+    static ByteBuffer map(RandomAccessFile file, long position, int size)
+            throws IOException {
+        return file.getChannel().map(
+                FileChannel.MapMode.PRIVATE, position, size);
+    }
+    
+    /**
+     * Use memory mapped from a snapshot, once the memory size and card
+     * table have been restored
+     * @param buffer the memory
+     */
+    static void restore(ByteBuffer buffer) {
+        memory = buffer;
+    }
+    
+    /**
+     * Allocate zeroed memory of the given size, as a private mapping of
+     * an empty file, since the host allocates its pages on first use
+     * @param size the memory size in bytes
+     * @return the memory
+     */
+    private static ByteBuffer allocate(int size) {
+        try {
+            File file = File.createTempFile("pjos", ".mem");
+            file.deleteOnExit();
+            RandomAccessFile data = new RandomAccessFile(file, "rw");
+            try {
+                data.setLength(size);
+                return data.getChannel().map(
+                        FileChannel.MapMode.PRIVATE, 0, size);
+            } finally {
+                data.close();
+                file.delete(); // fails on some platforms while mapped
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Memory not mapped: " + e);
+        }
+    }
+    
+    /**
+     * Zero the given memory. Pages which are already zero are only read,
+     * so pages the host has not committed stay that way.
+     * @param buffer the memory
+     */
+    private static void clear(ByteBuffer buffer) {
+        int size = buffer.capacity();
+        for (int page = 0; page < size; page += PAGE) {
+            int end = java.lang.Math.min(page + PAGE, size);
+            boolean zero = true;
+            for (int i = page; i < end && zero; i += 4) {
+                zero = (buffer.getInt(i) == 0);
+            }
+            if (zero) { continue; }
+            for (int i = page; i < end; i += 4) {
+                buffer.putInt(i, 0);
+            }
         }
     }
      
-}
-
-
-
-
-
-
-
-
-
+}
\ No newline at end of file
@@ -0,0 +1,155 @@
+/*
+Copyright 2002 Simon Daniel
+email: simon@pjos.org
+
+This file is part of PJOS.
+
+This program is free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+package org.pjos.emulator.engine.implementation;
+
+/**
+ * A virtual method table for a single type. This maps each method
+ * name and descriptor pair visible in the type to the method which
+ * an invocation on an instance of the type will execute. Since the
+ * runtime has no default methods, the same table also serves as the
+ * interface method table.
+ */
+class MethodTable implements Constants {
+
+    /** The method name pointers (hash table keys) */
+    private int[] names;
+
+    /** The method descriptor pointers (hash table keys) */
+    private int[] descriptors;
+
+    /** The methods */
+    private int[] methods;
+
+    /** The mask used to wrap hash table indexes */
+    private int mask;
+
+    /** Set if the table refers to an object in the nursery */
+    boolean young;
+
+    /**
+     * Build the table for the given type. Methods are entered starting
+     * with the topmost superclass, so overriding methods replace the
+     * methods they override.
+     * @param type the type
+     */
+    MethodTable(int type) {
+        // count the methods and collect the class hierarchy
+        int depth = 0;
+        int count = 0;
+        for (int t = type; t != NULL; t = Mem.load(t + 4 * TYPE_SUPER_TYPE)) {
+            count += methodCount(t);
+            depth++;
+            young |= Collector.isYoung(t);
+        }
+        int[] hierarchy = new int[depth];
+        int t = type;
+        for (int i = depth - 1; i >= 0; i--) {
+            hierarchy[i] = t;
+            t = Mem.load(t + 4 * TYPE_SUPER_TYPE);
+        }
+
+        // size the hash table to be at most half full
+        int capacity = 4;
+        while (capacity < 2 * count) { capacity <<= 1; }
+        names = new int[capacity];
+        descriptors = new int[capacity];
+        methods = new int[capacity];
+        mask = capacity - 1;
+
+        // enter the methods
+        for (int i = 0; i < depth; i++) {
+            int array = Mem.load(hierarchy[i] + 4 * TYPE_METHODS);
+            int length = methodCount(hierarchy[i]);
+            for (int j = 0; j < length; j++) {
+                int method = Mem.load(array + 4 * ARRAY_DATA + 4 * j);
+                put(method);
+            }
+        }
+    }
+
+    /**
+     * Return the method with the given name and descriptor
+     * @param name the name string pointer
+     * @param descriptor the descriptor string pointer
+     * @return the method, or NULL if there is none
+     */
+    int get(int name, int descriptor) {
+        int i = hash(name, descriptor) & mask;
+        while (methods[i] != NULL) {
+            if (names[i] == name && descriptors[i] == descriptor) {
+                return methods[i];
+            }
+            i = (i + 1) & mask;
+        }
+        return NULL;
+    }
+
+    /**
+     * Enter the given method, replacing any method with the
+     * same name and descriptor
+     * @param method the method
+     */
+    private void put(int method) {
+        int name = Mem.load(method + 4 * ENTRY_NAME);
+        int descriptor = Mem.load(method + 4 * ENTRY_DESCRIPTOR);
+        int i = hash(name, descriptor) & mask;
+        while (methods[i] != NULL) {
+            if (names[i] == name && descriptors[i] == descriptor) {
+                break;
+            }
+            i = (i + 1) & mask;
+        }
+        names[i] = name;
+        descriptors[i] = descriptor;
+        methods[i] = method;
+        young |= Collector.isYoung(method) || Collector.isYoung(name)
+                || Collector.isYoung(descriptor);
+    }
+
+    /**
+     * @param type the type
+     * @return the number of methods declared by the type
+     */
+    private static int methodCount(int type) {
+        int array = Mem.load(type + 4 * TYPE_METHODS);
+        return (array == NULL) ? 0 : Mem.load(array + 4 * ARRAY_LENGTH);
+    }
+
+    /**
+     * @param name the name string pointer
+     * @param descriptor the descriptor string pointer
+     * @return the hash code for the pair
+     */
+    private static int hash(int name, int descriptor) {
+        int h = (name >>> 2) * 31 + (descriptor >>> 2);
+        return h ^ (h >>> 16);
+    }
+
+}
+
+
+
+
+
+
+
+
+
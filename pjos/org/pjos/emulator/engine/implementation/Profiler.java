@@ -0,0 +1,406 @@
+/*
+Copyright 2002 Simon Daniel
+email: simon@pjos.org
+
+This file is part of PJOS.
+
+This program is free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+package org.pjos.emulator.engine.implementation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+
+import org.pjos.common.runtime.Opcodes;
+
+/**
+ * Gathers an execution profile: how often each opcode and each pair of
+ * consecutive opcodes is executed, and for each method the number of
+ * instructions executed in it, the number of times it is invoked and
+ * the number of instructions executed while it is on the stack.
+ *
+ * Time is measured in instructions executed rather than host time, so
+ * the profile is not disturbed by the cost of profiling. Calls and
+ * returns are found by watching the frame register, and each thread
+ * has a shadow stack of the methods it has entered. Threads are told
+ * apart by hash code, and methods by name, since both move.
+ */
+class Profiler implements Constants {
+
+    /** The number of opcode pairs and methods shown in a report */
+    private static final int SHOWN = 50;
+
+    /** Orders rows by decreasing count */
+    private static final Comparator ORDER = new Comparator() {
+        public int compare(Object a, Object b) {
+            long difference = ((Row) b).count - ((Row) a).count;
+            return (difference > 0) ? 1 : (difference < 0) ? -1 : 0;
+        }
+    };
+
+    /** The number of instructions executed */
+    private static long total;
+
+    /** The number of times each opcode is executed */
+    private static long[] ops = new long[256];
+
+    /** The number of times each opcode follows another in one method */
+    private static long[] pairs = new long[256 * 256];
+
+    /** The previous opcode in the current method (-1 if none) */
+    private static int previous = -1;
+
+    /** The row of each method (String name to Row) */
+    private static HashMap methods = new HashMap();
+
+    /** The row of each method (Integer address to Row) */
+    private static HashMap addresses = new HashMap();
+
+    /** The shadow stack of each thread (Integer hash code to ArrayList) */
+    private static HashMap stacks = new HashMap();
+
+    /** The shadow stack of the current thread (Activation objects) */
+    private static ArrayList stack;
+
+    /** The frame register when the last instruction was executed */
+    private static int frame = NULL;
+
+    /** The thread register when the last instruction was executed */
+    private static int thread = NULL;
+
+    /** The row of the current method */
+    private static Row current;
+
+    /**
+     * Count the instruction about to be executed
+     */
+    static void instruction() {
+        if (Reg.frame != frame || Reg.thread != thread) { enter(); }
+        int op = Mem.loadByte(Reg.instruction);
+        total++;
+        ops[op]++;
+        if (previous >= 0) { pairs[(previous << 8) | op]++; }
+        previous = op;
+        current.count++;
+    }
+
+    /**
+     * Discard all profile data
+     */
+    static void clear() {
+        total = 0;
+        ops = new long[256];
+        pairs = new long[256 * 256];
+        methods.clear();
+        stacks.clear();
+        flush();
+    }
+
+    /**
+     * Forget the addresses of threads, frames and methods. This must be
+     * called whenever objects move.
+     */
+    static void flush() {
+        addresses.clear();
+        frame = NULL;
+        thread = NULL;
+    }
+
+    /**
+     * Bring the shadow stack of the current thread up to date after
+     * the frame or thread register has changed
+     */
+    private static void enter() {
+        previous = -1;
+        frame = Reg.frame;
+        if (Reg.thread != thread) {
+            thread = Reg.thread;
+            Integer key = new Integer(
+                    Mem.load(thread + 4 * OBJECT_HASHCODE));
+            stack = (ArrayList) stacks.get(key);
+            if (stack == null) {
+                stack = new ArrayList();
+                stacks.put(key, stack);
+            }
+        }
+
+        // find the methods of the frames which are not on the shadow stack
+        int depth = 0;
+        for (int f = frame; f != NULL;
+                f = Mem.load(f + 4 * FRAME_RETURN_FRAME)) {
+            depth++;
+        }
+        while (stack.size() > depth) { pop(); }
+        Row row = row(Reg.method);
+        if (depth > 0 && stack.size() == depth && top().row != row) {
+            pop(); // a return followed by a call
+        }
+        int missing = depth - stack.size();
+        int[] found = new int[missing];
+        int f = frame;
+        for (int i = missing - 1; i >= 0; i--) {
+            found[i] = Mem.load(f + 4 * FRAME_METHOD);
+            f = Mem.load(f + 4 * FRAME_RETURN_FRAME);
+        }
+        for (int i = 0; i < missing; i++) {
+            Activation activation = new Activation();
+            activation.row = row(found[i]);
+            activation.start = total;
+            activation.row.active++;
+            stack.add(activation);
+        }
+        // several at once means the shadow stack was out of date
+        if (missing == 1) { row.invocations++; }
+        current = row;
+    }
+
+    /**
+     * @return the activation at the top of the shadow stack
+     */
+    private static Activation top() {
+        return (Activation) stack.get(stack.size() - 1);
+    }
+
+    /**
+     * Pop the activation at the top of the shadow stack. Instructions
+     * are only added to the inclusive count of the outermost activation
+     * of each method.
+     */
+    private static void pop() {
+        Activation activation = (Activation) stack.remove(stack.size() - 1);
+        Row row = activation.row;
+        row.active--;
+        if (row.active == 0) { row.inclusive += total - activation.start; }
+    }
+
+    /**
+     * @param method the method
+     * @return the row of the method, creating it if necessary
+     */
+    private static Row row(int method) {
+        Integer key = new Integer(method);
+        Row row = (Row) addresses.get(key);
+        if (row == null) {
+            String name = name(method);
+            row = (Row) methods.get(name);
+            if (row == null) {
+                row = new Row(name);
+                methods.put(name, row);
+            }
+            addresses.put(key, row);
+        }
+        return row;
+    }
+
+    /**
+     * Name a method as the stack trace does, adding the descriptor to
+     * tell overloaded methods apart
+     * @param method the method
+     * @return the name
+     */
+    private static String name(int method) {
+        return Debug.traceName(method)
+                + Debug.string(Mem.load(method + 4 * ENTRY_DESCRIPTOR));
+    }
+
+    /**
+     * Return the profile, either as a report sorted by count or as
+     * comma separated values
+     * @param csv true for comma separated values
+     * @return the profile
+     */
+    static String report(boolean csv) {
+        // count the instructions still running on the shadow stacks
+        for (Iterator i = methods.values().iterator(); i.hasNext();) {
+            Row row = (Row) i.next();
+            row.running = 0;
+        }
+        for (Iterator i = stacks.values().iterator(); i.hasNext();) {
+            ArrayList activations = (ArrayList) i.next();
+            for (int j = 0; j < activations.size(); j++) {
+                Activation activation = (Activation) activations.get(j);
+                Row row = activation.row;
+                if (row.running == 0) {
+                    row.running = total - activation.start;
+                }
+            }
+        }
+
+        ArrayList opRows = new ArrayList();
+        for (int op = 0; op < ops.length; op++) {
+            if (ops[op] == 0) { continue; }
+            Row row = new Row(Opcodes.getName(op));
+            row.count = ops[op];
+            opRows.add(row);
+        }
+        ArrayList pairRows = new ArrayList();
+        for (int pair = 0; pair < pairs.length; pair++) {
+            if (pairs[pair] == 0) { continue; }
+            Row row = new Row(Opcodes.getName(pair >> 8) + " "
+                    + Opcodes.getName(pair));
+            row.count = pairs[pair];
+            pairRows.add(row);
+        }
+        Row[] opArray = sort(opRows);
+        Row[] pairArray = sort(pairRows);
+        Row[] methodArray = sort(new ArrayList(methods.values()));
+
+        StringBuffer sb = new StringBuffer();
+        if (csv) {
+            sb.append("kind,name,count,inclusive,invocations\n");
+            csv(sb, "opcode", opArray, false);
+            csv(sb, "pair", pairArray, false);
+            csv(sb, "method", methodArray, true);
+        } else {
+            sb.append("Instructions: ").append(total).append("\n\n");
+            sb.append("Opcodes\n");
+            sb.append("       count       %  opcode\n");
+            report(sb, opArray, opArray.length);
+            sb.append("\nOpcode pairs\n");
+            sb.append("       count       %  pair\n");
+            report(sb, pairArray, SHOWN);
+            sb.append("\nMethods\n");
+            sb.append("   exclusive       %   inclusive       %"
+                    + " invocations  method\n");
+            for (int i = 0; i < methodArray.length && i < SHOWN; i++) {
+                Row row = methodArray[i];
+                long inclusive = row.inclusive + row.running;
+                sb.append(pad(row.count, 12)).append(percent(row.count));
+                sb.append(pad(inclusive, 12)).append(percent(inclusive));
+                sb.append(pad(row.invocations, 12)).append("  ");
+                sb.append(row.name).append("\n");
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @param rows a list of rows
+     * @return the rows sorted by decreasing count
+     */
+    private static Row[] sort(ArrayList rows) {
+        Row[] array = (Row[]) rows.toArray(new Row[rows.size()]);
+        Arrays.sort(array, ORDER);
+        return array;
+    }
+
+    /**
+     * Append rows to a report
+     * @param sb the report
+     * @param rows the rows
+     * @param limit the maximum number of rows to append
+     */
+    private static void report(StringBuffer sb, Row[] rows, int limit) {
+        for (int i = 0; i < rows.length && i < limit; i++) {
+            sb.append(pad(rows[i].count, 12)).append(percent(rows[i].count));
+            sb.append("  ").append(rows[i].name).append("\n");
+        }
+    }
+
+    /**
+     * Append rows as comma separated values
+     * @param sb the values
+     * @param kind the kind of the rows
+     * @param rows the rows
+     * @param method true if the rows are for methods
+     */
+    private static void csv(StringBuffer sb, String kind, Row[] rows,
+            boolean method) {
+        for (int i = 0; i < rows.length; i++) {
+            Row row = rows[i];
+            sb.append(kind).append(",\"").append(row.name).append("\",");
+            sb.append(row.count).append(",");
+            if (method) {
+                sb.append(row.inclusive + row.running).append(",");
+                sb.append(row.invocations);
+            } else {
+                sb.append(",");
+            }
+            sb.append("\n");
+        }
+    }
+
+    /**
+     * @param value a count
+     * @param width the field width
+     * @return the count padded on the left with spaces
+     */
+    private static String pad(long value, int width) {
+        StringBuffer sb = new StringBuffer(String.valueOf(value));
+        while (sb.length() < width) { sb.insert(0, ' '); }
+        return sb.toString();
+    }
+
+    /**
+     * @param count a count of instructions
+     * @return the count as a percentage of all instructions, padded
+     */
+    private static String percent(long count) {
+        long tenths = (total == 0) ? 0 : (1000 * count) / total;
+        StringBuffer sb = new StringBuffer();
+        sb.append(tenths / 10).append('.').append(tenths % 10);
+        while (sb.length() < 8) { sb.insert(0, ' '); }
+        return sb.toString();
+    }
+
+    /**
+     * A line of the profile
+     */
+    private static class Row {
+
+        /** The name of the opcode, pair or method */
+        final String name;
+
+        /** The number of times executed (instructions for a method) */
+        long count;
+
+        /** The instructions executed by finished outermost activations */
+        long inclusive;
+
+        /** The instructions executed by the running outermost activation */
+        long running;
+
+        /** The number of times the method is invoked */
+        long invocations;
+
+        /** The number of activations of the method on the shadow stacks */
+        int active;
+
+        /**
+         * @param name the name of the opcode, pair or method
+         */
+        Row(String name) {
+            this.name = name;
+        }
+
+    }
+
+    /**
+     * An entry on a shadow stack
+     */
+    private static class Activation {
+
+        /** The row of the method */
+        Row row;
+
+        /** The total instruction count when the method was entered */
+        long start;
+
+    }
+
+}
@@ -101,16 +101,18 @@ class Return implements Constants {
         }
         
         // Point thread to previous frame
-        int previous = Mem.load(Reg.frame + 4 * FRAME_RETURN_FRAME);
+        int frame = Reg.frame;
+        int previous = Mem.load(frame + 4 * FRAME_RETURN_FRAME);
         Mem.store(previous, Reg.thread + 4 * THREAD_FRAME);
         if (previous == NULL) {
             // current thread has finished execution so unschedule it
             Threads.unschedule(Reg.thread);
         } else {
-            int returnpc = Mem.load(Reg.frame + 4 * FRAME_RETURN_PC);
+            int returnpc = Mem.load(frame + 4 * FRAME_RETURN_PC);
             Mem.store(returnpc, previous + 4 * FRAME_PC);
             Reg.load(); // load registers with values from previous frame
         }
+        Segments.pop(frame);
     }
 
 }
@@ -0,0 +1,154 @@
+/*
+Copyright 2002 Simon Daniel
+email: simon@pjos.org
+
+This file is part of PJOS.
+
+This program is free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+package org.pjos.emulator.engine.implementation;
+
+/**
+ * A bounded queue of int values, passed from host threads to the engine.
+ * The engine reads values without taking any lock, and host threads add
+ * them without waiting for the engine, so input is queued at once even
+ * during a long run. Values are published by writing the tail, which is
+ * volatile, after the values themselves, and space is given back by
+ * writing the head after they have been read. Host threads adding values
+ * only lock the queue against each other.
+ */
+final class Ring {
+
+    /** The values, in a power of two sized array */
+    private final int[] values;
+    
+    /** The index mask */
+    private final int mask;
+    
+    /** The number of values read, only written by the engine */
+    private volatile int head = 0;
+    
+    /** The number of values added, only written by host threads */
+    private volatile int tail = 0;
+    
+    /**
+     * Create a queue
+     * @param capacity the maximum number of values, a power of two
+     */
+    Ring(int capacity) {
+        if (capacity <= 0 || (capacity & (capacity - 1)) != 0) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        values = new int[capacity];
+        mask = capacity - 1;
+    }
+    
+    /**
+     * Add a value, unless the queue is full
+     * @param value the value
+     * @return true if the value was added
+     */
+    synchronized boolean put(int value) {
+        int t = tail;
+        if (t - head == values.length) { return false; }
+        values[t & mask] = value;
+        tail = t + 1;
+        return true;
+    }
+    
+    /**
+     * Add two values, which are read in turn, unless there is no room
+     * for both
+     * @param first the first value
+     * @param second the second value
+     * @return true if the values were added
+     */
+    synchronized boolean put(int first, int second) {
+        int t = tail;
+        if (t - head > values.length - 2) { return false; }
+        values[t & mask] = first;
+        values[(t + 1) & mask] = second;
+        tail = t + 2;
+        return true;
+    }
+    
+    /**
+     * Check that there is room to add values. The room can only shrink
+     * when another host thread adds values, so the caller must hold the
+     * lock on this queue until it has added them.
+     * @param count the number of values
+     * @return true if that many values can be added
+     */
+    boolean hasRoom(int count) {
+        return tail - head <= values.length - count;
+    }
+    
+    /**
+     * Remove the next value. Only the engine may call this.
+     * @return the value, or -1 if the queue is empty
+     */
+    int take() {
+        int h = head;
+        if (h == tail) { return -1; }
+        int value = values[h & mask];
+        head = h + 1;
+        return value;
+    }
+    
+    /**
+     * @return true if there are no values to read
+     */
+    boolean isEmpty() {
+        return head == tail;
+    }
+    
+    /**
+     * Copy the values waiting to be read. Only the engine may call this.
+     * @return the values, in order
+     */
+    int[] toArray() {
+        int h = head;
+        int[] result = new int[tail - h];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = values[(h + i) & mask];
+        }
+        return result;
+    }
+    
+    /**
+     * Replace the values waiting to be read. Only the engine may call this.
+     * @param array the new values, in order
+     * @throws IllegalArgumentException if the values do not fit
+     */
+    synchronized void fill(int[] array) {
+        if (array.length > values.length) {
+            throw new IllegalArgumentException("Too many values: "
+                    + array.length);
+        }
+        for (int i = 0; i < array.length; i++) {
+            values[i] = array[i];
+        }
+        head = 0;
+        tail = array.length;
+    }
+    
+    /**
+     * @return the maximum number of values
+     */
+    int getCapacity() {
+        return values.length;
+    }
+    
+}
@@ -0,0 +1,178 @@
+/*
+Copyright 2002 Simon Daniel
+email: simon@pjos.org
+
+This file is part of PJOS.
+
+This program is free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+package org.pjos.emulator.engine.implementation;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Samples the call stack of the running thread, either when a host
+ * timer asks or after a fixed number of instructions, and counts how
+ * often each stack is seen. The counts are given in the collapsed
+ * stack format read by flame graph tools: one line per stack, holding
+ * the frames from the outermost, separated by semicolons, then a space
+ * and the count.
+ *
+ * Each frame is named as the stack trace names it, with the line number
+ * of its program counter. Samples are taken at safepoints, so time spent
+ * inside an instruction (such as a collection) is charged to the frame
+ * executing it.
+ */
+class Sampler implements Constants {
+
+    /** The number of times each stack is seen (String to long[1]) */
+    private static HashMap stacks = new HashMap();
+
+    /** The name of each method (Integer address to String) */
+    private static HashMap names = new HashMap();
+
+    /** Changed to stop the timer thread */
+    private static int generation;
+
+    /**
+     * Record the call stack of the running thread
+     */
+    static void sample() {
+        if (Reg.thread == NULL) { return; }
+        StringBuffer sb = new StringBuffer();
+        int pc = Reg.instruction - Reg.code;
+        for (int frame = Reg.frame; frame != NULL;
+                frame = Mem.load(frame + 4 * FRAME_RETURN_FRAME)) {
+            if (frame != Reg.frame) { pc = Mem.load(frame + 4 * FRAME_PC); }
+            int method = Mem.load(frame + 4 * FRAME_METHOD);
+            if (sb.length() != 0) { sb.insert(0, ';'); }
+            sb.insert(0, name(method, pc));
+        }
+        String key = sb.toString();
+        long[] count = (long[]) stacks.get(key);
+        if (count == null) {
+            count = new long[1];
+            stacks.put(key, count);
+        }
+        count[0]++;
+    }
+
+    /**
+     * Discard all samples
+     */
+    static void clear() {
+        stacks.clear();
+        flush();
+    }
+
+    /**
+     * Forget the addresses of methods. This must be called whenever
+     * objects move.
+     */
+    static void flush() {
+        names.clear();
+    }
+
+    /**
+     * @return the samples in collapsed stack format, sorted by stack
+     */
+    static String report() {
+        String[] keys = (String[]) stacks.keySet().toArray(
+                new String[stacks.size()]);
+        Arrays.sort(keys);
+        StringBuffer sb = new StringBuffer();
+        for (int i = 0; i < keys.length; i++) {
+            long[] count = (long[]) stacks.get(keys[i]);
+            sb.append(keys[i]).append(' ').append(count[0]).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Start a thread which asks the implementation for a sample at
+     * regular intervals, stopping any previous one
+     * @param implementation the implementation
+     * @param interval the interval between samples (in milliseconds)
+     */
+    static synchronized void start(final Implementation implementation,
+            final long interval) {
+        final int current = ++generation;
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                while (running(current)) {
+                    implementation.requestSample();
+                    try {
+                        Thread.sleep(interval);
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }, "Sampler");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stop the timer thread, if there is one
+     */
+    static synchronized void stop() {
+        generation++;
+    }
+
+    /**
+     * @param current the generation of a timer thread
+     * @return true if the timer thread should keep running
+     */
+    private static synchronized boolean running(int current) {
+        return current == generation;
+    }
+
+    /**
+     * @param method the method
+     * @param pc the program counter within the method
+     * @return the name of the frame: the method and the line number
+     */
+    private static String name(int method, int pc) {
+        Integer key = new Integer(method);
+        String name = (String) names.get(key);
+        if (name == null) {
+            name = Debug.traceName(method);
+            names.put(key, name);
+        }
+        int line = line(method, pc);
+        return (line >= 0) ? name + ":" + line : name;
+    }
+
+    /**
+     * @param method the method
+     * @param pc the program counter within the method
+     * @return the line number of the program counter, or -1 if unknown
+     */
+    private static int line(int method, int pc) {
+        int table = Mem.load(method + 4 * METHOD_LINE_NUMBERS);
+        if (table == NULL) { return -1; }
+        int entries = Mem.load(table + 4 * ARRAY_LENGTH) / 2;
+        int line = -1;
+        for (int i = 0; i < entries; i++) {
+            int entry = Mem.load(table + 4 * ARRAY_DATA + 4 * i);
+            if (pc < (entry >>> 16)) { break; }
+            line = entry & 0x0000ffff;
+        }
+        return line;
+    }
+
+}
@@ -0,0 +1,255 @@
+/*
+Copyright 2002 Simon Daniel
+email: simon@pjos.org
+
+This file is part of PJOS.
+
+This program is free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+package org.pjos.emulator.engine.implementation;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Contains code to manage the stack segments. Frames are allocated in
+ * a stack segment instead of the heap, so calling a method does not use
+ * any heap space. A frame is placed directly after the frame it returns
+ * to, or at the start of a free segment if that frame is not at the top
+ * of a segment or there is no room after it. A segment is freed when
+ * its last frame returns. If no segment is free the frame is allocated
+ * in the heap as before.
+ *
+ * Frames in a segment are laid out like heap frames, but they never
+ * move and are popped when they return, so the collector scans them as
+ * roots. A frame which may outlive its return, because a pointer to it
+ * has been given to java code, must be promoted to the heap first.
+ */
+class Segments implements Constants {
+    
+    /** The number of bytes in a segment */
+    static final int SEGMENT = 1 << Mem.SEGMENT_SHIFT;
+    
+    /**
+     * The top of each segment, which is the address after its last
+     * frame. The top of a free segment is its start.
+     */
+    static int[] tops = new int[0];
+    
+    /** The free segments, with the next one to be used last */
+    private static int[] free = new int[0];
+    
+    /** The number of free segments */
+    private static int freeCount;
+    
+    /** The heap copies of the frames being promoted */
+    private static int[] copies = new int[64];
+    
+    /**
+     * Reset the segments after a new image has been loaded, so that
+     * they are all free
+     */
+    static void reset() {
+        int count = (Mem.size - Mem.stacks) >> Mem.SEGMENT_SHIFT;
+        tops = new int[count];
+        free = new int[count];
+        freeCount = count;
+        for (int i = 0; i < count; i++) {
+            tops[i] = start(i);
+            free[i] = count - 1 - i;
+        }
+    }
+    
+    /**
+     * Write the segment tops and the free segments to a snapshot
+     * @param out the snapshot
+     * @throws IOException if an error occurs
+     */
+    static void write(DataOutputStream out) throws IOException {
+        out.writeInt(tops.length);
+        for (int i = 0; i < tops.length; i++) {
+            out.writeInt(tops[i]);
+            out.writeInt(free[i]);
+        }
+        out.writeInt(freeCount);
+    }
+    
+    /**
+     * Read the segment tops and the free segments from a snapshot
+     * @param in the snapshot
+     * @param size the memory size in bytes
+     * @param restore true to restore what is read, false to only check it
+     * @throws IOException if an error occurs
+     */
+    static void read(DataInputStream in, int size, boolean restore)
+            throws IOException {
+        int count = in.readInt();
+        if (count != Mem.segmentCount(size)) {
+            throw new IOException("Invalid segment count: " + count);
+        }
+        int[] t = new int[count];
+        int[] f = new int[count];
+        for (int i = 0; i < count; i++) {
+            t[i] = in.readInt();
+            f[i] = in.readInt();
+        }
+        int n = in.readInt();
+        if (n < 0 || n > count) {
+            throw new IOException("Invalid free segment count: " + n);
+        }
+        for (int i = 0; i < n; i++) {
+            if (f[i] < 0 || f[i] >= count) {
+                throw new IOException("Invalid free segment: " + f[i]);
+            }
+        }
+        if (restore) {
+            tops = t;
+            free = f;
+            freeCount = n;
+        }
+    }
+    
+    /**
+     * @param segment the segment index
+     * @return the address of the first frame in the segment
+     */
+    static int start(int segment) {
+        return Mem.stacks + (segment << Mem.SEGMENT_SHIFT);
+    }
+    
+    /**
+     * @param address the address
+     * @return true if the address is in a stack segment
+     */
+    static boolean contains(int address) {
+        return address >= Mem.stacks;
+    }
+    
+    /**
+     * Allocate a frame in a stack segment. The frame header and size are
+     * initialised, and all other words of the frame are set to zero.
+     * Return null if there is no room in the segment holding the given
+     * frame and no segment is free, in which case the frame should be
+     * allocated in the heap. No garbage collection is done.
+     * @param frame the frame the new frame returns to, or null
+     * @param numWords the size of the new frame in words
+     * @return the address of the new frame, or null
+     */
+    static int push(int frame, int numWords) {
+        int numBytes = numWords * 4;
+        int address = NULL;
+        int segment = 0;
+        if (contains(frame)) {
+            // place the frame directly after the one it returns to
+            segment = (frame - Mem.stacks) >> Mem.SEGMENT_SHIFT;
+            address = frame + Mem.load(frame + 4) * 4;
+            if (address != tops[segment]
+                    || address + numBytes > start(segment) + SEGMENT) {
+                address = NULL;
+            }
+        }
+        if (address == NULL) {
+            // otherwise start a free segment
+            if (freeCount == 0 || numBytes > SEGMENT) { return NULL; }
+            segment = free[--freeCount];
+            address = start(segment);
+        }
+        tops[segment] = address + numBytes;
+        
+        // initialise header and size, and the rest to zero/null
+        Mem.store(HEADER_STACK_FRAME, address);
+        Mem.store(numWords, address + 4);
+        for (int i = 2; i < numWords; i++) {
+            Mem.store(0x00000000, address + (i * 4));
+        }
+        return address;
+    }
+    
+    /**
+     * Pop the given frame when its method returns. It must be the last
+     * frame in its segment. Frames in the heap are left to the collector,
+     * with a zero stack pointer so that their stale values are not checked.
+     * @param frame the frame
+     */
+    static void pop(int frame) {
+        if (!contains(frame)) {
+            Mem.store(0, frame + 4 * FRAME_SP);
+            return;
+        }
+        int segment = (frame - Mem.stacks) >> Mem.SEGMENT_SHIFT;
+        tops[segment] = frame;
+        if (frame == start(segment)) { free[freeCount++] = segment; }
+    }
+    
+    /**
+     * Promote the frames of the current thread which are in stack segments
+     * to the heap, so that the current frame can be given to java code.
+     * Return false if garbage collection took place, in which case nothing
+     * has changed and the instruction should be rolled back.
+     * @return true if the frames were promoted
+     */
+    static boolean promote() {
+        Reg.save();
+        
+        // copy each frame in a segment, changing nothing until all the
+        // copies have been allocated
+        int count = 0;
+        for (int frame = Reg.frame; frame != NULL;
+                frame = Mem.load(frame + 4 * FRAME_RETURN_FRAME)) {
+            if (!contains(frame)) { continue; }
+            int numWords = Mem.load(frame + 4);
+            int copy = Allocate.allocate(numWords, HEADER_STACK_FRAME);
+            if (copy == NULL) { return false; } // roll back, gc done
+            for (int i = 3; i < numWords; i++) {
+                Mem.store(Mem.load(frame + 4 * i), copy + 4 * i);
+            }
+            Mem.store(copy, copy + 4 * OBJECT_HASHCODE);
+            if (count == copies.length) {
+                int[] array = new int[count * 2];
+                System.arraycopy(copies, 0, array, 0, count);
+                copies = array;
+            }
+            copies[count++] = copy;
+        }
+        if (count == 0) { return true; }
+        
+        // point the thread and each frame to the copy of the frame they
+        // refer to, and free the segments
+        int index = 0;
+        int previous = NULL;
+        for (int frame = Reg.frame; frame != NULL;
+                frame = Mem.load(frame + 4 * FRAME_RETURN_FRAME)) {
+            int current = frame;
+            if (contains(frame)) {
+                current = copies[index++];
+                int segment = (frame - Mem.stacks) >> Mem.SEGMENT_SHIFT;
+                if (tops[segment] != start(segment)) {
+                    tops[segment] = start(segment);
+                    free[freeCount++] = segment;
+                }
+            }
+            if (previous == NULL) {
+                Mem.store(current, Reg.thread + 4 * THREAD_FRAME);
+            } else {
+                Mem.store(current, previous + 4 * FRAME_RETURN_FRAME);
+            }
+            previous = current;
+        }
+        Reg.load();
+        return true;
+    }
+    
+}
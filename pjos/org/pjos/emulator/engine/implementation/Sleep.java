@@ -20,23 +20,45 @@ Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
 */
 package org.pjos.emulator.engine.implementation;
 
+import java.util.SortedMap;
+import java.util.TreeMap;
+
 /**
  * Contains code to implement thread sleeping.
+ *
+ * The sleep queue is a doubly linked list of threads in memory, ordered
+ * by wakeup time, so the next thread due is always at the head. The
+ * list is indexed here by wakeup time, so a thread is inserted without
+ * walking the list. The index holds addresses, so it is flushed when
+ * objects move and rebuilt from the list when next needed.
  */
 class Sleep implements Constants {
 
+    /**
+     * The last thread in the sleep queue with each wakeup time (Long to
+     * Integer), or null if it must be rebuilt
+     */
+    private static TreeMap index = null;
+    
     /**
      * Wake up any sleeping threads that are due
      */
     static void wakeSleepingThreads() {
-        long now = System.currentTimeMillis();
-        int asleep = Mem.load(Reg.core + 4 * CORE_SLEEPING);
-        while (asleep != NULL && getWakeup(asleep) <= now) {
-            wakeThread(asleep);
-            asleep = Mem.load(Reg.core + 4 * CORE_SLEEPING);
+        long now = Clock.now();
+        while (nextWakeup() <= now) {
+            wakeThread(Mem.load(Reg.core + 4 * CORE_SLEEPING));
         }
     }
     
+    /**
+     * @return the wakeup time of the first thread in the sleep queue, or
+     * Long.MAX_VALUE if no thread is sleeping
+     */
+    static long nextWakeup() {
+        int asleep = Mem.load(Reg.core + 4 * CORE_SLEEPING);
+        return (asleep != NULL) ? getWakeup(asleep) : Long.MAX_VALUE;
+    }
+    
     /**
      * @param thread the thread to be checked
      * @return true if the specified thread is sleeping
@@ -69,38 +91,37 @@ class Sleep implements Constants {
      */
     static void addToSleepQueue(long millis) {
         // find out when the thread should wake up
-        long wakeup = millis + System.currentTimeMillis();
+        long wakeup = millis + Clock.now();
         setWakeup(Reg.thread, wakeup);
-        int sleeping = Mem.load(Reg.core + 4 * CORE_SLEEPING);
-        if (sleeping == NULL) {
-            // the sleep queue may be empty...
-            Mem.store(Reg.thread, Reg.core + 4 * CORE_SLEEPING);
-            Mem.store(NULL, Reg.thread + 4 * THREAD_NEXT_SLEEPING);
-            Mem.store(NULL, Reg.thread + 4 * THREAD_PREV_SLEEPING);
-        } else if (wakeup < getWakeup(sleeping)) {
-            // ...or the new thread needs to be inserted at the front...
-            Mem.store(Reg.thread, Reg.core + 4 * CORE_SLEEPING);
-            Mem.store(sleeping, Reg.thread + 4 * THREAD_NEXT_SLEEPING);
-            Mem.store(NULL, Reg.thread + 4 * THREAD_PREV_SLEEPING);
-            Mem.store(Reg.thread, sleeping + 4 * THREAD_PREV_SLEEPING);
-        } else {
-            // ...or need to find the two threads in the queue between
-            // which the new thread will be inserted...
-            int current = sleeping;
-            int next = Mem.load(current + 4 * THREAD_NEXT_SLEEPING);
-            while (next != NULL && wakeup >= getWakeup(next)) {
-                current = next;
-                next = Mem.load(current + 4 * THREAD_NEXT_SLEEPING);
-            }
-
-            // insert the thread in queue
-            Mem.store(Reg.thread, current + 4 * THREAD_NEXT_SLEEPING);
-            Mem.store(current, Reg.thread + 4 * THREAD_PREV_SLEEPING);
-            Mem.store(next, Reg.thread + 4 * THREAD_NEXT_SLEEPING);           
-            if (next != NULL) {
-                Mem.store(Reg.thread, next + 4 * THREAD_PREV_SLEEPING);
+        
+        // the thread goes after the last one due at the same time or
+        // before, or at the head of the queue if there is none
+        TreeMap map = index();
+        Long key = new Long(wakeup);
+        Integer last = (Integer) map.get(key);
+        if (last == null) {
+            SortedMap before = map.headMap(key);
+            if (!before.isEmpty()) {
+                last = (Integer) map.get(before.lastKey());
             }
         }
+        int prev = (last != null) ? last.intValue() : NULL;
+        int next = (prev != NULL)
+                ? Mem.load(prev + 4 * THREAD_NEXT_SLEEPING)
+                : Mem.load(Reg.core + 4 * CORE_SLEEPING);
+        
+        // insert the thread in queue
+        if (prev != NULL) {
+            Mem.store(Reg.thread, prev + 4 * THREAD_NEXT_SLEEPING);
+        } else {
+            Mem.store(Reg.thread, Reg.core + 4 * CORE_SLEEPING);
+        }
+        Mem.store(prev, Reg.thread + 4 * THREAD_PREV_SLEEPING);
+        Mem.store(next, Reg.thread + 4 * THREAD_NEXT_SLEEPING);
+        if (next != NULL) {
+            Mem.store(Reg.thread, next + 4 * THREAD_PREV_SLEEPING);
+        }
+        map.put(key, new Integer(Reg.thread));
     }
     
     /**
@@ -131,6 +152,20 @@ class Sleep implements Constants {
         int prev = Mem.load(thread + 4 * THREAD_PREV_SLEEPING);
         int next = Mem.load(thread + 4 * THREAD_NEXT_SLEEPING);
         
+        // if this is the last thread with its wakeup time, the one
+        // before it (if due at the same time) becomes the last
+        long wakeup = getWakeup(thread);
+        TreeMap map = index();
+        Long key = new Long(wakeup);
+        Integer last = (Integer) map.get(key);
+        if (last != null && last.intValue() == thread) {
+            if (prev != NULL && getWakeup(prev) == wakeup) {
+                map.put(key, new Integer(prev));
+            } else {
+                map.remove(key);
+            }
+        }
+        
         // either thread is at head of sleep queue...
         int sleeping = Mem.load(Reg.core + 4 * CORE_SLEEPING);
         if (sleeping == thread) {
@@ -150,13 +185,27 @@ class Sleep implements Constants {
         setWakeup(thread, 0);
     }
     
+    /**
+     * Discard the index, when threads may have moved or the queue has
+     * been replaced
+     */
+    static void flush() {
+        index = null;
+    }
+    
+    /**
+     * @return the index of the sleep queue, rebuilt if it was flushed
+     */
+    private static TreeMap index() {
+        if (index == null) {
+            index = new TreeMap();
+            int thread = Mem.load(Reg.core + 4 * CORE_SLEEPING);
+            while (thread != NULL) {
+                index.put(new Long(getWakeup(thread)), new Integer(thread));
+                thread = Mem.load(thread + 4 * THREAD_NEXT_SLEEPING);
+            }
+        }
+        return index;
+    }
+    
 }
-
-
-
-
-
-
-
-
-
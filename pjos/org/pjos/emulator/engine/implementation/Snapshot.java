@@ -0,0 +1,222 @@
+/*
+Copyright 2002 Simon Daniel
+email: simon@pjos.org
+
+This file is part of PJOS.
+
+This program is free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+package org.pjos.emulator.engine.implementation;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Saves the complete state of the emulator to a file, and restores it.
+ * A snapshot holds a header followed by the memory. The header has the
+ * memory layout and card table, the collector and segment state, the
+ * registers and the floppy data, followed by the state kept by the
+ * implementation itself (the instruction counter, the keyboard and
+ * interrupt queues and the console lines), which it writes and reads.
+ *
+ * The memory starts on a page boundary and is written a page at a time,
+ * skipping pages which are all zero. It is restored by mapping the file
+ * privately, so restoring takes time in proportion to the header rather
+ * than the memory, and pages are read as they are used.
+ *
+ * A snapshot is read and checked in full, and its memory mapped, before
+ * any state is restored, so a snapshot which cannot be read leaves the
+ * emulator as it was.
+ */
+class Snapshot implements Constants {
+
+    /** The first word of a snapshot ("PJOS") */
+    private static final int MAGIC = 0x504a4f53;
+
+    /** The snapshot format version */
+    private static final int VERSION = 2;
+
+    /** The number of bytes before the header */
+    private static final int PREFIX = 12;
+
+    /** The header */
+    private final byte[] header;
+
+    /** The memory, mapped from the snapshot */
+    private final ByteBuffer memory;
+
+    /** The state kept by the implementation, which follows the header */
+    private final DataInputStream state;
+
+    /**
+     * Create a snapshot which has been read and checked
+     * @param header the header
+     * @param memory the memory
+     * @param state the state kept by the implementation
+     */
+    private Snapshot(byte[] header, ByteBuffer memory, DataInputStream state) {
+        this.header = header;
+        this.memory = memory;
+        this.state = state;
+    }
+
+    /**
+     * Save the state of the emulator. The snapshot is written to a
+     * temporary file which then replaces the given file, since the old
+     * snapshot may still be mapped as memory.
+     * @param file the file
+     * @param state the state kept by the implementation
+     * @throws IOException if an error occurs
+     */
+    static void save(File file, byte[] state) throws IOException {
+        if (Reg.thread != NULL) { Reg.save(); }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        Mem.write(out);
+        Collector.write(out);
+        Segments.write(out);
+        out.writeInt(Reg.core);
+        out.writeInt(Reg.thread);
+        Floppy.write(out);
+        Clock.write(out);
+        out.write(state);
+        out.flush();
+
+        File temp = new File(file.getPath() + ".tmp");
+        RandomAccessFile data = new RandomAccessFile(temp, "rw");
+        try {
+            data.setLength(0);
+            data.writeInt(MAGIC);
+            data.writeInt(VERSION);
+            data.writeInt(bytes.size());
+            data.write(bytes.toByteArray());
+            long position = memory(bytes.size());
+            data.setLength(position + Mem.size);
+            Mem.writePages(data, position);
+        } finally {
+            data.close();
+        }
+        file.delete();
+        if (!temp.renameTo(file)) {
+            throw new IOException("Unable to replace " + file);
+        }
+    }
+
+    /**
+     * Read a snapshot and check its header, without changing the state
+     * of the emulator
+     * @param file the file
+     * @return the snapshot
+     * @throws IOException if the snapshot cannot be read or is invalid
+     */
+    static Snapshot read(File file) throws IOException {
+        RandomAccessFile data = new RandomAccessFile(file, "rw");
+        try {
+            if (data.readInt() != MAGIC || data.readInt() != VERSION) {
+                throw new IOException("Not a snapshot: " + file);
+            }
+            int length = data.readInt();
+            if (length < 0 || length > data.length() - PREFIX) {
+                throw new IOException("Truncated snapshot: " + file);
+            }
+            byte[] header = new byte[length];
+            data.readFully(header);
+            DataInputStream in = stream(header);
+            int size = read(in, false);
+            long position = memory(length);
+            if (data.length() < position + size) {
+                throw new IOException("Truncated snapshot: " + file);
+            }
+            return new Snapshot(header, Mem.map(data, position, size), in);
+        } finally {
+            data.close();
+        }
+    }
+
+    /**
+     * @return the state kept by the implementation
+     */
+    DataInputStream getState() {
+        return state;
+    }
+
+    /**
+     * Restore the state of the emulator from the snapshot. Everything has
+     * already been checked, so this does not fail.
+     */
+    void restore() {
+        try {
+            read(stream(header), true);
+        } catch (IOException e) {
+            throw new IllegalStateException(e.toString());
+        }
+        Mem.restore(memory);
+        if (Reg.thread != NULL) { Reg.load(); }
+    }
+
+    /**
+     * Read the parts of the header which belong to the emulator
+     * @param in the header
+     * @param restore true to restore what is read, false to only check it
+     * @return the memory size in bytes
+     * @throws IOException if an error occurs
+     */
+    private static int read(DataInputStream in, boolean restore)
+            throws IOException {
+        int size = Mem.read(in, restore);
+        Collector.read(in, size, restore);
+        Segments.read(in, size, restore);
+        int core = in.readInt();
+        int thread = in.readInt();
+        boolean running = (thread != NULL);
+        if (core < Mem.OFFSET || core >= size
+                || (running && (thread < Mem.OFFSET || thread >= size))) {
+            throw new IOException("Invalid registers");
+        }
+        if (restore) {
+            Reg.core = core;
+            Reg.thread = thread;
+        }
+        Floppy.read(in, restore);
+        Clock.read(in, restore);
+        return size;
+    }
+
+    /**
+     * @param header the header
+     * @return a stream which reads the header
+     */
+    private static DataInputStream stream(byte[] header) {
+        return new DataInputStream(new ByteArrayInputStream(header));
+    }
+
+    /**
+     * @param headerLength the number of bytes in the header
+     * @return the position of the memory, which is the first page
+     * boundary after the header
+     */
+    private static long memory(int headerLength) {
+        long end = PREFIX + headerLength;
+        return (end + Mem.PAGE - 1) / Mem.PAGE * Mem.PAGE;
+    }
+
+}
@@ -25,25 +25,14 @@ package org.pjos.emulator.engine.implementation;
  */
 class Stack implements Constants {
     
-    /**
-     * @return true if the value on the top of the stack is a pointer
-     */
-    static boolean pointerOnStack() {
-        return Mem.load(Reg.stack + 4) == TRUE;
-    }
-    
     /**
      * Return the pointer value at the specified offset
      * from the top of the stack
      * @param offset distance of desired entry from top of stack
      */
     static int peekPointer(int offset) {
-        int address = Reg.stack + 8 * offset;
-        int value = Mem.load(address);
-        int flag = Mem.load(address + 4);
-        if (flag == FALSE) {
-            throw new IllegalStateException("Data found at offset " + offset);
-        }
+        int value = Mem.load(Reg.stack + 4 * offset);
+        if (Debug.debug) { checkPointer(value); }
         return value;
     }
     
@@ -51,13 +40,7 @@ class Stack implements Constants {
      * Return the data value at the specified offset from the top of the stack
      */
     static int peekData(int offset) {
-        int address = Reg.stack + 8 * offset;
-        int value = Mem.load(address);
-        int flag = Mem.load(address + 4);
-        if (flag == TRUE) {
-            throw new IllegalStateException("Data found at offset " + offset);
-        }
-        return value;
+        return Mem.load(Reg.stack + 4 * offset);
     }
     
     /**
@@ -65,12 +48,7 @@ class Stack implements Constants {
      */
     static int popPointer() {
         int result = Mem.load(Reg.stack);
-        int flag = Mem.load(Reg.stack + 4);
-        if (flag == FALSE) {
-            throw new IllegalStateException("Stack contains data");
-        }
-        Mem.store(FALSE, Reg.stack + 4); // unused entry
-        Reg.stack += 8;
+        Reg.stack += 4;
         if (Debug.debug) {
             check();
             checkPointer(result);
@@ -83,11 +61,7 @@ class Stack implements Constants {
      */
     static int popData() {
         int result = Mem.load(Reg.stack);
-        int flag = Mem.load(Reg.stack + 4);
-        if (flag == TRUE) {
-            throw new IllegalStateException("Stack contains pointer");
-        }
-        Reg.stack += 8;
+        Reg.stack += 4;
         if (Debug.debug) { check(); }
         return result;
     }
@@ -97,7 +71,9 @@ class Stack implements Constants {
      * @param value the value to be pushed
      */
     static void pushData(int value) {
-        pushValue(value, false);
+        Reg.stack -= 4;
+        Mem.store(value, Reg.stack);
+        if (Debug.debug) { check(); }
     }
 
     /**
@@ -105,22 +81,8 @@ class Stack implements Constants {
      * @param pointer the pointer to be pushed
      */
     static void pushPointer(int pointer) {
-        pushValue(pointer, true);
-    }
-    
-    /**
-     * Push a value onto the stack
-     */
-    private static void pushValue(int value, boolean isReference) {
-        if (Debug.debug && isReference) {
-            checkPointer(value);
-        }
-        Reg.stack -= 8;
-        Mem.store((isReference) ? TRUE : FALSE, Reg.stack + 4);
-        Mem.store(value, Reg.stack);
-        if (Debug.debug) {
-            check();
-        }
+        if (Debug.debug) { checkPointer(pointer); }
+        pushData(pointer);
     }
     
     /**
@@ -137,16 +99,17 @@ class Stack implements Constants {
     static int min() {
         int frameWords = Mem.load(Reg.frame + 4);
         int stackEntries = Mem.load(Reg.method + 4 * METHOD_MAX_STACK);
-        return Reg.frame + 4 * frameWords - 8 * stackEntries;
+        return Reg.frame + 4 * frameWords - 4 * stackEntries;
     }
     
     /**
      * Check that the given pointer value is null or within the current space
+     * or the nursery
      * @param pointer the pointer
      */
     static void checkPointer(int pointer) {
         if (pointer == NULL) { return; }
-        if (pointer < Reg.core || pointer >= Reg.core + Mem.LIMIT) {
+        if (!Allocate.isHeap(pointer)) {
             throw new IllegalStateException(
                     "Invalid pointer value: 0x"
                     + Integer.toHexString(pointer));
@@ -193,11 +156,7 @@ class Stack implements Constants {
      * dup instruction
      */
     static void dup() {
-        if (pointerOnStack()) {
-            pushPointer(peekPointer(0));
-        } else {
-            pushData(peekData(0));
-        }
+        pushData(peekData(0));
         Reg.instruction += 1;
     }
     
@@ -205,18 +164,11 @@ class Stack implements Constants {
      * dup_x1 instruction
      */
     static void dup_x1() {
-        // pop first value
-        boolean pointer1 = pointerOnStack();
-        int value1 = (pointer1) ? popPointer() : popData();
-
-        // pop second value
-        boolean pointer2 = pointerOnStack();
-        int value2 = (pointer2) ? popPointer() : popData();
-
-        // push first then second then first
-        pushValue(value1, pointer1);
-        pushValue(value2, pointer2);
-        pushValue(value1, pointer1);
+        int value1 = popData();
+        int value2 = popData();
+        pushData(value1);
+        pushData(value2);
+        pushData(value1);
         Reg.instruction += 1;
     }
     
@@ -224,40 +176,30 @@ class Stack implements Constants {
      * dup_x2 instruction
      */
     static void dup_x2() {
-        // pop first value
-        boolean pointer1 = pointerOnStack();
-        int value1 = (pointer1) ? popPointer() : popData();
-        
-        // pop second value
-        boolean pointer2 = pointerOnStack();
-        int value2 = (pointer2) ? popPointer() : popData();
-        
-        // pop third value
-        boolean pointer3 = pointerOnStack();
-        int value3 = (pointer3) ? popPointer() : popData();
-        
-        // push first, third, second, first values
-        pushValue(value1, pointer1);
-        pushValue(value3, pointer3);
-        pushValue(value2, pointer2);
-        pushValue(value1, pointer1);
+        int value1 = popData();
+        int value2 = popData();
+        int value3 = popData();
+        pushData(value1);
+        pushData(value3);
+        pushData(value2);
+        pushData(value1);
         Reg.instruction += 1;
     }
     
     /**
      * bipush instruction
+     * @param value the value to push
      */
-    static void bipush() {
-        int value = Instruction.signByteCode(1);
+    static void bipush(int value) {
         Stack.pushData(value);
         Reg.instruction += 2;
     }
     
     /**
      * sipush instruction
+     * @param value the value to push
      */
-    static void sipush() {
-        int value = Instruction.signTwoByteCodes(1);
+    static void sipush(int value) {
         Stack.pushData(value);
         Reg.instruction += 3;
     }
@@ -266,11 +208,7 @@ class Stack implements Constants {
      * pop instruction
      */
     static void pop() {
-        if (pointerOnStack()) {
-            popPointer();
-        } else {
-            popData();
-        }
+        popData();
         Reg.instruction += 1;
     }
     
@@ -278,16 +216,8 @@ class Stack implements Constants {
      * pop2 instruction
      */
     static void pop2() {
-        if (pointerOnStack()) {
-            popPointer();
-        } else {
-            popData();
-        }
-        if (pointerOnStack()) {
-            popPointer();
-        } else {
-            popData();
-        }
+        popData();
+        popData();
         Reg.instruction += 1;
     }
     
@@ -295,17 +225,10 @@ class Stack implements Constants {
      * dup2 instruction
      */
     static void dup2() {
-        // could be made more efficient by not popping off the stack,
-        // just peeking, but pointerOnStack() method doesn't support
-        // this yet.
-        boolean pointer1 = pointerOnStack();
-        int value1 = (pointer1) ? popPointer() : popData();
-        boolean pointer2 = pointerOnStack();
-        int value2 = (pointer2) ? popPointer() : popData();
-        pushValue(value2, pointer2);
-        pushValue(value1, pointer1);
-        pushValue(value2, pointer2);
-        pushValue(value1, pointer1);
+        int value1 = peekData(0);
+        int value2 = peekData(1);
+        pushData(value2);
+        pushData(value1);
         Reg.instruction += 1;
     }
     
@@ -313,20 +236,14 @@ class Stack implements Constants {
      * dup2_x1 instruction
      */
     static void dup2_x1() {
-        // could be made more efficient by not popping off the stack,
-        // just peeking, but pointerOnStack() method doesn't support
-        // this yet.
-        boolean pointer1 = pointerOnStack();
-        int value1 = (pointer1) ? popPointer() : popData();
-        boolean pointer2 = pointerOnStack();
-        int value2 = (pointer2) ? popPointer() : popData();
-        boolean pointer3 = pointerOnStack();
-        int value3 = (pointer3) ? popPointer() : popData();
-        pushValue(value2, pointer2);
-        pushValue(value1, pointer1);
-        pushValue(value3, pointer3);
-        pushValue(value2, pointer2);
-        pushValue(value1, pointer1);
+        int value1 = popData();
+        int value2 = popData();
+        int value3 = popData();
+        pushData(value2);
+        pushData(value1);
+        pushData(value3);
+        pushData(value2);
+        pushData(value1);
         Reg.instruction += 1;
     }
     
@@ -334,23 +251,16 @@ class Stack implements Constants {
      * dup2_x2 instruction
      */
     static void dup2_x2() {
-        // could be made more efficient by not popping off the stack,
-        // just peeking, but pointerOnStack() method doesn't support
-        // this yet.
-        boolean pointer1 = pointerOnStack();
-        int value1 = (pointer1) ? popPointer() : popData();
-        boolean pointer2 = pointerOnStack();
-        int value2 = (pointer2) ? popPointer() : popData();
-        boolean pointer3 = pointerOnStack();
-        int value3 = (pointer3) ? popPointer() : popData();
-        boolean pointer4 = pointerOnStack();
-        int value4 = (pointer4) ? popPointer() : popData();
-        pushValue(value2, pointer2);
-        pushValue(value1, pointer1);
-        pushValue(value4, pointer4);
-        pushValue(value3, pointer3);
-        pushValue(value2, pointer2);
-        pushValue(value1, pointer1);
+        int value1 = popData();
+        int value2 = popData();
+        int value3 = popData();
+        int value4 = popData();
+        pushData(value2);
+        pushData(value1);
+        pushData(value4);
+        pushData(value3);
+        pushData(value2);
+        pushData(value1);
         Reg.instruction += 1;
     }
     
@@ -358,12 +268,10 @@ class Stack implements Constants {
      * swap instruction
      */
     static void swap() {
-        boolean pointer1 = pointerOnStack();
-        int value1 = (pointer1) ? popPointer() : popData();
-        boolean pointer2 = pointerOnStack();
-        int value2 = (pointer2) ? popPointer() : popData();
-        pushValue(value1, pointer1);
-        pushValue(value2, pointer2);
+        int value1 = popData();
+        int value2 = popData();
+        pushData(value1);
+        pushData(value2);
         Reg.instruction += 1;
     }
 }
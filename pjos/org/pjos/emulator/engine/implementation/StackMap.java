@@ -0,0 +1,114 @@
+/*
+Copyright 2002 Simon Daniel
+email: simon@pjos.org
+
+This file is part of PJOS.
+
+This program is free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+package org.pjos.emulator.engine.implementation;
+
+/**
+ * The stack map of a single method. This gives the type of each local
+ * variable and stack entry before each instruction, so the collector
+ * can find the pointers in a frame from its program counter.
+ *
+ * Each state holds the stack depth, then the type of each local, then
+ * the type of each stack entry from the bottom of the stack. Code in a
+ * subroutine has a separate state for each jsr instruction that calls
+ * it, since the subroutine leaves the other locals as they were. The
+ * states for a frame are told apart by the return addresses it holds.
+ */
+class StackMap implements Constants {
+
+    /** The type of a value which is not known or may not be used */
+    static final int TOP = 0;
+
+    /** The type of a data value */
+    static final int DATA = 1;
+
+    /** The type of a pointer value */
+    static final int REF = 2;
+
+    /** The type of a return address is this plus the address */
+    static final int RET = 3;
+
+    /** The method this stack map belongs to */
+    final int method;
+
+    /** The number of local variables */
+    final int maxLocals;
+
+    /** The states at each program counter (null if never reached) */
+    final int[][][] states;
+
+    /**
+     * Create an empty stack map for the given method
+     * @param method the method
+     * @param maxLocals the number of local variables
+     * @param length the number of byte codes
+     */
+    StackMap(int method, int maxLocals, int length) {
+        this.method = method;
+        this.maxLocals = maxLocals;
+        this.states = new int[length][][];
+    }
+
+    /**
+     * Return the state of the given frame. The stack may hold fewer
+     * entries than the state, if the instruction at the program counter
+     * has already popped some of them.
+     * @param frame the frame
+     * @param pc the program counter
+     * @param depth the number of entries on the stack
+     * @return the state
+     */
+    int[] state(int frame, int pc, int depth) {
+        int[][] candidates = (pc >= 0 && pc < states.length)
+                ? states[pc]
+                : null;
+        if (candidates != null) {
+            for (int i = 0; i < candidates.length; i++) {
+                if (matches(candidates[i], frame, depth)) {
+                    return candidates[i];
+                }
+            }
+        }
+        throw new IllegalStateException("No stack map for pc " + pc
+                + " with stack depth " + depth + " in "
+                + Debug.method(method));
+    }
+
+    /**
+     * @param state the state
+     * @param frame the frame
+     * @param depth the number of entries on the stack
+     * @return true if the frame holds the return addresses in the state
+     */
+    private boolean matches(int[] state, int frame, int depth) {
+        if (depth > state[0]) { return false; }
+        int end = frame + 4 * Mem.load(frame + 4);
+        for (int i = 0; i < maxLocals + depth; i++) {
+            int type = state[1 + i];
+            if (type < RET) { continue; }
+            int address = (i < maxLocals)
+                    ? frame + 4 * (FRAME_LOCALS + i)
+                    : end - 4 * (i - maxLocals + 1);
+            if (Mem.load(address) != type - RET) { return false; }
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,743 @@
+/*
+Copyright 2002 Simon Daniel
+email: simon@pjos.org
+
+This file is part of PJOS.
+
+This program is free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+package org.pjos.emulator.engine.implementation;
+
+import java.lang.reflect.Modifier;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+
+import org.pjos.common.runtime.Entry;
+import org.pjos.common.runtime.Opcode;
+
+/**
+ * Computes the stack map of each method the first time the collector
+ * finds a frame for it, and caches the result. The types are found by
+ * following every path through the byte code, like a verifier. The
+ * cache is keyed by method address, so it must be flushed whenever
+ * objects move.
+ *
+ * Stack maps are computed during collections, after some objects may
+ * have moved. A moved object keeps everything except its header and
+ * size, so only the fields of objects are read here.
+ */
+class StackMaps implements Constants, Opcode {
+
+    /** The stack map for each method (Integer address to StackMap) */
+    private static HashMap cache = new HashMap();
+
+    /** Set if any stack map belongs to a method in the nursery */
+    private static boolean young;
+
+    /** The address of the first byte code of the method being mapped */
+    private static int start;
+
+    /** The address of the first entry in the pool of the method */
+    private static int pool;
+
+    /** The number of local variables */
+    private static int maxLocals;
+
+    /** The number of stack entries */
+    private static int maxStack;
+
+    /** The start, end and handler of each exception handler */
+    private static int[] handlers;
+
+    /** The state for each program counter and context (Long to int[]) */
+    private static HashMap states;
+
+    /** The return addresses of each context (int[]) */
+    private static ArrayList contexts;
+
+    /** The index of each context (String to Integer) */
+    private static HashMap contextIndexes;
+
+    /** The program counters and contexts still to be followed (Long) */
+    private static LinkedList work;
+
+    /** The program counters and contexts in the work list */
+    private static HashSet queued;
+
+    /**
+     * Return the stack map for the given method, computing it if this
+     * has not already been done
+     * @param method the method
+     * @return the stack map
+     */
+    static StackMap get(int method) {
+        Integer key = new Integer(method);
+        StackMap map = (StackMap) cache.get(key);
+        if (map == null) {
+            map = compute(method);
+            cache.put(key, map);
+            if (Collector.isYoung(method)) { young = true; }
+        }
+        return map;
+    }
+
+    /**
+     * Discard all stack maps. This must be called whenever methods
+     * may have moved.
+     */
+    static void flush() {
+        cache.clear();
+        young = false;
+    }
+
+    /**
+     * Discard all stack maps if any belongs to a method in the nursery.
+     * This must be called after a minor collection.
+     */
+    static void flushYoung() {
+        if (young) { flush(); }
+    }
+
+    /**
+     * Compute the stack map of the given method
+     * @param method the method
+     * @return the stack map
+     */
+    private static StackMap compute(int method) {
+        int array = Mem.load(method + 4 * METHOD_CODE);
+        int length = Mem.load(array + 4 * ARRAY_LENGTH);
+        start = array + 4 * ARRAY_DATA;
+        pool = Mem.load(method + 4 * METHOD_POOL) + 4 * ARRAY_DATA;
+        maxLocals = Mem.load(method + 4 * METHOD_MAX_LOCALS);
+        maxStack = Mem.load(method + 4 * METHOD_MAX_STACK);
+        readHandlers(method);
+        states = new HashMap();
+        contexts = new ArrayList();
+        contextIndexes = new HashMap();
+        work = new LinkedList();
+        queued = new HashSet();
+
+        // the arguments are in the first locals
+        int[] state = new int[1 + maxLocals + maxStack];
+        int local = 0;
+        int flags = Mem.load(method + 4 * ENTRY_FLAGS);
+        if (!Modifier.isStatic(flags)) { state[1 + local++] = StackMap.REF; }
+        String descriptor = Debug.string(
+                Mem.load(method + 4 * ENTRY_DESCRIPTOR));
+        for (int i = 1; descriptor.charAt(i) != ')';
+                i = skip(descriptor, i)) {
+            char c = descriptor.charAt(i);
+            for (int j = 0; j < words(c); j++) {
+                state[1 + local++] = type(c);
+            }
+        }
+
+        // follow every path from the first instruction
+        merge(0, context(new int[0]), state);
+        while (!work.isEmpty()) {
+            Long key = (Long) work.removeFirst();
+            queued.remove(key);
+            long value = key.longValue();
+            step((int) value, (int) (value >>> 32));
+        }
+
+        // gather the states for each program counter
+        StackMap map = new StackMap(method, maxLocals, length);
+        for (Iterator i = states.entrySet().iterator(); i.hasNext(); ) {
+            Map.Entry entry = (Map.Entry) i.next();
+            int pc = (int) ((Long) entry.getKey()).longValue();
+            int[][] old = map.states[pc];
+            int count = (old == null) ? 0 : old.length;
+            int[][] added = new int[count + 1][];
+            if (old != null) { System.arraycopy(old, 0, added, 0, count); }
+            added[count] = (int[]) entry.getValue();
+            map.states[pc] = added;
+        }
+        states = null;
+        contexts = null;
+        contextIndexes = null;
+        return map;
+    }
+
+    /**
+     * Read the exception handlers of the given method
+     * @param method the method
+     */
+    private static void readHandlers(int method) {
+        int table = Mem.load(method + 4 * METHOD_EXCEPTIONS);
+        int count = (table == NULL) ? 0 : Mem.load(table + 4 * ARRAY_LENGTH);
+        handlers = new int[count / 4 * 3];
+        for (int i = 0; i < count / 4; i++) {
+            int entry = table + 4 * ARRAY_DATA + 8 * i;
+            handlers[3 * i] = Mem.loadShort(entry) & 0x0000ffff;
+            handlers[3 * i + 1] = Mem.loadShort(entry + 2) & 0x0000ffff;
+            handlers[3 * i + 2] = Mem.loadShort(entry + 4) & 0x0000ffff;
+        }
+    }
+
+    /**
+     * @param pc the program counter
+     * @param context the context
+     * @return the key for the state at the program counter in the context
+     */
+    private static Long key(int pc, int context) {
+        return new Long(((long) context << 32) | pc);
+    }
+
+    /**
+     * Return the index of the context with the given return addresses,
+     * adding it if it is new
+     * @param addresses the return addresses, the innermost last
+     * @return the context index
+     */
+    private static int context(int[] addresses) {
+        StringBuffer sb = new StringBuffer();
+        for (int i = 0; i < addresses.length; i++) {
+            sb.append(addresses[i]).append(' ');
+        }
+        String name = sb.toString();
+        Integer index = (Integer) contextIndexes.get(name);
+        if (index == null) {
+            index = new Integer(contexts.size());
+            contexts.add(addresses);
+            contextIndexes.put(name, index);
+        }
+        return index.intValue();
+    }
+
+    /**
+     * Merge a state into the state at the given program counter and
+     * context. A slot which differs between the two can not be used
+     * by the byte code, so it becomes unknown.
+     * @param pc the program counter
+     * @param context the context
+     * @param state the state
+     */
+    private static void merge(int pc, int context, int[] state) {
+        Long key = key(pc, context);
+        int[] old = (int[]) states.get(key);
+        boolean changed = false;
+        if (old == null) {
+            states.put(key, state.clone());
+            changed = true;
+        } else {
+            if (old[0] != state[0]) {
+                throw new IllegalStateException(
+                        "Stack depths differ at pc " + pc);
+            }
+            for (int i = 1; i < old.length; i++) {
+                if (old[i] != state[i] && old[i] != StackMap.TOP) {
+                    old[i] = StackMap.TOP;
+                    changed = true;
+                }
+            }
+        }
+        if (changed && queued.add(key)) { work.add(key); }
+    }
+
+    /**
+     * Follow the instruction at the given program counter, merging the
+     * resulting state into the states of each instruction that can come
+     * next
+     * @param pc the program counter
+     * @param context the context
+     */
+    private static void step(int pc, int context) {
+        int[] before = (int[]) states.get(key(pc, context));
+        int[] s = (int[]) before.clone();
+        int op = Mem.loadByte(start + pc);
+        int next = pc + Decoder.length(start, pc, op);
+
+        // an exception handler starts with the locals before any
+        // instruction it covers and the exception on the stack
+        for (int i = 0; i < handlers.length; i += 3) {
+            if (pc >= handlers[i] && pc < handlers[i + 1]) {
+                int[] handler = (int[]) before.clone();
+                for (int j = 1 + maxLocals; j < handler.length; j++) {
+                    handler[j] = StackMap.TOP;
+                }
+                handler[0] = 0;
+                push(handler, StackMap.REF);
+                merge(handlers[i + 2], context, handler);
+            }
+        }
+
+        switch (op) {
+            case NOP:
+            case IINC:
+            case CHECKCAST:
+                break;
+            case ACONST_NULL:
+            case NEW:
+                push(s, StackMap.REF);
+                break;
+            case ICONST_M1: case ICONST_0: case ICONST_1: case ICONST_2:
+            case ICONST_3: case ICONST_4: case ICONST_5: case FCONST_0:
+            case FCONST_1: case FCONST_2: case BIPUSH: case SIPUSH:
+                push(s, StackMap.DATA);
+                break;
+            case LCONST_0: case LCONST_1: case DCONST_2: case DCONST_1:
+            case LDC2_W:
+                push(s, StackMap.DATA);
+                push(s, StackMap.DATA);
+                break;
+            case LDC:
+                push(s, constant(Mem.loadByte(start + pc + 1)));
+                break;
+            case LDC_W:
+                push(s, constant(Decoder.twoBytes(start + pc + 1)));
+                break;
+            case ILOAD: case LLOAD: case FLOAD: case DLOAD: case ALOAD:
+            case ISTORE: case LSTORE: case FSTORE: case DSTORE: case ASTORE:
+                local(s, op, Mem.loadByte(start + pc + 1));
+                break;
+            case ILOAD_0: case ILOAD_1: case ILOAD_2: case ILOAD_3:
+            case LLOAD_0: case LLOAD_1: case LLOAD_2: case LLOAD_3:
+            case FLOAD_0: case FLOAD_1: case FLOAD_2: case FLOAD_3:
+            case DLOAD_0: case DLOAD_1: case DLOAD_2: case DLOAD_3:
+            case ALOAD_0: case ALOAD_1: case ALOAD_2: case ALOAD_3:
+                local(s, ILOAD + (op - ILOAD_0) / 4, (op - ILOAD_0) % 4);
+                break;
+            case ISTORE_0: case ISTORE_1: case ISTORE_2: case ISTORE_3:
+            case LSTORE_0: case LSTORE_1: case LSTORE_2: case LSTORE_3:
+            case FSTORE_0: case FSTORE_1: case FSTORE_2: case FSTORE_3:
+            case DSTORE_0: case DSTORE_1: case DSTORE_2: case DSTORE_3:
+            case ASTORE_0: case ASTORE_1: case ASTORE_2: case ASTORE_3:
+                local(s, ISTORE + (op - ISTORE_0) / 4, (op - ISTORE_0) % 4);
+                break;
+            case IALOAD: case FALOAD: case BALOAD: case CALOAD: case SALOAD:
+                pop(s, 2);
+                push(s, StackMap.DATA);
+                break;
+            case LALOAD: case DALOAD:
+                pop(s, 2);
+                push(s, StackMap.DATA);
+                push(s, StackMap.DATA);
+                break;
+            case AALOAD:
+                pop(s, 2);
+                push(s, StackMap.REF);
+                break;
+            case IASTORE: case FASTORE: case AASTORE: case BASTORE:
+            case CASTORE: case SASTORE:
+                pop(s, 3);
+                break;
+            case LASTORE: case DASTORE:
+                pop(s, 4);
+                break;
+            case POP:
+            case IFEQ: case IFNE: case IFLT: case IFGE: case IFGT: case IFLE:
+            case IFNULL: case IFNONNULL:
+            case MONITORENTER: case MONITOREXIT:
+                pop(s, 1);
+                break;
+            case POP2:
+            case IF_ICMPEQ: case IF_ICMPNE: case IF_ICMPLT: case IF_ICMPGE:
+            case IF_ICMPGT: case IF_ICMPLE: case IF_ACMPEQ: case IF_ACMPNE:
+                pop(s, 2);
+                break;
+            case DUP: case DUP_X1: case DUP_X2: case DUP2: case DUP2_X1:
+            case DUP2_X2: case SWAP:
+                shuffle(s, op);
+                break;
+            case GETSTATIC: case PUTSTATIC: case GETFIELD: case PUTFIELD:
+                field(s, op, Decoder.twoBytes(start + pc + 1));
+                break;
+            case INVOKEVIRTUAL: case INVOKESPECIAL: case INVOKESTATIC:
+            case INVOKEINTERFACE:
+                invoke(s, op, Decoder.twoBytes(start + pc + 1));
+                break;
+            case NEWARRAY: case ANEWARRAY:
+                pop(s, 1);
+                push(s, StackMap.REF);
+                break;
+            case ARRAYLENGTH: case INSTANCEOF:
+                pop(s, 1);
+                push(s, StackMap.DATA);
+                break;
+            case MULTIANEWARRAY:
+                pop(s, Mem.loadByte(start + pc + 3));
+                push(s, StackMap.REF);
+                break;
+            case WIDE:
+                op = Mem.loadByte(start + pc + 1);
+                if (op == RET) {
+                    ret(s, context, Decoder.twoBytes(start + pc + 2));
+                    return;
+                }
+                if (op != IINC) {
+                    local(s, op, Decoder.twoBytes(start + pc + 2));
+                }
+                break;
+            case GOTO:
+                merge(pc + Instruction.signExtendShort(
+                        Decoder.twoBytes(start + pc + 1)), context, s);
+                return;
+            case GOTO_W:
+                merge(pc + Decoder.fourBytes(start + pc + 1), context, s);
+                return;
+            case JSR:
+            case JSR_W:
+                jsr(s, context, next, (op == JSR)
+                        ? pc + Instruction.signExtendShort(
+                                Decoder.twoBytes(start + pc + 1))
+                        : pc + Decoder.fourBytes(start + pc + 1));
+                return;
+            case RET:
+                ret(s, context, Mem.loadByte(start + pc + 1));
+                return;
+            case TABLESWITCH:
+            case LOOKUPSWITCH:
+                pop(s, 1);
+                branches(s, context, pc, op);
+                return;
+            case IRETURN: case LRETURN: case FRETURN: case DRETURN:
+            case ARETURN: case RETURN: case ATHROW:
+                return;
+            default:
+                if (op >= IADD && op <= I2S || op >= LCMP && op <= DCMPG) {
+                    arithmetic(s, op);
+                    break;
+                }
+                throw new IllegalStateException("Invalid byte code " + op
+                        + " at pc " + pc);
+        }
+
+        // conditional branches may also go to their target
+        if (op >= IFEQ && op <= IF_ACMPNE || op == IFNULL
+                || op == IFNONNULL) {
+            merge(pc + Instruction.signExtendShort(
+                    Decoder.twoBytes(start + pc + 1)), context, s);
+        }
+        merge(next, context, s);
+    }
+
+    /**
+     * Push a value of the given type
+     * @param s the state
+     * @param type the type
+     */
+    private static void push(int[] s, int type) {
+        if (s[0] == maxStack) {
+            throw new IllegalStateException("Stack overflow");
+        }
+        s[1 + maxLocals + s[0]++] = type;
+    }
+
+    /**
+     * Pop the given number of values
+     * @param s the state
+     * @param count the number of values
+     * @return the type of the last value popped
+     */
+    private static int pop(int[] s, int count) {
+        int type = StackMap.TOP;
+        for (int i = 0; i < count; i++) {
+            if (s[0] == 0) {
+                throw new IllegalStateException("Stack underflow");
+            }
+            int index = 1 + maxLocals + --s[0];
+            type = s[index];
+            s[index] = StackMap.TOP;
+        }
+        return type;
+    }
+
+    /**
+     * Load or store a local variable
+     * @param s the state
+     * @param op the xload or xstore operation with an index operand
+     * @param index the local variable index
+     */
+    private static void local(int[] s, int op, int index) {
+        switch (op) {
+            case ILOAD: case FLOAD:
+                push(s, StackMap.DATA);
+                break;
+            case LLOAD: case DLOAD:
+                push(s, StackMap.DATA);
+                push(s, StackMap.DATA);
+                break;
+            case ALOAD:
+                push(s, s[1 + index]);
+                break;
+            case ISTORE: case FSTORE:
+                pop(s, 1);
+                s[1 + index] = StackMap.DATA;
+                break;
+            case LSTORE: case DSTORE:
+                pop(s, 2);
+                s[1 + index] = StackMap.DATA;
+                s[2 + index] = StackMap.DATA;
+                break;
+            case ASTORE:
+                s[1 + index] = pop(s, 1);
+                break;
+            default:
+                throw new IllegalStateException("Invalid wide byte code");
+        }
+    }
+
+    /**
+     * Rearrange the top stack entries for a dup or swap instruction
+     * @param s the state
+     * @param op the operation
+     */
+    private static void shuffle(int[] s, int op) {
+        int a = pop(s, 1);
+        int b = (op == DUP) ? a : pop(s, 1);
+        int c = (op == DUP_X2 || op == DUP2_X1 || op == DUP2_X2)
+                ? pop(s, 1)
+                : a;
+        int d = (op == DUP2_X2) ? pop(s, 1) : a;
+        switch (op) {
+            case DUP:
+                push(s, a);
+                push(s, a);
+                break;
+            case DUP_X1:
+                push(s, a);
+                push(s, b);
+                push(s, a);
+                break;
+            case DUP_X2:
+                push(s, a);
+                push(s, c);
+                push(s, b);
+                push(s, a);
+                break;
+            case DUP2:
+                push(s, b);
+                push(s, a);
+                push(s, b);
+                push(s, a);
+                break;
+            case DUP2_X1:
+                push(s, b);
+                push(s, a);
+                push(s, c);
+                push(s, b);
+                push(s, a);
+                break;
+            case DUP2_X2:
+                push(s, b);
+                push(s, a);
+                push(s, d);
+                push(s, c);
+                push(s, b);
+                push(s, a);
+                break;
+            default: // swap
+                push(s, a);
+                push(s, b);
+                break;
+        }
+    }
+
+    /**
+     * Pop and push the data values of an arithmetic, conversion or
+     * comparison instruction
+     * @param s the state
+     * @param op the operation
+     */
+    private static void arithmetic(int[] s, int op) {
+        int pops;
+        int pushes;
+        if (op <= DREM) {
+            // add, subtract, multiply, divide and remainder
+            boolean wide = ((op - IADD) % 2 == 1);
+            pops = wide ? 4 : 2;
+            pushes = wide ? 2 : 1;
+        } else if (op <= DNEG) {
+            pops = (op == LNEG || op == DNEG) ? 2 : 1;
+            pushes = pops;
+        } else if (op <= LUSHR) {
+            // shift a value by an int
+            boolean wide = (op == LSHL || op == LSHR || op == LUSHR);
+            pops = wide ? 3 : 2;
+            pushes = wide ? 2 : 1;
+        } else if (op <= LXOR) {
+            boolean wide = (op == LAND || op == LOR || op == LXOR);
+            pops = wide ? 4 : 2;
+            pushes = wide ? 2 : 1;
+        } else if (op <= I2S) {
+            // conversions, from and to a type of one or two words
+            pops = (op >= L2I && op <= L2D || op >= D2I && op <= D2F) ? 2 : 1;
+            pushes = (op == I2L || op == I2D || op == L2D || op == F2L
+                    || op == F2D || op == D2L) ? 2 : 1;
+        } else {
+            // comparisons
+            pops = (op == FCMPL || op == FCMPG) ? 2 : 4;
+            pushes = 1;
+        }
+        pop(s, pops);
+        for (int i = 0; i < pushes; i++) {
+            push(s, StackMap.DATA);
+        }
+    }
+
+    /**
+     * @param index the pool index of a constant loaded by ldc
+     * @return the type of the constant
+     */
+    private static int constant(int index) {
+        int entry = Mem.load(pool + 4 * index);
+        int id = Mem.load(entry + 4 * ENTRY_ID);
+        return (id == Entry.STRING_CONSTANT) ? StackMap.REF : StackMap.DATA;
+    }
+
+    /**
+     * Pop and push the values of a field instruction
+     * @param s the state
+     * @param op the operation
+     * @param index the pool index of the field
+     */
+    private static void field(int[] s, int op, int index) {
+        int entry = Mem.load(pool + 4 * index);
+        char c = Debug.string(Mem.load(entry + 4 * ENTRY_DESCRIPTOR))
+                .charAt(0);
+        if (op == GETFIELD || op == PUTFIELD) { pop(s, 1); }
+        if (op == PUTSTATIC || op == PUTFIELD) {
+            pop(s, words(c));
+        } else {
+            for (int i = 0; i < words(c); i++) { push(s, type(c)); }
+        }
+    }
+
+    /**
+     * Pop the arguments and push the result of an invoke instruction
+     * @param s the state
+     * @param op the operation
+     * @param index the pool index of the method
+     */
+    private static void invoke(int[] s, int op, int index) {
+        int entry = Mem.load(pool + 4 * index);
+        String descriptor = Debug.string(
+                Mem.load(entry + 4 * ENTRY_DESCRIPTOR));
+        int i = 1;
+        int count = (op == INVOKESTATIC) ? 0 : 1;
+        while (descriptor.charAt(i) != ')') {
+            count += words(descriptor.charAt(i));
+            i = skip(descriptor, i);
+        }
+        pop(s, count);
+        char c = descriptor.charAt(i + 1);
+        for (int j = 0; j < words(c); j++) { push(s, type(c)); }
+    }
+
+    /**
+     * Follow a jsr instruction into its subroutine, which is followed
+     * separately for each jsr instruction
+     * @param s the state
+     * @param context the context of the jsr instruction
+     * @param next the return address
+     * @param target the start of the subroutine
+     */
+    private static void jsr(int[] s, int context, int next, int target) {
+        push(s, StackMap.RET + next);
+        int[] addresses = (int[]) contexts.get(context);
+        int[] inner = new int[addresses.length + 1];
+        System.arraycopy(addresses, 0, inner, 0, addresses.length);
+        inner[addresses.length] = next;
+        merge(target, context(inner), s);
+    }
+
+    /**
+     * Follow a ret instruction back to the instruction after the jsr,
+     * in the context of the jsr instruction
+     * @param s the state
+     * @param context the context of the ret instruction
+     * @param index the local holding the return address
+     */
+    private static void ret(int[] s, int context, int index) {
+        int address = s[1 + index] - StackMap.RET;
+        int[] addresses = (int[]) contexts.get(context);
+        for (int i = addresses.length - 1; i >= 0; i--) {
+            if (addresses[i] == address) {
+                int[] outer = new int[i];
+                System.arraycopy(addresses, 0, outer, 0, i);
+                merge(address, context(outer), s);
+                return;
+            }
+        }
+        throw new IllegalStateException("Invalid return address in local "
+                + index);
+    }
+
+    /**
+     * Follow each branch of a switch instruction
+     * @param s the state
+     * @param context the context
+     * @param pc the program counter
+     * @param op the operation
+     */
+    private static void branches(int[] s, int context, int pc, int op) {
+        int address = start + pc + 1 + (3 - (pc % 4));
+        merge(pc + Decoder.fourBytes(address), context, s);
+        if (op == TABLESWITCH) {
+            int low = Decoder.fourBytes(address + 4);
+            int high = Decoder.fourBytes(address + 8);
+            for (int i = 0; i <= high - low; i++) {
+                merge(pc + Decoder.fourBytes(address + 12 + 4 * i),
+                        context, s);
+            }
+        } else {
+            int npairs = Decoder.fourBytes(address + 4);
+            for (int i = 0; i < npairs; i++) {
+                merge(pc + Decoder.fourBytes(address + 12 + 8 * i),
+                        context, s);
+            }
+        }
+    }
+
+    /**
+     * @param c the first character of a type descriptor
+     * @return the number of words taken by a value of the type
+     */
+    private static int words(char c) {
+        switch (c) {
+            case 'J': case 'D': return 2;
+            case 'V':           return 0;
+            default:            return 1;
+        }
+    }
+
+    /**
+     * @param c the first character of a type descriptor
+     * @return the stack map type of a value of the type
+     */
+    private static int type(char c) {
+        return (c == 'L' || c == '[') ? StackMap.REF : StackMap.DATA;
+    }
+
+    /**
+     * @param descriptor a method descriptor
+     * @param i the index of the first character of an argument type
+     * @return the index after the argument type
+     */
+    private static int skip(String descriptor, int i) {
+        while (descriptor.charAt(i) == '[') { i++; }
+        if (descriptor.charAt(i) == 'L') {
+            i = descriptor.indexOf(';', i);
+        }
+        return i + 1;
+    }
+
+}
@@ -27,52 +27,47 @@ class Store implements Constants {
     
     /**
      * istore instruction
+     * @param index the local variable index
      */
-    static void istore() {
-        int index = Instruction.byteCode(1);
+    static void istore(int index) {
         Locals.storeDataToLocal(Stack.popData(), index);
         Reg.instruction += 2;
     }
     
     /**
      * lstore instruction
+     * @param index the local variable index
      */
-    static void lstore() {
-        int index = Instruction.byteCode(1);
+    static void lstore(int index) {
         Locals.storeLongToLocal(Stack.popLong(), index);
         Reg.instruction += 2;
     }
     
     /**
      * fstore instruction
+     * @param index the local variable index
      */
-    static void fstore() {
-        int index = Instruction.byteCode(1);
+    static void fstore(int index) {
         Locals.storeDataToLocal(Stack.popData(), index);
         Reg.instruction += 2;
     }
     
     /**
      * dstore instruction
+     * @param index the local variable index
      */
-    static void dstore() {
-        int index = Instruction.byteCode(1);
+    static void dstore(int index) {
         Locals.storeLongToLocal(Stack.popLong(), index);
         Reg.instruction += 2;
     }
     
     /**
      * astore instruction
+     * @param index the local variable index
      */
-    static void astore() {
-        int index = Instruction.byteCode(1);
-        if (Stack.pointerOnStack()) {
-            // reference
-            Locals.storePointerToLocal(Stack.popPointer(), index);
-        } else {
-            // return address (pc value as data)
-            Locals.storeDataToLocal(Stack.popData(), index);
-        }
+    static void astore(int index) {
+        // a reference or a return address, copied without checking
+        Locals.storeDataToLocal(Stack.popData(), index);
         Reg.instruction += 2;
     }
     
@@ -117,13 +112,8 @@ class Store implements Constants {
      * @param index the index
      */
     static void astore_x(int index) {
-        if (Stack.pointerOnStack()) {
-            // reference
-            Locals.storePointerToLocal(Stack.popPointer(), index);
-        } else {
-            // return address (pc value as data)
-            Locals.storeDataToLocal(Stack.popData(), index);
-        }
+        // a reference or a return address, copied without checking
+        Locals.storeDataToLocal(Stack.popData(), index);
         Reg.instruction += 1;
     }
 
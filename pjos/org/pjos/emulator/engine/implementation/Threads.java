@@ -55,11 +55,15 @@ class Threads implements Constants {
         int method = Mem.load(Reg.core + 4 * CORE_THREAD_RUN_METHOD);
         int maxStack = Mem.load(method + 4 * METHOD_MAX_STACK);
         int maxLocals = Mem.load(method + 4 * METHOD_MAX_LOCALS);
-        int numWords = FRAME_LOCALS + 2 * maxStack + 2 * maxLocals;
+        int numWords = FRAME_LOCALS + maxStack + maxLocals;
         
-        // allocate space for new frame
-        int address = Allocate.allocate(numWords, HEADER_STACK_FRAME);
-        if (address == NULL) { return; } // roll back, gc done
+        // allocate space for new frame, in a new stack segment if one
+        // is free
+        int address = Segments.push(NULL, numWords);
+        if (address == NULL) {
+            address = Allocate.allocate(numWords, HEADER_STACK_FRAME);
+            if (address == NULL) { return; } // roll back, gc done
+        }
         
         // initialise new frame
         int frameType = Mem.load(Reg.frame + 4 * OBJECT_TYPE);
@@ -70,7 +74,6 @@ class Threads implements Constants {
         Mem.store(0, address + 4 * FRAME_PC);
         Mem.store(4 * numWords, address + 4 * FRAME_SP);
         Mem.store(thread, address + 4 * FRAME_LOCALS); // arg 0 address
-        Mem.store(TRUE, address + 4 * FRAME_LOCALS + 4); // reference flag
 
         // set new frame in thread object and set thread state to running
         Mem.store(address, thread + 4 * THREAD_FRAME);
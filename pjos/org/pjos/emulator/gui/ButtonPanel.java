@@ -32,6 +32,7 @@ import java.io.PrintWriter;
 import java.io.StringWriter;
 
 import javax.swing.JButton;
+import javax.swing.JFileChooser;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JSpinner;
@@ -70,6 +71,18 @@ class ButtonPanel extends JPanel {
     /** The limit button */
     private JToggleButton limitButton = new JToggleButton("Limit");
     
+    /** The profile button */
+    private JToggleButton profileButton = new JToggleButton("Profile");
+    
+    /** The report button */
+    private JButton reportButton = new JButton("Report");
+    
+    /** The save button */
+    private JButton saveButton = new JButton("Save");
+    
+    /** The restore button */
+    private JButton restoreButton = new JButton("Restore");
+    
     /** The spinner model */
     private SpinnerNumberModel spinnerModel
             = new SpinnerNumberModel(1, 1, Integer.MAX_VALUE, 1);
@@ -105,6 +118,10 @@ class ButtonPanel extends JPanel {
         add(limitButton);
         add(spinnerLabel);
         add(spinner);
+        add(profileButton);
+        add(reportButton);
+        add(saveButton);
+        add(restoreButton);
     }
     
     /**
@@ -134,6 +151,28 @@ class ButtonPanel extends JPanel {
             }
         });
         
+        // allow profile button to switch profiling off/on
+        profileButton.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                engine.setProfiling(profileButton.isSelected());
+            }
+        });
+        
+        // when the report button is pressed, save the profile
+        reportButton.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) { saveProfile(); }
+        });
+        
+        // when the save button is pressed, save a snapshot
+        saveButton.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) { saveSnapshot(); }
+        });
+        
+        // when the restore button is pressed, restore a snapshot
+        restoreButton.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) { restoreSnapshot(); }
+        });
+        
         // when the reset button is pressed, reset the engine
         resetButton.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent e) { reset(); }
@@ -153,6 +192,7 @@ class ButtonPanel extends JPanel {
      */
     private void setStates() {
         debugButton.setSelected(engine.getDebug());
+        profileButton.setSelected(engine.getProfiling());
         goButton.setSelected(executor.getRunning());
         boolean limited = executor.isLimited();
         spinner.setEnabled(limited);
@@ -183,6 +223,60 @@ class ButtonPanel extends JPanel {
         }
     }
     
+    /**
+     * Save a snapshot of the engine to a file chosen by the user
+     */
+    private void saveSnapshot() {
+        JFileChooser chooser = new JFileChooser();
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        try {
+            engine.saveSnapshot(chooser.getSelectedFile());
+        } catch (Exception e) {
+            StringWriter sw = new StringWriter();
+            e.printStackTrace(new PrintWriter(sw));
+            Util.displayError(sw.toString(), this);
+        }
+    }
+    
+    /**
+     * Restore the engine from a snapshot file chosen by the user
+     */
+    private void restoreSnapshot() {
+        JFileChooser chooser = new JFileChooser();
+        if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        try {
+            engine.restoreSnapshot(chooser.getSelectedFile());
+        } catch (Exception e) {
+            StringWriter sw = new StringWriter();
+            e.printStackTrace(new PrintWriter(sw));
+            Util.displayError(sw.toString(), this);
+        }
+    }
+    
+    /**
+     * Save the profile to a file chosen by the user. A file name ending
+     * in .csv gets comma separated values, any other a sorted report.
+     */
+    private void saveProfile() {
+        JFileChooser chooser = new JFileChooser();
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        File file = chooser.getSelectedFile();
+        try {
+            boolean csv = file.getName().endsWith(".csv");
+            Util.putText(file, engine.getProfile(csv));
+        } catch (Exception e) {
+            StringWriter sw = new StringWriter();
+            e.printStackTrace(new PrintWriter(sw));
+            Util.displayError(sw.toString(), this);
+        }
+    }
+    
 }
 
 
@@ -33,6 +33,13 @@ import java.io.StringWriter;
  */
 class Executor implements Runnable {
     
+    /**
+     * The maximum number of instructions executed in one batch. The
+     * running state is only checked between batches, but a batch in
+     * progress is halted as soon as the running state is cleared.
+     */
+    private static final int BATCH = 10000;
+    
     /** The engine */
     private Engine engine;
     
@@ -42,6 +49,9 @@ class Executor implements Runnable {
     /** The running state */
     private boolean running = false;
     
+    /** Set while a batch is executed or the engine waits for work */
+    private boolean busy = false;
+    
     /** The limited state. This flag is set if instructions are limited */
     private boolean limited = false;
     
@@ -70,6 +80,7 @@ class Executor implements Runnable {
     synchronized void setRunning(boolean running) {
         this.running = running;
         count = 0;
+        if (!running && busy) { engine.halt(); }
         notifyAll();
     }
     
@@ -100,19 +111,26 @@ class Executor implements Runnable {
     }
     
     /**
-     * Notify components at regular intervals
+     * Execute batches of instructions while the running state is set
      */
     public void run() {
         while (true) {
-            waitUntilRunning();
-            executeInstruction();
+            int batch = waitUntilRunning();
+            int before = engine.getCounter();
+            Exception e = engine.run(batch);
+            boolean stopped = engine.getInstruction()
+                    == engine.getBreakpoint();
+            finishBatch(engine.getCounter() - before, stopped, e);
+            if (running) { engine.waitForWork(); }
+            endBatch();
         }
     }
     
     /**
      * Wait until the running state is set to true
+     * @return the number of instructions to execute in the next batch
      */
-    private synchronized void waitUntilRunning() {
+    private synchronized int waitUntilRunning() {
         while (!running) {
             try {
                 wait();
@@ -120,23 +138,49 @@ class Executor implements Runnable {
                 e.printStackTrace();
             }
         }
+        busy = true;
+        if (!limited) { return BATCH; }
+        return Math.max(1, Math.min(BATCH, limit - count));
     }
     
     /**
-     * Execute an instruction
+     * Update the running state after a batch of instructions
+     * @param executed the number of instructions executed
+     * @param stopped true if the breakpoint was reached
+     * @param e the exception thrown, or null
      */
-    private synchronized void executeInstruction() {
-        Exception e = engine.step();
-        if (limited && ++count >= limit) { setRunning(false); }
+    private synchronized void finishBatch(
+            int executed,
+            boolean stopped,
+            Exception e)
+    {
+        count += executed;
+        if (limited && count >= limit) { stop(); }
+        if (stopped) { stop(); }
         if (e != null) {
             StringWriter sw = new StringWriter();
             PrintWriter pw = new PrintWriter(sw);
             e.printStackTrace(pw);
             Util.displayError(sw.toString(), component);
-            setRunning(false);
+            stop();
         }
     }
     
+    /**
+     * Mark the end of a batch, after which there is nothing to halt
+     */
+    private synchronized void endBatch() {
+        busy = false;
+    }
+    
+    /**
+     * Clear the running state between batches (no batch to halt)
+     */
+    private void stop() {
+        running = false;
+        count = 0;
+    }
+    
 }
 
 
@@ -37,8 +37,20 @@ public final class Main {
     /**
      * Start the emulator gui from the command line. The emulator expects two
      * files to be present in the current directory: "memory.bin" and
-     * "floppy.bin".
-     * @param args command line args (none)
+     * "floppy.bin". The memory size in megabytes may be given as the
+     * only argument. If the system property pjos.snapshot names a file
+     * which exists, the emulator is restored from that snapshot instead
+     * of being reset. If the system property pjos.profile names a file,
+     * execution is profiled and the profile is written to that file when
+     * the emulator exits (as comma separated values if the name ends in
+     * .csv). Likewise if pjos.samples names a file, the call stack is
+     * sampled every 10 milliseconds, or every pjos.sampleEvery
+     * instructions if that is set, and the samples are written to that
+     * file in collapsed stack format. The system property pjos.quantum
+     * sets the number of instructions in a time slice, and if
+     * pjos.virtualClock is true, guest time is counted in instructions
+     * so that runs are repeatable.
+     * @param args command line args (optional memory size)
      * @throws Exception if an error occurs
      */
     public static void main(String[] args) throws Exception {
@@ -56,7 +68,23 @@ public final class Main {
 
             // Create the emulator implementation
             Engine engine = Implementation.get();
-            engine.reset(memoryData, floppyData);
+            if (args.length > 0) {
+                engine.setMemorySize(Integer.parseInt(args[0]) * 1024 * 1024);
+            }
+            String quantum = System.getProperty("pjos.quantum");
+            if (quantum != null) {
+                engine.setQuantum(Integer.parseInt(quantum));
+            }
+            engine.setVirtualClock(Boolean.getBoolean("pjos.virtualClock"));
+            String snapshot = System.getProperty("pjos.snapshot");
+            if (snapshot != null && new File(snapshot).exists()) {
+                engine.restoreSnapshot(new File(snapshot));
+            } else {
+                engine.reset(memoryData, floppyData);
+            }
+            profile(engine, System.getProperty("pjos.profile"));
+            sample(engine, System.getProperty("pjos.samples"),
+                    System.getProperty("pjos.sampleEvery"));
 
             // Replace the two lines above with this line to
             // use the reset implementation. This will reload
@@ -76,6 +104,57 @@ public final class Main {
         }
     }
     
+    /**
+     * Profile the engine, and write the profile to the given file
+     * when the emulator exits
+     * @param engine the engine
+     * @param name the file name, or null for no profiling
+     */
+    private static void profile(final Engine engine, String name) {
+        if (name == null) { return; }
+        final File file = new File(name);
+        engine.setProfiling(true);
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            public void run() {
+                try {
+                    boolean csv = file.getName().endsWith(".csv");
+                    Util.putText(file, engine.getProfile(csv));
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+    
+    /**
+     * Sample the engine, and write the samples to the given file when
+     * the emulator exits
+     * @param engine the engine
+     * @param name the file name, or null for no sampling
+     * @param every the number of instructions between samples, or null
+     *     to sample every 10 milliseconds
+     */
+    private static void sample(final Engine engine, String name,
+            String every) {
+        if (name == null) { return; }
+        final File file = new File(name);
+        if (every == null) {
+            engine.setSampling(Engine.SAMPLING_TIMER, 10);
+        } else {
+            engine.setSampling(Engine.SAMPLING_INSTRUCTIONS,
+                    Integer.parseInt(every));
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            public void run() {
+                try {
+                    Util.putText(file, engine.getSamples());
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+    
 }
 
 
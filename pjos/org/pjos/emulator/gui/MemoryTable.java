@@ -22,6 +22,8 @@ package org.pjos.emulator.gui;
 
 import org.pjos.emulator.engine.Engine;
 
+import java.awt.Graphics;
+
 import javax.swing.JTable;
 
 /**
@@ -43,6 +45,15 @@ class MemoryTable extends JTable {
         getColumnModel().getColumn(0).setMaxWidth(150);
     }
     
+    /**
+     * Overridden to follow changes in the memory size before displaying
+     * @param g the graphics
+     */
+    public void paint(Graphics g) {
+        ((MemoryTableModel) getModel()).updateRowCount();
+        super.paint(g);
+    }
+    
 }
 
 
@@ -45,6 +45,18 @@ class MemoryTableModel extends AbstractTableModel {
         rowCount = engine.getMemorySize() / 4;
     }
     
+    /**
+     * Follow any change in the memory size since the last call, which
+     * happens when the engine is reset with a new size
+     */
+    void updateRowCount() {
+        int latest = engine.getMemorySize() / 4;
+        if (latest != rowCount) {
+            rowCount = latest;
+            fireTableDataChanged();
+        }
+    }
+    
     /**
      * Return the value at the specified index
      * @param row the row index
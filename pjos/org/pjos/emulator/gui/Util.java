@@ -29,6 +29,7 @@ import java.awt.Component;
 import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileWriter;
 import java.io.IOException;
 
 import javax.swing.JOptionPane;
@@ -84,6 +85,18 @@ class Util implements Constants {
         in.close();
         return result;
     }
+    
+    /**
+     * Write the given text to the specified file, replacing its contents.
+     * @param f the file
+     * @param text the text
+     * @throws IOException if an error occurs
+     */
+    static void putText(File f, String text) throws IOException {
+        FileWriter out = new FileWriter(f);
+        out.write(text);
+        out.close();
+    }
 
     /**
      * Display an error dialog with the given message for the given component
@@ -0,0 +1,45 @@
+/*
+Copyright 2002 Simon Daniel
+email: simon@pjos.org
+
+This file is part of PJOS.
+
+This program is free software; you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation; either version 2 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program; if not, write to the Free Software
+Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+package org.pjos.test.driver;
+
+/**
+ * Declares the method that InheritedTest uses to implement Inherited,
+ * without implementing the interface itself
+ */
+class InheritedBase {
+
+    /**
+     * Create an instance
+     */
+    InheritedBase() {
+        // nothing to do here
+    }
+
+    /**
+     * The correct message will only be returned if this method was
+     * kept in the image as the implementation of Inherited.check()
+     * @return the message
+     */
+    public String check() {
+        return InheritedBase.class + " method reached successfully";
+    }
+
+}
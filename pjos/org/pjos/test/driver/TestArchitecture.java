@@ -68,6 +68,11 @@ public final class TestArchitecture extends Architecture {
         Test test = new Test();
         System.out.println("test: " + test);
 
+        // test that an inherited interface method is in the image
+        System.out.println("Testing inherited interface methods");
+        Inherited inherited = new InheritedTest();
+        System.out.println("inherited: " + inherited.check());
+
         // start shell without local echo
         Shell shell = new Shell(false);
         Thread thread = new Thread(shell, "Shell");